@@ -0,0 +1,158 @@
+package io.github.kusoroadeolu.txmap.benchmarks;
+
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Auto commit benchmark — single key puts and gets, each thread on its own keys.
+ *
+ * Goal: measure how close the auto commit view of a transactional map gets to a raw ConcurrentHashMap for single op transactions.
+ * Three ways to run the same op:
+ *  - chm:  a ConcurrentHashMap, the ceiling
+ *  - view: TransactionalMap.asConcurrentMap(), keys no transaction is using skip the transaction machinery
+ *  - tx:   begin, one op, commit and read the future, what a single op costs without the view
+ *
+ * What to look for:
+ *  - view_* should land near chm_*, and well above tx_*, no transaction ever touches these keys
+ *  - gc.alloc.rate.norm with -prof gc, view_get shouldn't allocate at all
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AutoCommitBenchmark {
+
+    private static final int KEYS_PER_THREAD = 1_024;
+
+    private ConcurrentMap<Integer, Integer> chm;
+    private TransactionalMap<Integer, Integer> txMap;
+    private ConcurrentMap<Integer, Integer> view;
+    private final AtomicInteger threadCounter = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int base;
+        int index;
+
+        @Setup(Level.Trial)
+        public void setup(AutoCommitBenchmark bench) {
+            base = bench.threadCounter.getAndIncrement() * KEYS_PER_THREAD;
+        }
+
+        int nextKey() {
+            return base + (index++ & (KEYS_PER_THREAD - 1));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        chm = new ConcurrentHashMap<>();
+        txMap = TransactionalMap.create();
+        view = txMap.asConcurrentMap();
+        threadCounter.set(0);
+        for (int k = 0; k < 16 * KEYS_PER_THREAD; k++) {
+            chm.put(k, k);
+            view.put(k, k);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void chm_put_1thread(ThreadState ts, Blackhole bh) {
+        bh.consume(chm.put(ts.nextKey(), 1));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void chm_put_8threads(ThreadState ts, Blackhole bh) {
+        bh.consume(chm.put(ts.nextKey(), 1));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void view_put_1thread(ThreadState ts, Blackhole bh) {
+        bh.consume(view.put(ts.nextKey(), 1));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void view_put_8threads(ThreadState ts, Blackhole bh) {
+        bh.consume(view.put(ts.nextKey(), 1));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void tx_put_1thread(ThreadState ts, Blackhole bh) {
+        tx_put(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void tx_put_8threads(ThreadState ts, Blackhole bh) {
+        tx_put(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void chm_get_1thread(ThreadState ts, Blackhole bh) {
+        bh.consume(chm.get(ts.nextKey()));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void chm_get_8threads(ThreadState ts, Blackhole bh) {
+        bh.consume(chm.get(ts.nextKey()));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void view_get_1thread(ThreadState ts, Blackhole bh) {
+        bh.consume(view.get(ts.nextKey()));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void view_get_8threads(ThreadState ts, Blackhole bh) {
+        bh.consume(view.get(ts.nextKey()));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void tx_get_1thread(ThreadState ts, Blackhole bh) {
+        tx_get(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void tx_get_8threads(ThreadState ts, Blackhole bh) {
+        tx_get(ts, bh);
+    }
+
+    // -------------------------------------------------------------------------
+    // Helpers
+    // -------------------------------------------------------------------------
+
+    private void tx_put(ThreadState ts, Blackhole bh) {
+        try (var tx = txMap.beginTx()) {
+            var future = tx.put(ts.nextKey(), 1);
+            tx.commit();
+            bh.consume(future.get());
+        }
+    }
+
+    private void tx_get(ThreadState ts, Blackhole bh) {
+        try (var tx = txMap.beginTx()) {
+            var future = tx.get(ts.nextKey());
+            tx.commit();
+            bh.consume(future.get());
+        }
+    }
+}
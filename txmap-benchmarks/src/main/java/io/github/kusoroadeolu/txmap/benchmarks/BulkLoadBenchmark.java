@@ -0,0 +1,88 @@
+package io.github.kusoroadeolu.txmap.benchmarks;
+
+import io.github.kusoroadeolu.txmap.FutureValue;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk load benchmark — one transaction writes, reads back and removes KEY_COUNT keys.
+ *
+ * Goal: measure what the bulk ops save over one op per key in large transactions, e.g. a reconciliation pass.
+ * Both modes run three transactions per op, a load, a read of every key and a removal of every key:
+ *  - perKey: put, get and remove per key, a future per op
+ *  - bulk:   putAll, getAll and removeAll, one result view per transaction
+ *
+ * What to look for:
+ *  - bulk should beat perKey by the cost of a future per key, the write children and their locks are the same in both
+ *  - gc.alloc.rate.norm with -prof gc, which should drop by roughly a future per key
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BulkLoadBenchmark {
+
+    private static final int KEY_COUNT = 10_000;
+
+    private TransactionalMap<Integer, Integer> txMap;
+    private Map<Integer, Integer> entries;
+    private List<Integer> keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        txMap = TransactionalMap.create();
+        entries = new LinkedHashMap<>();
+        keys = new ArrayList<>();
+        for (int k = 0; k < KEY_COUNT; k++) {
+            entries.put(k, k);
+            keys.add(k);
+        }
+    }
+
+    @Benchmark
+    public void perKey(Blackhole bh) {
+        try (var tx = txMap.beginTx()) {
+            for (var entry : entries.entrySet()) bh.consume(tx.put(entry.getKey(), entry.getValue()));
+            tx.commit();
+        }
+
+        var gets = new ArrayList<FutureValue<Integer>>(KEY_COUNT);
+        try (var tx = txMap.beginTx()) {
+            for (var key : keys) gets.add(tx.get(key));
+            tx.commit();
+        }
+        bh.consume(gets);
+
+        try (var tx = txMap.beginTx()) {
+            for (var key : keys) bh.consume(tx.remove(key));
+            tx.commit();
+        }
+    }
+
+    @Benchmark
+    public void bulk(Blackhole bh) {
+        try (var tx = txMap.beginTx()) {
+            bh.consume(tx.putAll(entries));
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            bh.consume(tx.getAll(keys));
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            bh.consume(tx.removeAll(keys));
+            tx.commit();
+        }
+    }
+}
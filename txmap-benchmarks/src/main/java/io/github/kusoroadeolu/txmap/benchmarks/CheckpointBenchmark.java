@@ -0,0 +1,76 @@
+package io.github.kusoroadeolu.txmap.benchmarks;
+
+import io.github.kusoroadeolu.txmap.CheckpointableMap;
+import io.github.kusoroadeolu.txmap.Codec;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpoint write and load benchmark.
+ *
+ * Goal: measure how long it takes to write a map's image to a memory mapped checkpoint file,
+ * and how long it takes to build a new map from that file, for a growing number of entries.
+ *
+ * What to look for:
+ *  - Both should scale linearly with the entry count
+ *  - load should be far cheaper than replaying the same entries through transactions
+ *
+ * Run with:
+ *   java -jar benchmark.jar CheckpointBenchmark -p entries=50000000 -jvmArgs -Xmx32g
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CheckpointBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int entries;
+
+    private CheckpointableMap<Long, Long> txMap;
+    private Path dir;
+    private Path writeFile;
+    private Path loadFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        txMap = TransactionalMap.create();
+        int batch = 10_000; // Keeps each populating transaction small
+        for (long start = 0; start < entries; start += batch) {
+            try (var tx = txMap.beginTx()) {
+                for (long key = start; key < Math.min(entries, start + batch); key++) tx.put(key, key);
+                tx.commit();
+            }
+        }
+
+        dir = Files.createTempDirectory("txmap-checkpoint-bench");
+        writeFile = dir.resolve("write.ckpt");
+        loadFile = dir.resolve("load.ckpt");
+        txMap.checkpoint(loadFile, Codec.int64(), Codec.int64());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(writeFile);
+        Files.deleteIfExists(loadFile);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void write() {
+        txMap.checkpoint(writeFile, Codec.int64(), Codec.int64());
+    }
+
+    @Benchmark
+    public void load(Blackhole bh) {
+        bh.consume(TransactionalMap.fromCheckpoint(loadFile, Codec.int64(), Codec.int64()));
+    }
+}
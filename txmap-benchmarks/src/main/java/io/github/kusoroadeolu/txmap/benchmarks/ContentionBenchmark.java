@@ -1,9 +1,12 @@
 package io.github.kusoroadeolu.txmap.benchmarks;
 
+import io.github.kusoroadeolu.txmap.ContentionManager;
+import io.github.kusoroadeolu.txmap.FutureValue;
 import io.github.kusoroadeolu.txmap.TransactionalMap;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
 
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -20,6 +23,8 @@ import java.util.concurrent.TimeUnit;
  * What to look for:
  *  - How throughput degrades as thread count and write ratio increase
  *  - Whether write-heavy + high threads causes throughput to collapse
+ *  - For maps that abort on conflict(multiVersion, optimisticReads), how the contention manager trades retries for throughput,
+ *    every op runs through execute and the retries counter reports aborted attempts
  */
 /*
 * Benchmark                                 Mode  Cnt        Score        Error  Units
@@ -48,7 +53,14 @@ public class ContentionBenchmark {
     // Small fixed key pool — all threads compete over these
     private static final String[] KEYS = {"key-0", "key-1", "key-2", "key-3"};
 
+    @Param({"optimistic", "combining", "pessimistic", "multiVersion", "optimisticReads"})
+    private String mapType;
+
+    @Param({"backoff"}) // Or karma, yielding
+    private String contentionManager;
+
     private TransactionalMap<String, Integer> txMap;
+    private ContentionManager manager;
 
     // -------------------------------------------------------------------------
     // Abort tracking via AuxCounters
@@ -56,7 +68,10 @@ public class ContentionBenchmark {
     // -------------------------------------------------------------------------
 
     @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
     public static class ThreadState {
+        public long retries; // Aborted attempts, summed over the iteration
+
         // Simple round-robin index for key selection — spreads load evenly
         int keyIndex = 0;
         int opIndex  = 0;   // Used to decide read vs write based on ratio
@@ -66,11 +81,27 @@ public class ContentionBenchmark {
             keyIndex++;
             return key;
         }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retries = 0;
+        }
     }
 
     @Setup(Level.Trial)
     public void setup() {
-        txMap = TransactionalMap.create();
+        txMap = switch (mapType) {
+            case "combining" -> TransactionalMap.combining();
+            case "pessimistic" -> TransactionalMap.pessimistic();
+            case "multiVersion" -> TransactionalMap.multiVersion();
+            case "optimisticReads" -> TransactionalMap.optimisticReads();
+            default -> TransactionalMap.create();
+        };
+        manager = switch (contentionManager) {
+            case "karma" -> ContentionManager.karma(Duration.ofNanos(1_000), Duration.ofMillis(1), Integer.MAX_VALUE);
+            case "yielding" -> ContentionManager.yielding(Integer.MAX_VALUE);
+            default -> ContentionManager.backoff(Duration.ofNanos(1_000), Duration.ofMillis(1), Integer.MAX_VALUE);
+        };
         // Pre-populate all keys so removes and gets have something to work with
         try (var tx = txMap.beginTx()) {
             for (String key : KEYS) tx.put(key, 0);
@@ -170,35 +201,26 @@ public class ContentionBenchmark {
 
     private void readHeavy(ThreadState ts, Blackhole bh) {
         boolean isWrite = (ts.opIndex++ % 10) == 0; // 1 in 10 ops is a write
-        doOp(ts.nextKey(), isWrite, bh);
+        doOp(ts, ts.nextKey(), isWrite, bh);
     }
 
     private void balanced(ThreadState ts, Blackhole bh) {
         boolean isWrite = (ts.opIndex++ % 2) == 0; // every other op is a write
-        doOp(ts.nextKey(), isWrite, bh);
+        doOp(ts, ts.nextKey(), isWrite, bh);
     }
 
     private void writeHeavy(ThreadState ts, Blackhole bh) {
         boolean isWrite = (ts.opIndex++ % 10) != 0; // 9 in 10 ops is a write
-        doOp(ts.nextKey(), isWrite, bh);
+        doOp(ts, ts.nextKey(), isWrite, bh);
     }
 
     //Include size in both to measure the overhead of size ops in pessimistic, though this should have minimal effect for CoW and Snapshots
-    private void doOp(String key, boolean isWrite, Blackhole bh) {
-        try (var tx = txMap.beginTx()) {
-            if (isWrite) {
-                var future = tx.put(key, 42);
-                var future2 = tx.size();
-                tx.commit();
-                bh.consume(future.get());
-                bh.consume(future2.get());
-            } else {
-                var future = tx.get(key);
-                var future2 = tx.size();
-                tx.commit();
-                bh.consume(future.get());
-                bh.consume(future2.get());
-            }
-        }
+    private void doOp(ThreadState ts, String key, boolean isWrite, Blackhole bh) {
+        var result = txMap.execute(tx -> new Results(isWrite ? tx.put(key, 42) : tx.get(key), tx.size()), manager);
+        ts.retries += result.retries();
+        bh.consume(result.value().op().get());
+        bh.consume(result.value().size().get());
     }
+
+    private record Results(FutureValue<?> op, FutureValue<Integer> size) {}
 }
\ No newline at end of file
@@ -17,9 +17,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  *  - Throughput should scale close to linearly with thread count
  *  - If it doesn't, shared state (KeyToLockers, SynchronizedTxSet) is bottlenecking
  *  - Gap between txMap and rawMap reveals parallelism overhead of tx machinery
+ *  - reusing vs optimistic shows what per transaction allocation costs, compare gc.alloc.rate.norm with -prof gc
+ *  - sharded vs optimistic shows what the shared per map state (size lock, size tracker, commit gate) costs at high thread counts
  *
  * Run with:
  *   java -jar benchmarks.jar DisjointKeyBenchmark -rf json -rff results.json
+ *   java -jar benchmarks.jar DisjointKeyBenchmark -p mapType=optimistic,reusing -prof gc
  */
 @BenchmarkMode(Mode.Throughput)   // Switching to throughput — more intuitive for scaling analysis
 @OutputTimeUnit(TimeUnit.SECONDS)
@@ -33,6 +36,9 @@ public class DisjointKeyBenchmark {
     // State
     // -------------------------------------------------------------------------
 
+    @Param({"optimistic", "reusing", "combining", "pessimistic", "sharded"})
+    private String mapType;
+
     private TransactionalMap<String, Integer> txMap;
 
     // Assign each thread a unique index for key isolation
@@ -52,7 +58,13 @@ public class DisjointKeyBenchmark {
 
     @Setup(Level.Trial)
     public void setup() {
-        txMap = TransactionalMap.create();
+        txMap = switch (mapType) {
+            case "combining" -> TransactionalMap.combining();
+            case "pessimistic" -> TransactionalMap.pessimistic();
+            case "reusing" -> TransactionalMap.reusing();
+            case "sharded" -> TransactionalMap.sharded();
+            default -> TransactionalMap.create();
+        };
         threadCounter.set(0);
     }
 
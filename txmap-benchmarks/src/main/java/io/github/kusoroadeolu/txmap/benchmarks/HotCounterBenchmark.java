@@ -0,0 +1,119 @@
+package io.github.kusoroadeolu.txmap.benchmarks;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.ContentionManager;
+import io.github.kusoroadeolu.txmap.FutureValue;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot counter benchmark — every thread bumps the same few counters.
+ *
+ * Goal: measure what a commutative increment buys over a read followed by a write.
+ * Both modes run the same transaction, one bump of a counter drawn round robin from COUNTERS, through execute:
+ *  - getPut:    a get and a put of the counter, the get's read lock is held until commit and the put takes every write lock on the key
+ *  - increment: a single merge, which shares the key's locks with every other increment and only excludes readers and plain writers
+ *
+ * What to look for:
+ *  - increment_* should keep scaling with threads while getPut_* flattens, since increments of a key never wait on each other
+ *  - The retries counter, neither mode should abort unless a lock wait runs past the map's budget
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HotCounterBenchmark {
+
+    private static final String[] COUNTERS = {"counter-0", "counter-1"};
+
+    private TransactionalMap<String, Long> txMap;
+    private ContentionManager manager;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ThreadState {
+        public long retries;
+        int index;
+
+        String nextCounter() {
+            return COUNTERS[index++ % COUNTERS.length];
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retries = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        txMap = TransactionalMap.create();
+        manager = ContentionManager.backoff();
+        try (var tx = txMap.beginTx()) {
+            for (String counter : COUNTERS) tx.put(counter, 0L);
+            tx.commit();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void getPut_1thread(ThreadState ts, Blackhole bh) {
+        getPut(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void getPut_4threads(ThreadState ts, Blackhole bh) {
+        getPut(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void getPut_8threads(ThreadState ts, Blackhole bh) {
+        getPut(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void increment_1thread(ThreadState ts, Blackhole bh) {
+        increment(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void increment_4threads(ThreadState ts, Blackhole bh) {
+        increment(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void increment_8threads(ThreadState ts, Blackhole bh) {
+        increment(ts, bh);
+    }
+
+    // -------------------------------------------------------------------------
+    // Helpers
+    // -------------------------------------------------------------------------
+
+    //The lock pattern of a read modify write, results only complete at commit so the put can't use the get's value inside the transaction
+    private void getPut(ThreadState ts, Blackhole bh) {
+        String counter = ts.nextCounter();
+        var result = txMap.execute(tx -> new Results(tx.get(counter), tx.put(counter, 1L)), manager);
+        ts.retries += result.retries();
+        bh.consume(result.value().get().get());
+        bh.consume(result.value().put().get());
+    }
+
+    private void increment(ThreadState ts, Blackhole bh) {
+        var result = txMap.execute(tx -> tx.merge(ts.nextCounter(), 1L, Long::sum), manager);
+        ts.retries += result.retries();
+        bh.consume(result.value().get());
+    }
+
+    private record Results(FutureValue<Long> get, FutureValue<Option<Long>> put) {}
+}
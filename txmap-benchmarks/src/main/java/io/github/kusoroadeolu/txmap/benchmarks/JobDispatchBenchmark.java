@@ -0,0 +1,112 @@
+package io.github.kusoroadeolu.txmap.benchmarks;
+
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import io.github.kusoroadeolu.txmap.TransactionalQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Job dispatch benchmark — workers take a job from a queue and record its status in a map, atomically.
+ *
+ * Goal: measure a transactional queue joined to a map transaction against a plain queue and map kept consistent by one global lock.
+ * Every op takes the next job, marks it done under its own key and offers a follow up job, so the queue never drains:
+ *  - globalLock: a ConcurrentLinkedQueue and a map transaction, both inside one synchronized block
+ *  - joined:     a TransactionalQueue joined to the map transaction, polls never lock and threads rarely share a status key
+ *
+ * What to look for:
+ *  - joined_* should scale with threads while globalLock_* stays flat, since the global lock runs every dispatch serially
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JobDispatchBenchmark {
+
+    private static final int INITIAL_JOBS = 1_024;
+
+    private TransactionalMap<Integer, Boolean> status;
+    private TransactionalQueue<Integer> jobs;
+    private Queue<Integer> plainJobs;
+    private final Object globalLock = new Object();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        status = TransactionalMap.create();
+        jobs = TransactionalQueue.create();
+        plainJobs = new ConcurrentLinkedQueue<>();
+        try (var tx = jobs.beginTx()) {
+            for (int i = 0; i < INITIAL_JOBS; i++) {
+                tx.offer(i);
+                plainJobs.offer(i);
+            }
+            tx.commit();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void globalLock_1thread(Blackhole bh) {
+        globalLock(bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void globalLock_4threads(Blackhole bh) {
+        globalLock(bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void globalLock_8threads(Blackhole bh) {
+        globalLock(bh);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void joined_1thread(Blackhole bh) {
+        joined(bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void joined_4threads(Blackhole bh) {
+        joined(bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void joined_8threads(Blackhole bh) {
+        joined(bh);
+    }
+
+    // -------------------------------------------------------------------------
+    // Helpers
+    // -------------------------------------------------------------------------
+
+    private void globalLock(Blackhole bh) {
+        synchronized (globalLock) {
+            int job = plainJobs.remove();
+            try (var tx = status.beginTx()) {
+                bh.consume(tx.put(job % INITIAL_JOBS, true));
+                tx.commit();
+            }
+            plainJobs.offer(job + 1);
+        }
+    }
+
+    private void joined(Blackhole bh) {
+        try (var tx = status.beginTx()) {
+            var queue = jobs.join(tx);
+            int job = queue.poll().unwrap();
+            bh.consume(tx.put(job % INITIAL_JOBS, true));
+            queue.offer(job + 1);
+            tx.commit();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.kusoroadeolu.txmap.benchmarks;
+
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Soak benchmark for a key space that keeps turning over.
+ *
+ * Goal: verify that the lock state for keys which are no longer used is reclaimed.
+ * Every op inserts a brand new key and removes the key inserted WINDOW ops earlier,
+ * so the live key count stays fixed while the set of keys ever touched grows without bound.
+ *
+ * What to look for:
+ *  - Run with -prof gc and compare gc.alloc.rate.norm and gc.count across iterations
+ *  - Heap usage after GC should stay flat for the whole run, if it climbs, lock state is leaking
+ *
+ * Run with:
+ *   java -jar benchmark.jar KeyChurnBenchmark -prof gc -rf json -rff results.json
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 20, time = 5)
+@Fork(1)
+public class KeyChurnBenchmark {
+
+    // Number of live keys per thread at any point in time
+    private static final int WINDOW = 1_024;
+
+    private TransactionalMap<String, Integer> txMap;
+
+    private final AtomicInteger threadCounter = new AtomicInteger(0);
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int threadIndex;
+        long next;  // Keys are never reused, so every insert touches a key that has never been seen before
+
+        @Setup(Level.Trial)
+        public void setup(KeyChurnBenchmark bench) {
+            this.threadIndex = bench.threadCounter.getAndIncrement();
+        }
+
+        String key(long id) {
+            return "churn-" + threadIndex + "-" + id;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        txMap = TransactionalMap.create();
+        threadCounter.set(0);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void churn_1thread(ThreadState ts, Blackhole bh) {
+        churn(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void churn_4threads(ThreadState ts, Blackhole bh) {
+        churn(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void churn_8threads(ThreadState ts, Blackhole bh) {
+        churn(ts, bh);
+    }
+
+    // -------------------------------------------------------------------------
+    // Helpers
+    // -------------------------------------------------------------------------
+
+    private void churn(ThreadState ts, Blackhole bh) {
+        long id = ts.next++;
+        try (var tx = txMap.beginTx()) {
+            var put = tx.put(ts.key(id), 1);
+            var contains = tx.containsKey(ts.key(id + 1)); // Readers leave lock state behind too
+            var removed = id >= WINDOW ? tx.remove(ts.key(id - WINDOW)) : null;
+            tx.commit();
+            bh.consume(put.get());
+            bh.consume(contains.get());
+            if (removed != null) bh.consume(removed.get());
+        }
+    }
+}
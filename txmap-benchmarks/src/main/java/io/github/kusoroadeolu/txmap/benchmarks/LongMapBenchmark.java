@@ -0,0 +1,114 @@
+package io.github.kusoroadeolu.txmap.benchmarks;
+
+import io.github.kusoroadeolu.txmap.TransactionalLongMap;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Boxed vs primitive benchmark — long IDs mapped to long counters.
+ *
+ * Goal: measure what boxing costs on a long keyed, long valued workload.
+ * Both maps get the same transactions: a put to one key and a get of another, drawn from a fixed pool of KEYS ids.
+ *
+ * What to look for:
+ *  - Run with -prof gc, gc.alloc.rate.norm should be far lower for the long map since no Long, Option or map entry is allocated per op
+ *  - Throughput gap between boxed_* and primitive_* as threads increase
+ *
+ * Run with:
+ *   java -jar benchmark.jar LongMapBenchmark -prof gc -rf json -rff results.json
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LongMapBenchmark {
+
+    private static final int KEYS = 4_096;
+
+    private TransactionalMap<Long, Long> boxedMap;
+    private TransactionalLongMap longMap;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        long seed = System.nanoTime();
+
+        // xorshift, cheap enough not to show up next to the map
+        long nextKey() {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return (seed & Long.MAX_VALUE) % KEYS;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        boxedMap = TransactionalMap.create();
+        longMap = TransactionalLongMap.create();
+        try (var boxed = boxedMap.beginTx(); var primitive = longMap.beginTx()) {
+            for (long key = 0; key < KEYS; key++) {
+                boxed.put(key, 0L);
+                primitive.put(key, 0L);
+            }
+            boxed.commit();
+            primitive.commit();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void boxed_1thread(ThreadState ts, Blackhole bh) {
+        boxed(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void boxed_4threads(ThreadState ts, Blackhole bh) {
+        boxed(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void primitive_1thread(ThreadState ts, Blackhole bh) {
+        primitive(ts, bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void primitive_4threads(ThreadState ts, Blackhole bh) {
+        primitive(ts, bh);
+    }
+
+    // -------------------------------------------------------------------------
+    // Helpers
+    // -------------------------------------------------------------------------
+
+    private void boxed(ThreadState ts, Blackhole bh) {
+        long writeKey = ts.nextKey();
+        long readKey = ts.nextKey();
+        try (var tx = boxedMap.beginTx()) {
+            var put = tx.put(writeKey, writeKey);
+            var get = tx.get(readKey);
+            tx.commit();
+            bh.consume(put.get());
+            bh.consume(get.get());
+        }
+    }
+
+    private void primitive(ThreadState ts, Blackhole bh) {
+        long writeKey = ts.nextKey();
+        long readKey = ts.nextKey();
+        try (var tx = longMap.beginTx()) {
+            var put = tx.put(writeKey, writeKey);
+            var get = tx.get(readKey);
+            tx.commit();
+            bh.consume(put.getOrElse(-1));
+            bh.consume(get.getOrElse(-1));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.kusoroadeolu.txmap.benchmarks;
+
+import io.github.kusoroadeolu.txmap.TransactionAbortedException;
+import io.github.kusoroadeolu.txmap.TransactionalSortedMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorted scan benchmark — range scans running against point writes on the same sorted map.
+ *
+ * Goal: measure what range locks cost scans and the writers they share the map with.
+ * Keys are 0 to KEY_COUNT, scans read SCAN_WIDTH keys from a random start in the lower half and writers put a random key.
+ * Each group runs 2 scanning threads against 2 writing threads:
+ *  - disjoint:    writers only put keys in the upper half, which no scan ever locks
+ *  - overlapping: writers put keys anywhere, so about half their puts land in the range some scan may hold
+ *
+ * What to look for:
+ *  - disjoint_write should stay close to a map with no scans running, writes outside every range never wait
+ *  - overlapping_write drops as it waits out scans, and both counters show the aborts of waits that ran past the lock timeout
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Group)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SortedScanBenchmark {
+
+    private static final int KEY_COUNT = 10_000;
+    private static final int SCAN_WIDTH = 64;
+
+    private TransactionalSortedMap<Integer, Integer> txMap;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ThreadState {
+        public long aborts;
+        long seed = Thread.currentThread().threadId();
+
+        //xorshift, cheap enough not to show up next to a transaction
+        int next(int bound) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return (int) ((seed >>> 1) % bound);
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            aborts = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        txMap = TransactionalSortedMap.create();
+        try (var tx = txMap.beginTx()) {
+            for (int k = 0; k < KEY_COUNT; k += 2) tx.put(k, k); //Leave gaps so writes also insert
+            tx.commit();
+        }
+    }
+
+    @Benchmark
+    @Group("disjoint")
+    @GroupThreads(2)
+    public void disjoint_scan(ThreadState ts, Blackhole bh) {
+        scan(ts, bh);
+    }
+
+    @Benchmark
+    @Group("disjoint")
+    @GroupThreads(2)
+    public void disjoint_write(ThreadState ts, Blackhole bh) {
+        write(KEY_COUNT / 2 + ts.next(KEY_COUNT / 2), ts, bh);
+    }
+
+    @Benchmark
+    @Group("overlapping")
+    @GroupThreads(2)
+    public void overlapping_scan(ThreadState ts, Blackhole bh) {
+        scan(ts, bh);
+    }
+
+    @Benchmark
+    @Group("overlapping")
+    @GroupThreads(2)
+    public void overlapping_write(ThreadState ts, Blackhole bh) {
+        write(ts.next(KEY_COUNT), ts, bh);
+    }
+
+    // -------------------------------------------------------------------------
+    // Helpers
+    // -------------------------------------------------------------------------
+
+    private void scan(ThreadState ts, Blackhole bh) {
+        int from = ts.next(KEY_COUNT / 2 - SCAN_WIDTH);
+        try (var tx = txMap.beginTx()) {
+            var range = tx.subMap(from, from + SCAN_WIDTH);
+            tx.commit();
+            bh.consume(range.get());
+        } catch (TransactionAbortedException e) {
+            ts.aborts++;
+        }
+    }
+
+    private void write(int key, ThreadState ts, Blackhole bh) {
+        try (var tx = txMap.beginTx()) {
+            var put = tx.put(key, key);
+            tx.commit();
+            bh.consume(put.get());
+        } catch (TransactionAbortedException e) {
+            ts.aborts++;
+        }
+    }
+}
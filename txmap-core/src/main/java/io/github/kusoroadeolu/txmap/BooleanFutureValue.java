@@ -0,0 +1,20 @@
+package io.github.kusoroadeolu.txmap;
+
+//A primitive FutureValue for boolean results, false until completed
+public class BooleanFutureValue {
+    private boolean value;
+    private volatile boolean complete;
+
+    public boolean isComplete(){
+        return complete;
+    }
+
+    public boolean get(){
+        return complete && value;
+    }
+
+    public void complete(boolean value){
+        this.value = value;
+        this.complete = true;
+    }
+}
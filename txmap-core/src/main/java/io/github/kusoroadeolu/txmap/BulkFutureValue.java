@@ -0,0 +1,66 @@
+package io.github.kusoroadeolu.txmap;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import org.jspecify.annotations.Nullable;
+
+import java.util.List;
+
+//One result per key of a bulk op, in the order the keys were given. Slots are written by the committing thread and all published together by complete
+public class BulkFutureValue<V> {
+    private final @Nullable Object[] values;
+    private final @Nullable List<FutureValue<?>> parts; //Set for a view over a future per key, which also completes once every part has
+    private volatile boolean complete;
+
+    public BulkFutureValue(int size) {
+        this.values = new Object[size];
+        this.parts = null;
+    }
+
+    //For maps whose transactions only run bulk ops one key at a time. Reads and writes both complete with an Option of the key's value, so every part reads the same way
+    BulkFutureValue(List<FutureValue<?>> parts) {
+        this.values = new Object[parts.size()];
+        this.parts = parts;
+    }
+
+    public int size(){
+        return values.length;
+    }
+
+    public boolean isComplete(){
+        return complete || this.completeFromParts();
+    }
+
+    //None until completed or when the key had no value
+    @SuppressWarnings("unchecked")
+    public Option<V> get(int index){
+        return this.isComplete() ? Option.ofNullable((V) values[index]) : Option.none();
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getOrElse(int index, V other){
+        var value = this.isComplete() ? (V) values[index] : null;
+        return value == null ? other : value;
+    }
+
+    public void set(int index, @Nullable Object value){
+        values[index] = value;
+    }
+
+    public void complete(){
+        this.complete = true;
+    }
+
+    //Copies the parts into the slots once they've all completed. Readers racing here copy the same values, so the copy needs no lock
+    private boolean completeFromParts(){
+        if (parts == null) return false;
+        for (var part : parts) {
+            if (!part.isComplete()) return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            var value = parts.get(i).get();
+            values[i] = value.isSome() ? value.unwrap() : null;
+        }
+        this.complete();
+        return true;
+    }
+}
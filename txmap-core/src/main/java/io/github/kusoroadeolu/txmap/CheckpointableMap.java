@@ -0,0 +1,9 @@
+package io.github.kusoroadeolu.txmap;
+
+import java.nio.file.Path;
+
+//A TransactionalMap that can write a consistent point in time image of itself while commits carry on, the optimistic and multi version maps
+public interface CheckpointableMap<K, V> extends TransactionalMap<K, V> {
+    //Load the image back with TransactionalMap.fromCheckpoint, or as a durable map's checkpoint file
+    void checkpoint(Path file, Codec<K> keyCodec, Codec<V> valueCodec);
+}
@@ -0,0 +1,103 @@
+package io.github.kusoroadeolu.txmap;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+
+//Converts values to and from the bytes an off heap map stores, encode must write exactly size(value) bytes
+public interface Codec<T> {
+    int size(T value);
+
+    void encode(T value, MemorySegment target);
+
+    T decode(MemorySegment source);
+
+    //Rejects a string holding a lone surrogate, which has no UTF-8 encoding
+    static Codec<String> utf8(){
+        return new Codec<>() {
+            @Override
+            public int size(String value) {
+                int size = 0;
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c < 0x80) size += 1;
+                    else if (c < 0x800) size += 2;
+                    else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        size += 4;
+                        i++;
+                    }
+                    else if (Character.isSurrogate(c)) throw new IllegalArgumentException("Lone surrogate at index " + i);
+                    else size += 3;
+                }
+                return size;
+            }
+
+            @Override
+            public void encode(String value, MemorySegment target) {
+                target.copyFrom(MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8)));
+            }
+
+            @Override
+            public String decode(MemorySegment source) {
+                return new String(source.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    static Codec<Long> int64(){
+        return new Codec<>() {
+            @Override
+            public int size(Long value) {
+                return Long.BYTES;
+            }
+
+            @Override
+            public void encode(Long value, MemorySegment target) {
+                target.set(ValueLayout.JAVA_LONG_UNALIGNED, 0, value);
+            }
+
+            @Override
+            public Long decode(MemorySegment source) {
+                return source.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+            }
+        };
+    }
+
+    static Codec<Integer> int32(){
+        return new Codec<>() {
+            @Override
+            public int size(Integer value) {
+                return Integer.BYTES;
+            }
+
+            @Override
+            public void encode(Integer value, MemorySegment target) {
+                target.set(ValueLayout.JAVA_INT_UNALIGNED, 0, value);
+            }
+
+            @Override
+            public Integer decode(MemorySegment source) {
+                return source.get(ValueLayout.JAVA_INT_UNALIGNED, 0);
+            }
+        };
+    }
+
+    static Codec<byte[]> bytes(){
+        return new Codec<>() {
+            @Override
+            public int size(byte[] value) {
+                return value.length;
+            }
+
+            @Override
+            public void encode(byte[] value, MemorySegment target) {
+                target.copyFrom(MemorySegment.ofArray(value));
+            }
+
+            @Override
+            public byte[] decode(MemorySegment source) {
+                return source.toArray(ValueLayout.JAVA_BYTE);
+            }
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.kusoroadeolu.txmap;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+//Decides what TransactionalMap.execute does between an aborted attempt and the next one
+public interface ContentionManager {
+    int DEFAULT_MAX_ATTEMPTS = 32;
+
+    //Called on the thread that ran the attempt'th(1 based) aborted attempt, returns false to stop retrying and rethrow the abort
+    boolean onAbort(int attempt);
+
+    static ContentionManager backoff(){
+        return backoff(Duration.ofNanos(1_000), Duration.ofMillis(1), DEFAULT_MAX_ATTEMPTS);
+    }
+
+    //Exponential backoff with full jitter, the n'th retry parks for a random time up to min(max, min * 2^(n - 1)), so colliding transactions spread out
+    static ContentionManager backoff(Duration min, Duration max, int maxAttempts){
+        long minNanos = min.toNanos();
+        long maxNanos = max.toNanos();
+        return attempt -> {
+            if (attempt >= maxAttempts) return false;
+            int shift = Math.min(attempt - 1, Long.numberOfLeadingZeros(minNanos) - 1); //Stops short of the sign bit
+            long window = Math.min(maxNanos, minNanos << shift);
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(window + 1));
+            return true;
+        };
+    }
+
+    //The inverse of backoff, the more attempts a transaction has already lost the shorter it waits, so transactions that have invested the most work get ahead
+    static ContentionManager karma(Duration min, Duration max, int maxAttempts){
+        long minNanos = min.toNanos();
+        long maxNanos = max.toNanos();
+        return attempt -> {
+            if (attempt >= maxAttempts) return false;
+            long window = Math.max(minNanos, maxNanos >> Math.min(attempt - 1, 63));
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(window + 1));
+            return true;
+        };
+    }
+
+    //Gives up the CPU to the transactions already running before retrying, for short critical sections where parking costs more than the conflict
+    static ContentionManager yielding(int maxAttempts){
+        return attempt -> {
+            if (attempt >= maxAttempts) return false;
+            Thread.yield();
+            return true;
+        };
+    }
+}
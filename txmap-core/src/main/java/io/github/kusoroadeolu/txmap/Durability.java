@@ -0,0 +1,7 @@
+package io.github.kusoroadeolu.txmap;
+
+//How far a durable map's commit makes sure its write set has reached before it returns
+public enum Durability {
+    WRITE, //Written to the OS page cache, survives a process crash but not a power loss
+    FSYNC //Forced to disk, concurrent committers share one fsync
+}
@@ -2,38 +2,56 @@ package io.github.kusoroadeolu.txmap;
 
 import io.github.kusoroadeolu.ferrous.option.Option;
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
 
+import java.util.NoSuchElementException;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-
+//A write once result slot, the value is written by the committing thread and published by the volatile write of complete
 public class FutureValue<V> {
-    private final CompletableFuture<V> future;
-
-    public FutureValue() {
-        this.future = new CompletableFuture<>();
-    }
+    private @Nullable Object value;
+    private @Nullable Option<V> option; //Built on the first get, completed results never change so a racing rebuild is harmless
+    private volatile boolean complete;
 
     @SuppressWarnings("unchecked")
     public @NonNull Option<V> get(){
-        try {
-            if (future.isDone()){
-                V value = future.get();
-                if (value instanceof Option<?>) return (Option<V>) value;
-                else return Option.ofNullable(value);
-            }
-            return Option.none();
-        } catch (ExecutionException | InterruptedException _) {
-            return Option.none();
+        if (!complete) return Option.none();
+        var opt = option;
+        if (opt == null) {
+            opt = value instanceof Option<?> o ? (Option<V>) o : Option.ofNullable((V) value);
+            option = opt;
         }
+        return opt;
     }
 
     public boolean isComplete(){
-        return future.isDone();
+        return complete;
+    }
+
+    //For Boolean results, e.g. containsKey, without building an Option
+    public boolean getAsBoolean(){
+        if (!(this.raw() instanceof Boolean b)) throw new NoSuchElementException("No boolean value present");
+        return b;
+    }
+
+    //For Integer results, e.g. size, without building an Option
+    public int getAsInt(){
+        if (!(this.raw() instanceof Integer i)) throw new NoSuchElementException("No int value present");
+        return i;
     }
 
-    @SuppressWarnings("unchecked")
     public void complete(@NonNull Object value){
-        future.complete((V)value);
+        this.value = value;
+        this.complete = true;
+    }
+
+    //Empties the slot so its owner can hand it out again, only called by the owner once no one may read the previous result
+    protected void reset(){
+        this.complete = false;
+        this.value = null;
+        this.option = null;
+    }
+
+    private @Nullable Object raw(){
+        return complete ? value : null;
     }
 }
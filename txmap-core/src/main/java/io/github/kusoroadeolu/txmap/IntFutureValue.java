@@ -0,0 +1,27 @@
+package io.github.kusoroadeolu.txmap;
+
+import java.util.NoSuchElementException;
+
+//A primitive FutureValue for int results
+public class IntFutureValue {
+    private int value;
+    private volatile boolean complete;
+
+    public boolean isComplete(){
+        return complete;
+    }
+
+    public int get(){
+        if (!complete) throw new NoSuchElementException("No value present");
+        return value;
+    }
+
+    public int getOrElse(int other){
+        return complete ? value : other;
+    }
+
+    public void complete(int value){
+        this.value = value;
+        this.complete = true;
+    }
+}
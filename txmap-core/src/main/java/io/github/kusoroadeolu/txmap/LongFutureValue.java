@@ -0,0 +1,37 @@
+package io.github.kusoroadeolu.txmap;
+
+import java.util.NoSuchElementException;
+
+//A primitive FutureValue for long results, absent until completed or when the key had no value
+public class LongFutureValue {
+    private long value;
+    private boolean present;
+    private volatile boolean complete;
+
+    public boolean isComplete(){
+        return complete;
+    }
+
+    public boolean isPresent(){
+        return complete && present;
+    }
+
+    public long get(){
+        if (!this.isPresent()) throw new NoSuchElementException("No value present");
+        return value;
+    }
+
+    public long getOrElse(long other){
+        return this.isPresent() ? value : other;
+    }
+
+    public void complete(long value){
+        this.value = value;
+        this.present = true;
+        this.complete = true;
+    }
+
+    public void completeAbsent(){
+        this.complete = true;
+    }
+}
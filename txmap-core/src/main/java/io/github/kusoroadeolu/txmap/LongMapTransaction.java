@@ -0,0 +1,24 @@
+package io.github.kusoroadeolu.txmap;
+
+//A MapTransaction over primitive long keys and values, results are only complete once the transaction commits
+public interface LongMapTransaction extends AutoCloseable, Transaction {
+
+    default void close(){
+        if (!isCommitted()) abort();
+    }
+
+    LongFutureValue put(long key, long value);
+
+    LongFutureValue remove(long key);
+
+    //Adds delta to the key's value, treating a missing key as 0, and completes with the new value. One probe of the key instead of a get and a put
+    LongFutureValue increment(long key, long delta);
+
+    LongFutureValue get(long key);
+
+    BooleanFutureValue containsKey(long key);
+
+    IntFutureValue size();
+
+    boolean isCommitted();
+}
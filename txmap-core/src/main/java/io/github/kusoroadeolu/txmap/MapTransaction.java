@@ -2,6 +2,12 @@ package io.github.kusoroadeolu.txmap;
 
 import io.github.kusoroadeolu.ferrous.option.Option;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
 public interface MapTransaction<K, V> extends AutoCloseable, Transaction {
 
     default void close(){
@@ -18,5 +24,35 @@ public interface MapTransaction<K, V> extends AutoCloseable, Transaction {
 
     FutureValue<Integer> size();
 
+    //Reads every key into one result view instead of a future per key. By default a get per key behind a view over their futures, maps that can fill one view themselves override it
+    default BulkFutureValue<V> getAll(List<K> keys){
+        var parts = new ArrayList<FutureValue<?>>(keys.size());
+        for (var key : keys) parts.add(this.get(key));
+        return new BulkFutureValue<>(parts);
+    }
+
+    //Puts every entry into one result view of the keys' previous values, in the map's iteration order. By default a put per entry behind a view over their futures
+    default BulkFutureValue<V> putAll(Map<K, V> entries){
+        var parts = new ArrayList<FutureValue<?>>(entries.size());
+        for (var entry : entries.entrySet()) parts.add(this.put(entry.getKey(), entry.getValue()));
+        return new BulkFutureValue<>(parts);
+    }
+
+    //Removes every key into one result view of their previous values, in the collection's iteration order. By default a remove per key behind a view over their futures
+    default BulkFutureValue<V> removeAll(Collection<K> keys){
+        var parts = new ArrayList<FutureValue<?>>(keys.size());
+        for (var key : keys) parts.add(this.remove(key));
+        return new BulkFutureValue<>(parts);
+    }
+
+    //Merges the value into the key's current value with fn, or sets it if the key has none, and completes with the key's new value.
+    //fn must be commutative, associative and never return null, so merges of a key from different transactions can be applied in any order without waiting on each other.
+    //Maps that can lock for merges apart from other writes let them share a key's lock, the rest write the merged value under the key's write lock like a put.
+    //A counter of Long values is bumped with merge(key, delta, Long::sum)
+    FutureValue<V> merge(K key, V value, BinaryOperator<V> fn);
+
+    //Commits the participant with this transaction, once its writes are applied and before its locks are released, and aborts it if this transaction aborts
+    void enlist(Transaction participant);
+
     boolean isCommitted();
 }
@@ -0,0 +1,19 @@
+package io.github.kusoroadeolu.txmap;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+
+public interface QueueTransaction<E> extends AutoCloseable, Transaction {
+
+    default void close(){
+        if (!isCommitted()) abort();
+    }
+
+    //Buffered until commit, other transactions can't poll the item before then
+    void offer(E item);
+
+    //Takes the head right away rather than at commit, so concurrent consumers never conflict on it, or this tx's own oldest buffered offer if the queue is empty.
+    //An item taken from the queue goes back to its head if the transaction aborts
+    Option<E> poll();
+
+    boolean isCommitted();
+}
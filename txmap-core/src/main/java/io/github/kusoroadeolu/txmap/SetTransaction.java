@@ -0,0 +1,20 @@
+package io.github.kusoroadeolu.txmap;
+
+public interface SetTransaction<E> extends AutoCloseable, Transaction {
+
+    default void close(){
+        if (!isCommitted()) abort();
+    }
+
+    //Completes with true if the element wasn't in the set
+    FutureValue<Boolean> add(E element);
+
+    //Completes with true if the element was in the set
+    FutureValue<Boolean> remove(E element);
+
+    FutureValue<Boolean> contains(E element);
+
+    FutureValue<Integer> size();
+
+    boolean isCommitted();
+}
@@ -0,0 +1,15 @@
+package io.github.kusoroadeolu.txmap;
+
+import java.util.SortedMap;
+
+//A MapTransaction over ordered keys, range reads see the transaction's own writes and lock the whole range, so no other transaction can insert into it until this one finishes
+public interface SortedMapTransaction<K, V> extends MapTransaction<K, V> {
+
+    //The entries with keys from fromKey inclusive to toKey exclusive, copied when the op is registered
+    FutureValue<SortedMap<K, V>> subMap(K fromKey, K toKey);
+
+    //None if the map is empty
+    FutureValue<K> firstKey();
+
+    FutureValue<K> lastKey();
+}
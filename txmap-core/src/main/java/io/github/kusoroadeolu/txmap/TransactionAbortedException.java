@@ -0,0 +1,8 @@
+package io.github.kusoroadeolu.txmap;
+
+//Thrown when a transaction conflicts with another or runs out of time waiting on one and has been aborted, none of its writes are visible and it can be safely retried
+public class TransactionAbortedException extends RuntimeException {
+    public TransactionAbortedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package io.github.kusoroadeolu.txmap;
+
+import io.github.kusoroadeolu.txmap.map.SegmentedTransactionalLongMap;
+
+//A TransactionalMap specialized for long keys and values, nothing is boxed
+public interface TransactionalLongMap {
+    static TransactionalLongMap create(){
+        return new SegmentedTransactionalLongMap();
+    }
+
+    LongMapTransaction beginTx();
+}
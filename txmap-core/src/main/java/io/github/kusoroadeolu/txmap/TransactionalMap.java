@@ -1,11 +1,110 @@
 package io.github.kusoroadeolu.txmap;
 
+import io.github.kusoroadeolu.txmap.map.CombinerTransactionalMap;
+import io.github.kusoroadeolu.txmap.map.MvccTransactionalMap;
 import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap;
+import io.github.kusoroadeolu.txmap.map.PessimisticTransactionalMap;
+import io.github.kusoroadeolu.txmap.map.ShardedTransactionalMap;
 
-public interface TransactionalMap<K, V> {
-    static <K, V>TransactionalMap<K,  V> create(){
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+public interface TransactionalMap<K, V> extends AutoCloseable {
+    static <K, V>CheckpointableMap<K,  V> create(){
         return new OptimisticTransactionalMap<>();
     }
 
+    //Keys share a fixed, power of two number of lock stripes, bounding the lock footprint at the cost of false conflicts
+    static <K, V>CheckpointableMap<K,  V> create(int lockStripes){
+        return new OptimisticTransactionalMap<>(lockStripes);
+    }
+
+    //A transaction that waits on locks for longer than the budget in total aborts with a TransactionAbortedException, with deadlock detection one caught in a deadlock aborts as soon as it's found
+    static <K, V>CheckpointableMap<K,  V> create(Duration lockWaitBudget, boolean detectDeadlocks){
+        return new OptimisticTransactionalMap<>(lockWaitBudget, detectDeadlocks);
+    }
+
+    //Each thread's transaction, its op slots and its result futures are recycled once it commits or aborts, so a finished transaction and its results must not be touched after the thread's next beginTx
+    static <K, V>CheckpointableMap<K,  V> reusing(){
+        return OptimisticTransactionalMap.reusing();
+    }
+
+    //Gets and containsKeys take no locks, they're validated against key versions at commit and the transaction aborts with a TransactionAbortedException if a key it read was written since
+    static <K, V>CheckpointableMap<K,  V> optimisticReads(){
+        return OptimisticTransactionalMap.withOptimisticReads();
+    }
+
+    //Values live off heap, so a large working set doesn't grow the heap or the old gen, keys and lock state stay on heap
+    static <K, V>CheckpointableMap<K,  V> offHeap(Codec<V> valueCodec){
+        return new OptimisticTransactionalMap<>(valueCodec);
+    }
+
+    //Every committed write set is appended to the log file before it's applied, and an existing log is replayed into the map on creation
+    static <K, V>CheckpointableMap<K,  V> durable(Path logFile, Codec<K> keyCodec, Codec<V> valueCodec, Durability durability){
+        return new OptimisticTransactionalMap<>(logFile, keyCodec, valueCodec, durability);
+    }
+
+    //Loads the checkpoint file if it exists and replays the log over it, a checkpoint to that file drops the log records it covers so startup only replays what came after
+    static <K, V>CheckpointableMap<K,  V> durable(Path logFile, Path checkpointFile, Codec<K> keyCodec, Codec<V> valueCodec, Durability durability){
+        return new OptimisticTransactionalMap<>(logFile, checkpointFile, keyCodec, valueCodec, durability);
+    }
+
+    //Loads a map from an image written by checkpoint
+    static <K, V>CheckpointableMap<K,  V> fromCheckpoint(Path file, Codec<K> keyCodec, Codec<V> valueCodec){
+        return OptimisticTransactionalMap.fromCheckpoint(file, keyCodec, valueCodec);
+    }
+
+    //Snapshot isolated, readers never block, conflicting writers abort with a TransactionAbortedException at commit
+    static <K, V>CheckpointableMap<K,  V> multiVersion(){
+        return new MvccTransactionalMap<>();
+    }
+
+    //Transactions are published at commit and applied in batches by whichever thread holds the combiner lock, suited to a few hot keys
+    static <K, V>TransactionalMap<K,  V> combining(){
+        return new CombinerTransactionalMap<>();
+    }
+
+    //Ops lock their keys as they're registered and hold them until commit, a lock wait past the default timeout aborts the transaction
+    static <K, V>TransactionalMap<K,  V> pessimistic(){
+        return new PessimisticTransactionalMap<>();
+    }
+
+    //Keys are split across independent optimistic maps, one per core by default. A transaction on one shard commits locally, one on several prepares every shard before committing any
+    static <K, V>TransactionalMap<K,  V> sharded(){
+        return new ShardedTransactionalMap<>();
+    }
+
+    //Keys are split across a fixed, power of two number of independent optimistic maps
+    static <K, V>TransactionalMap<K,  V> sharded(int shards){
+        return new ShardedTransactionalMap<>(shards);
+    }
+
     MapTransaction<K, V> beginTx();
+
+    default <R> TxResult<R> execute(Function<MapTransaction<K, V>, R> body){
+        return this.execute(body, ContentionManager.backoff());
+    }
+
+    //Runs the body in a new transaction and commits it, unless the body already has. An attempt that aborts with a TransactionAbortedException is
+    //discarded and the body runs again in a fresh transaction for as long as the contention manager allows, any other exception aborts and propagates
+    default <R> TxResult<R> execute(Function<MapTransaction<K, V>, R> body, ContentionManager manager){
+        for (int attempt = 1; ; attempt++) {
+            try (var tx = this.beginTx()) {
+                R value = body.apply(tx);
+                if (!tx.isCommitted()) tx.commit();
+                return new TxResult<>(value, attempt - 1);
+            } catch (TransactionAbortedException e) {
+                if (!manager.onAbort(attempt)) throw e;
+            }
+        }
+    }
+
+    //A ConcurrentMap over this map whose every op commits on its own. On the optimistic and sharded maps single key ops on keys no transaction is using skip
+    //the transaction machinery, every other map runs each op as a one op transaction
+    ConcurrentMap<K, V> asConcurrentMap();
+
+    //Releases any resources the map holds, e.g. a durable map's log
+    default void close(){}
 }
@@ -0,0 +1,19 @@
+package io.github.kusoroadeolu.txmap;
+
+import io.github.kusoroadeolu.txmap.queue.LinkedTransactionalQueue;
+
+//A FIFO queue whose transactions trade isolation for concurrency, a poll takes its item the moment it's registered instead of locking the head until commit
+public interface TransactionalQueue<E> {
+    static <E> TransactionalQueue<E> create(){
+        return new LinkedTransactionalQueue<>();
+    }
+
+    QueueTransaction<E> beginTx();
+
+    //A queue transaction that commits and aborts with the map transaction, so its offers and polls are atomic with the map's ops. Committing or aborting
+    //the returned transaction itself is done through the map transaction
+    QueueTransaction<E> join(MapTransaction<?, ?> tx);
+
+    //Committed items in the queue, without the ones taken by transactions still open
+    int size();
+}
@@ -0,0 +1,12 @@
+package io.github.kusoroadeolu.txmap;
+
+import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalSet;
+
+//A set with the default map's semantic locking, a contains only conflicts with adds and removes that change the element's membership
+public interface TransactionalSet<E> {
+    static <E> TransactionalSet<E> create(){
+        return new OptimisticTransactionalSet<>();
+    }
+
+    SetTransaction<E> beginTx();
+}
@@ -0,0 +1,19 @@
+package io.github.kusoroadeolu.txmap;
+
+import io.github.kusoroadeolu.txmap.map.SkipListTransactionalMap;
+
+import java.util.Comparator;
+
+//A TransactionalMap whose transactions can read key ranges, writers outside a range being read never wait on it
+public interface TransactionalSortedMap<K, V> extends TransactionalMap<K, V> {
+    static <K extends Comparable<? super K>, V> TransactionalSortedMap<K, V> create(){
+        return new SkipListTransactionalMap<>(Comparator.naturalOrder());
+    }
+
+    static <K, V> TransactionalSortedMap<K, V> create(Comparator<? super K> comparator){
+        return new SkipListTransactionalMap<>(comparator);
+    }
+
+    @Override
+    SortedMapTransaction<K, V> beginTx();
+}
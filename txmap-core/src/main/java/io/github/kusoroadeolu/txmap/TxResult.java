@@ -0,0 +1,4 @@
+package io.github.kusoroadeolu.txmap;
+
+//What TransactionalMap.execute's body returned on the attempt that committed, and how many aborted attempts came before it
+public record TxResult<R>(R value, int retries) {}
@@ -0,0 +1,118 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.FutureValue;
+import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.MapTransactionImpl;
+import org.jspecify.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import static io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.CONTENDED;
+
+/*
+ * An auto commit ConcurrentMap view of an optimistic map, every op is its own transaction. Ops on a key no transaction is using are applied straight to the map,
+ * the rest run as a one op transaction through execute, retried with its default contention manager, see Auto commit view in OptimisticTransactionalMap.
+ * size always runs as a transaction. Iteration reads the committed map without locks, weakly consistent like a ConcurrentHashMap's, and can't remove.
+ * The rest of ConcurrentMap(compute, merge...) is built by its defaults out of these ops
+ * */
+final class AutoCommitMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    private final OptimisticTransactionalMap<K, V> txMap;
+
+    AutoCommitMap(OptimisticTransactionalMap<K, V> txMap) {
+        this.txMap = txMap;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V get(Object key) {
+        var k = (K) Objects.requireNonNull(key);
+        var direct = txMap.readDirect(k);
+        if (direct != CONTENDED) return (V) direct;
+
+        var value = txMap.execute(tx -> tx.get(k)).value().get();
+        return value.isSome() ? value.unwrap() : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key) {
+        var k = (K) Objects.requireNonNull(key);
+        var direct = txMap.readDirect(k);
+        if (direct != CONTENDED) return direct != null;
+        return txMap.execute(tx -> tx.containsKey(k)).value().getAsBoolean();
+    }
+
+    @Override
+    public int size() {
+        return txMap.execute(tx -> tx.size()).value().getAsInt();
+    }
+
+    @Override
+    public @Nullable V put(K key, V value) {
+        Objects.requireNonNull(value);
+        return this.write(key, true, false, map -> map.put(key, value), _ -> Option.some(value));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V remove(Object key) {
+        var k = (K) Objects.requireNonNull(key);
+        return this.write(k, false, true, map -> map.remove(k), _ -> Option.none());
+    }
+
+    @Override
+    public @Nullable V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(value);
+        return this.write(key, true, false, map -> map.putIfAbsent(key, value), current -> current.isSome() ? current : Option.some(value));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object key, Object value) {
+        var k = (K) Objects.requireNonNull(key);
+        if (value == null) return false;
+        var direct = txMap.writeDirect(k, false, true, map -> map.remove(k, value));
+        if (direct != CONTENDED) return (Boolean) direct;
+        return value.equals(this.compute(k, current -> current.isSome() && value.equals(current.unwrap()) ? Option.none() : current));
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        var direct = txMap.writeDirect(key, false, false, map -> map.replace(key, oldValue, newValue));
+        if (direct != CONTENDED) return (Boolean) direct;
+        return oldValue.equals(this.compute(key, current -> current.isSome() && oldValue.equals(current.unwrap()) ? Option.some(newValue) : current));
+    }
+
+    @Override
+    public @Nullable V replace(K key, V value) {
+        Objects.requireNonNull(value);
+        return this.write(key, false, false, map -> map.replace(key, value), current -> current.isSome() ? Option.some(value) : current);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return txMap.committed().entrySet();
+    }
+
+    //Returns the key's previous value
+    @SuppressWarnings("unchecked")
+    private @Nullable V write(K key, boolean inserts, boolean deletes, Function<ConcurrentMap<K, V>, @Nullable Object> direct, UnaryOperator<Option<V>> fn){
+        var result = txMap.writeDirect(key, inserts, deletes, direct);
+        return result != CONTENDED ? (V) result : this.compute(key, fn);
+    }
+
+    //Runs the write as a one op transaction and returns the key's previous value
+    @SuppressWarnings("unchecked")
+    private @Nullable V compute(K key, UnaryOperator<Option<V>> fn){
+        FutureValue<Option<V>> future = txMap.execute(tx -> ((MapTransactionImpl<K, V>) tx).compute(key, fn)).value();
+        var previous = (Option<V>) (Object) future.get(); //Write futures complete with the Option of the previous value itself
+        return previous.isSome() ? previous.unwrap() : null;
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.Codec;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * A point in time image of a map, written to and read from a memory mapped file.
+ * Layout: [long magic][long entry count][long body length][int crc32c of the body] then the body, [int key length][key][int value length][value] per entry.
+ * A key may appear more than once, a later entry replaces an earlier one.
+ * Entries are encoded straight into the mapping as they're appended, one window of the file at a time, so neither the image nor the map's entries are staged on the heap.
+ * An image is written to a temporary file that is moved over the target once it's complete, so a crash mid write leaves the previous image intact
+ * */
+final class CheckpointFile {
+    private static final long MAGIC = 0x7478_6D61_7063_6B31L; //"txmapck1"
+    private static final int HEADER = Long.BYTES * 3 + Integer.BYTES;
+    private static final int CRC_SLICE = 1 << 30; //ByteBuffer views are capped at 2GB
+    private static final long WINDOW = 64L << 20; //Mapped at a time while writing
+
+    private CheckpointFile() {}
+
+    //Opens a temporary file next to the target, nothing replaces the target until finish
+    static <K, V> Writer<K, V> writer(Path file, Codec<K> keyCodec, Codec<V> valueCodec){
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            return new Writer<>(file, temp, FileChannel.open(temp, CREATE, TRUNCATE_EXISTING, READ, WRITE), keyCodec, valueCodec);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static final class Writer<K, V> implements AutoCloseable {
+        private final Path file;
+        private final Path temp;
+        private final FileChannel channel;
+        private final Codec<K> keyCodec;
+        private final Codec<V> valueCodec;
+        private final CRC32C crc;
+        private @Nullable Arena arena;
+        private @Nullable MemorySegment window;
+        private long windowStart; //File offset of the current window
+        private long windowUsed;
+        private long count;
+        private boolean finished;
+
+        private Writer(Path file, Path temp, FileChannel channel, Codec<K> keyCodec, Codec<V> valueCodec) {
+            this.file = file;
+            this.temp = temp;
+            this.channel = channel;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            this.crc = new CRC32C();
+            this.windowStart = HEADER;
+        }
+
+        void append(K key, V value){
+            int keySize = keyCodec.size(key);
+            int valueSize = valueCodec.size(value);
+            long entry = Integer.BYTES * 2L + keySize + valueSize;
+            if (window == null || windowUsed + entry > window.byteSize()) this.nextWindow(entry);
+
+            var segment = Objects.requireNonNull(window);
+            long offset = windowUsed;
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, offset, keySize);
+            keyCodec.encode(key, segment.asSlice(offset + Integer.BYTES, keySize));
+            offset += Integer.BYTES + keySize;
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, offset, valueSize);
+            valueCodec.encode(value, segment.asSlice(offset + Integer.BYTES, valueSize));
+            windowUsed += entry;
+            count++;
+        }
+
+        private void nextWindow(long atLeast){
+            this.closeWindow();
+            try {
+                arena = Arena.ofConfined();
+                window = channel.map(READ_WRITE, windowStart, Math.max(WINDOW, atLeast), arena);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        //Folds the used part of the window into the checksum, flushes and unmaps it
+        private void closeWindow(){
+            if (window == null) return;
+            var used = window.asSlice(0, windowUsed);
+            checksum(used, crc);
+            used.force();
+            Objects.requireNonNull(arena).close();
+            windowStart += windowUsed;
+            windowUsed = 0;
+            window = null;
+            arena = null;
+        }
+
+        //Writes the header, trims the unused tail of the last window and moves the image over the target
+        void finish(){
+            this.closeWindow();
+            long body = windowStart - HEADER;
+            var header = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+            header.putLong(MAGIC).putLong(count).putLong(body).putInt((int) crc.getValue()).flip();
+            try {
+                channel.truncate(windowStart);
+                while (header.hasRemaining()) channel.write(header, header.position());
+                channel.force(true);
+                channel.close();
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            finished = true;
+        }
+
+        //Discards the temporary file unless the image was finished
+        @Override
+        public void close(){
+            if (finished) return;
+            if (arena != null) arena.close();
+            try {
+                channel.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    static <K, V> ConcurrentHashMap<K, V> read(Path file, Codec<K> keyCodec, Codec<V> valueCodec){
+        try (var channel = FileChannel.open(file, READ); var arena = Arena.ofConfined()) {
+            var segment = channel.map(READ_ONLY, 0, channel.size(), arena);
+            if (segment.byteSize() < HEADER || segment.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) != MAGIC) {
+                throw new IllegalArgumentException(file + " is not a checkpoint");
+            }
+
+            long count = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES);
+            long body = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES * 2);
+            int crc = segment.get(ValueLayout.JAVA_INT_UNALIGNED, Long.BYTES * 3);
+            var actual = new CRC32C();
+            checksum(segment.asSlice(HEADER), actual);
+            if (HEADER + body != segment.byteSize() || (int) actual.getValue() != crc) {
+                throw new IllegalArgumentException(file + " is corrupt");
+            }
+
+            var map = new ConcurrentHashMap<K, V>((int) Math.min(Integer.MAX_VALUE, count + (count >>> 1)));
+            long offset = HEADER;
+            for (long i = 0; i < count; i++) {
+                int keySize = segment.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+                K key = keyCodec.decode(segment.asSlice(offset + Integer.BYTES, keySize));
+                offset += Integer.BYTES + keySize;
+                int valueSize = segment.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+                V value = valueCodec.decode(segment.asSlice(offset + Integer.BYTES, valueSize));
+                offset += Integer.BYTES + valueSize;
+                map.put(key, value);
+            }
+
+            return map;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checksum(MemorySegment body, CRC32C crc){
+        for (long offset = 0; offset < body.byteSize(); offset += CRC_SLICE) {
+            crc.update(body.asSlice(offset, Math.min(CRC_SLICE, body.byteSize() - offset)).asByteBuffer());
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.*;
+import io.github.kusoroadeolu.txmap.map.Operation.MergeOperation;
+import io.github.kusoroadeolu.txmap.map.Operation.ModifyOperation;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+import static io.github.kusoroadeolu.txmap.map.Operation.ContainsKeyOperation.CONTAINS;
+import static io.github.kusoroadeolu.txmap.map.Operation.DEFAULT_MODIFY_OP;
+import static io.github.kusoroadeolu.txmap.map.Operation.GetOperation.GET;
+import static io.github.kusoroadeolu.txmap.map.Operation.ModifyType.PUT;
+import static io.github.kusoroadeolu.txmap.map.Operation.SizeOperation.SIZE;
+
+/*
+ * A flat combining map, transactions are buffered in full and only published at commit.
+ * A committing thread publishes its transaction to a slot, then either becomes the combiner by taking the combiner lock or waits for the current combiner to apply it.
+ * The combiner applies every published transaction serially against the underlying map, so transactions never conflict and no per key lock state exists.
+ * Under heavy contention on a few keys this turns many threads fighting over the same locks into one thread applying a batch with a warm cache.
+ * Since every transaction is applied in isolation, this map promises SERIALIZABLE isolation.
+ *
+ * The combiner holds a version odd while it applies a transaction. Transactions with a single get or containsKey skip the combiner and read the underlying map
+ * between two reads of the version, a read that saw it odd or changed falls back to the combiner, so it never sees a transaction partway through being applied.
+ *
+ * A transaction that throws while it's applied has the writes it applied so far undone, and its committing thread rethrows the failure. Nulls are rejected when
+ * ops are registered, so a failing transaction is never left in its slot for every later combiner to trip over
+ *
+ * Happens before guarantees
+ * 1. The publication of a transaction to its slot happens before the combiner reads it
+ * 2. The completion of a transaction's futures, or the recording of its failure, happens before the combiner marks it as applied(done is volatile)
+ * 3. The release of the combiner lock by one combiner happens before the acquisition of the lock by the next, so batches never interleave
+ * 4. The version's bump to odd happens before a transaction's first write is applied and its bump back to even happens after its last write is applied or undone
+ * */
+public class CombinerTransactionalMap<K, V> implements TransactionalMap<K, V> {
+    private static final int SPINS_BEFORE_YIELD = 64;
+    private static final int MAX_COMBINE_PASSES = 4; //Bounds how long one thread serves others before it returns to its own work
+
+    private final ConcurrentHashMap<K, V> map;
+    private final AtomicReferenceArray<CombinerTransaction<K, V>> slots;
+    private final int mask;
+    private final ReentrantLock combinerLock;
+    private volatile long version; //Odd while the combiner applies a transaction, only bumped under the combiner lock
+    private final List<Option<V>> mergedOver; //The previous value of each merge the combiner has applied of the current transaction, for undo
+
+    public CombinerTransactionalMap() {
+        this.map = new ConcurrentHashMap<>();
+        int slotCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+        this.combinerLock = new ReentrantLock();
+        this.mergedOver = new ArrayList<>();
+    }
+
+    @Override
+    public MapTransaction<K, V> beginTx() {
+        return new CombinerTransaction<>(this);
+    }
+
+    //Every op is a one op transaction, gets and containsKey read the map directly unless the combiner is applying a transaction
+    @Override
+    public ConcurrentMap<K, V> asConcurrentMap(){
+        return new TransactionPerOpMap<>(this, () -> Collections.unmodifiableMap(map));
+    }
+
+    void submit(CombinerTransaction<K, V> tx){
+        int slot = this.publish(tx);
+        if (slot < 0) {
+            //Every slot is taken, apply it ourselves once we hold the lock
+            combinerLock.lock();
+            try {
+                this.apply(tx);
+                this.combine();
+            } finally {
+                combinerLock.unlock();
+            }
+            this.rethrowFailure(tx);
+            return;
+        }
+
+        int spins = 0;
+        while (!tx.done) {
+            if (combinerLock.tryLock()) {
+                try {
+                    this.combine();
+                } finally {
+                    combinerLock.unlock();
+                }
+            } else if (++spins < SPINS_BEFORE_YIELD) Thread.onSpinWait();
+            else Thread.yield();
+        }
+        this.rethrowFailure(tx);
+    }
+
+    private void rethrowFailure(CombinerTransaction<K, V> tx){
+        switch (tx.failure) {
+            case null -> {}
+            case RuntimeException e -> throw e;
+            case Error e -> throw e;
+            default -> throw new Error(tx.failure); //Only unchecked failures are caught
+        }
+    }
+
+    //Reads the key without the combiner lock, or returns null if a transaction was being applied before or after the read
+    private @Nullable Object readDirect(K key, Operation operation){
+        long v = version;
+        if ((v & 1) != 0) return null;
+        var result = this.execute(key, operation, null);
+        return version == v ? result : null;
+    }
+
+    //Returns the slot the tx was published to or -1 if all slots were taken
+    private int publish(CombinerTransaction<K, V> tx){
+        int start = (int) Thread.currentThread().threadId() & mask;
+        for (int i = 0; i <= mask; i++) {
+            int slot = (start + i) & mask;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, tx)) return slot;
+        }
+
+        return -1;
+    }
+
+    //Must be called under the combiner lock
+    private void combine(){
+        for (int pass = 0; pass < MAX_COMBINE_PASSES; pass++) {
+            boolean applied = false;
+            for (int slot = 0; slot <= mask; slot++) {
+                var tx = slots.get(slot);
+                if (tx == null) continue;
+                slots.set(slot, null);
+                this.apply(tx);
+                applied = true;
+            }
+
+            if (!applied) return;
+        }
+    }
+
+    //Must be called under the combiner lock. Never throws, a failure is recorded on the tx for its committing thread once its writes are undone
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    private void apply(CombinerTransaction<K, V> tx){
+        int applied = 0;
+        mergedOver.clear();
+        version++;
+        try {
+            for (; applied < tx.ops.size(); applied++) {
+                var op = tx.ops.get(applied);
+                op.future().complete(this.execute(op.key(), op.operation(), op.computer()));
+            }
+        } catch (RuntimeException | Error e) {
+            this.undo(tx, applied);
+            tx.failure = e;
+        } finally {
+            version++;
+            tx.done = true;
+        }
+    }
+
+    //Restores the previous value of every write applied before the failure, newest first. A put or remove completed with it, a merge recorded it
+    @SuppressWarnings("unchecked")
+    private void undo(CombinerTransaction<K, V> tx, int applied){
+        int merges = mergedOver.size();
+        for (int i = applied - 1; i >= 0; i--) {
+            var op = tx.ops.get(i);
+            Option<V> prev;
+            if (op.operation() instanceof ModifyOperation<?>) prev = (Option<V>) op.future().get();
+            else if (op.operation() instanceof MergeOperation<?>) prev = mergedOver.get(--merges);
+            else continue;
+            if (prev.isSome()) map.put(op.key(), prev.unwrap());
+            else map.remove(op.key());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object execute(@Nullable K key, Operation operation, @Nullable UnaryOperator<Option<V>> computer){
+        return switch (operation) {
+            case ModifyOperation<?> _ when computer != null -> {
+                var prev = Option.ofNullable(map.get(key));
+                var next = computer.apply(prev);
+                if (next.isSome()) map.put(key, next.unwrap());
+                else map.remove(key);
+                yield prev;
+            }
+            case ModifyOperation<?> mo -> mo.type() == PUT ? Option.ofNullable(map.put(key, (V) mo.element())) : Option.ofNullable(map.remove(key));
+            case Operation.GetOperation _ -> Option.ofNullable(map.get(key));
+            case Operation.ContainsKeyOperation _ -> map.containsKey(key);
+            case Operation.SizeOperation _ -> map.size(); //Exact, every write to the map goes through the combiner
+            case MergeOperation<?> mo -> {
+                var merge = (MergeOperation<V>) mo;
+                var prev = map.get(key);
+                var merged = prev == null ? merge.operand() : MergeOperation.merged(merge.fn(), prev, merge.operand());
+                mergedOver.add(Option.ofNullable(prev)); //Only once the function returned, a failed merge wrote nothing
+                map.put(key, merged);
+                yield merged;
+            }
+        };
+    }
+
+    static final class CombinerTransaction<K, V> implements MapTransaction<K, V>, ComputingTransaction<K, V> {
+        private final CombinerTransactionalMap<K, V> txMap;
+        private final List<PendingOp<K, V>> ops;
+        private final List<Transaction> participants; //Committed once the combiner applied this tx, which holds no per key locks to release
+        private volatile boolean done;
+        private @Nullable Throwable failure; //Set by the combiner if applying this tx threw, published by done
+        TransactionState state;
+
+        CombinerTransaction(CombinerTransactionalMap<K, V> txMap) {
+            this.txMap = txMap;
+            this.ops = new ArrayList<>();
+            this.participants = new ArrayList<>();
+            this.state = TransactionState.NONE;
+        }
+
+        @Override
+        public FutureValue<Option<V>> put(K key, V value) {
+            Objects.requireNonNull(value, "Null values aren't supported");
+            return this.register(key, new ModifyOperation<>(value, PUT), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Option<V>> remove(K key) {
+            return this.register(key, DEFAULT_MODIFY_OP, new FutureValue<>());
+        }
+
+        //Applied by the combiner like every other op, so merges of a key are serialized with everything else
+        @Override
+        public FutureValue<V> merge(K key, V value, BinaryOperator<V> fn) {
+            Objects.requireNonNull(value, "Null values aren't supported");
+            Objects.requireNonNull(fn);
+            return this.register(key, new MergeOperation<>(value, fn), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<V> get(K key) {
+            return this.register(key, GET, new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Boolean> containsKey(K key) {
+            return this.register(key, CONTAINS, new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Integer> size() {
+            return this.register(null, SIZE, new FutureValue<>());
+        }
+
+        //Decided by the combiner when it applies this tx, serialized with every other write
+        @Override
+        public FutureValue<Option<V>> compute(K key, UnaryOperator<Option<V>> fn) {
+            return this.register(key, DEFAULT_MODIFY_OP, fn, new FutureValue<>());
+        }
+
+        private <T> FutureValue<T> register(@Nullable K key, Operation op, FutureValue<T> future){
+            return this.register(key, op, null, future);
+        }
+
+        private <T> FutureValue<T> register(@Nullable K key, Operation op, @Nullable UnaryOperator<Option<V>> computer, FutureValue<T> future){
+            if (state != TransactionState.NONE) throw new IllegalStateException("Transaction has already completed");
+            if (key == null && op != SIZE) throw new NullPointerException("Null keys aren't supported");
+            ops.add(new PendingOp<>(key, op, computer, future));
+            return future;
+        }
+
+        @Override
+        public void enlist(Transaction participant) {
+            if (state != TransactionState.NONE) throw new IllegalStateException("Transaction has already completed");
+            participants.add(participant);
+        }
+
+        @Override
+        public void commit() {
+            if (state != TransactionState.NONE) return;
+            try {
+                var result = this.isSingleRead() ? txMap.readDirect(ops.getFirst().key(), ops.getFirst().operation()) : null;
+                if (result != null) ops.getFirst().future().complete(result);
+                else if (!ops.isEmpty()) txMap.submit(this);
+            } catch (RuntimeException | Error e) {
+                this.abort();
+                throw e;
+            }
+
+            participants.forEach(Transaction::commit);
+            this.state = TransactionState.COMMITTED;
+            ops.clear();
+            participants.clear();
+        }
+
+        private boolean isSingleRead(){
+            var op = ops.size() == 1 ? ops.getFirst().operation() : null;
+            return op == GET || op == CONTAINS;
+        }
+
+        @Override
+        public void abort() {
+            if (state != TransactionState.NONE) return;
+            this.state = TransactionState.ABORTED;
+            participants.forEach(Transaction::abort);
+            ops.clear();
+            participants.clear();
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return state == TransactionState.COMMITTED;
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return Option.none();
+        }
+
+        @Override
+        public TransactionState state() {
+            return state;
+        }
+    }
+
+    private record PendingOp<K, V>(@Nullable K key, Operation operation, @Nullable UnaryOperator<Option<V>> computer, FutureValue<?> future) {}
+}
@@ -0,0 +1,65 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Lets a checkpoint briefly stop transactions from applying writes, so it can copy the map at a point between transactions.
+ * A committer enters its stripe before applying its writes and exits once they're all applied. A checkpoint closes the gate, then waits for every stripe to drain.
+ * Committers increment their stripe before reading the gate and the checkpoint closes the gate before reading the stripes, so at least one always sees the other.
+ * While the gate is open, committers only touch their own stripe's cache line, see SizeTracker
+ * */
+final class CommitGate {
+    private static final int PAD = 8;
+    private static final int SPINS = 64;
+
+    private final AtomicLongArray applying; //Committers applying writes, per stripe
+    private final ReentrantLock lock; //Held by the checkpoint for as long as the gate is closed
+    private final Condition opened;
+    private volatile boolean closed;
+
+    CommitGate() {
+        this.applying = new AtomicLongArray(SizeTracker.STRIPES * PAD);
+        this.lock = new ReentrantLock();
+        this.opened = lock.newCondition();
+    }
+
+    void enter(int stripe){
+        while (true) {
+            applying.incrementAndGet(stripe * PAD);
+            if (!closed) return;
+
+            applying.decrementAndGet(stripe * PAD);
+            lock.lock(); //Wait out the checkpoint
+            try {
+                while (closed) opened.awaitUninterruptibly();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    void exit(int stripe){
+        applying.decrementAndGet(stripe * PAD);
+    }
+
+    //Returns once no committer is applying writes, the gate stays closed until open is called by the same thread
+    void close(){
+        lock.lock();
+        closed = true;
+        for (int i = 0; i < SizeTracker.STRIPES; i++) {
+            int spins = 0;
+            while (applying.get(i * PAD) != 0) {
+                if (++spins < SPINS) Thread.onSpinWait();
+                else Thread.yield();
+            }
+        }
+    }
+
+    void open(){
+        closed = false;
+        opened.signalAll();
+        lock.unlock();
+    }
+}
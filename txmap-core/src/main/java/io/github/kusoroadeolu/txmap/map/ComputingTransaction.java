@@ -0,0 +1,13 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.FutureValue;
+
+import java.util.function.UnaryOperator;
+
+//A map transaction that can decide a key's write from the key's current value, for the auto commit views' conditional ops
+interface ComputingTransaction<K, V> {
+    //Writes fn's result for the key's current value, a none removes it. Decided where the transaction can no longer lose the key to another writer before it
+    //commits, and completes with the key's previous value
+    FutureValue<Option<V>> compute(K key, UnaryOperator<Option<V>> fn);
+}
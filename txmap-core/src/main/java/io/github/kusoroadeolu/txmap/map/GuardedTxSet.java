@@ -1,60 +1,50 @@
 package io.github.kusoroadeolu.txmap.map;
 
-import io.github.kusoroadeolu.ferrous.option.Option;
-import io.github.kusoroadeolu.txmap.Transaction;
-import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockWrapper;
-
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.BiFunction;
+import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType;
 
 //Happens before edges
 /*
-* A abort of transactions in the set by a transaction happens before the acquisition of the write lock by the transaction that aborted
+* A writer's version bump to odd happens before its write is applied, and the bump back to even happens after, so a reader that sees the same even version before and after its read saw no partial write
+* The lock and version are all a key's lock state needs, transactions holding the lock are tracked by their own HeldLocks rather than in here, so
+* registering an op on a key allocates nothing once its lock state exists
 * */
 class GuardedTxSet {
-    private final Set<Transaction> txSet;
-    private final Lock rLock;
-    private final Lock wLock;
-    private static final ILockBiFunction BI_FUNCTION = new ILockBiFunction();
+    private final SemanticLock lock;
+    private volatile long version; //Odd while a write is being applied, only bumped by the write lock holder
 
     public GuardedTxSet(){
-        this.txSet = ConcurrentHashMap.newKeySet();
-        var rwLock = new ReentrantReadWriteLock();
-        this.rLock = rwLock.readLock();
-        this.wLock = rwLock.writeLock();
+        this.lock = new SemanticLock();
     }
 
+    public void uniqueAcquireReadLock(HeldLocks heldLocks){
+        heldLocks.acquire(lock, LockType.READ);
+    }
 
 
-    public boolean put(Transaction tx){
-        return txSet.add(tx);
+    //Waits out a write being applied
+    long stableVersion(){
+        long v;
+        while (((v = version) & 1) != 0) Thread.onSpinWait();
+        return v;
     }
 
-    public void remove(Transaction tx){
-        txSet.remove(tx);
+    long version(){
+        return version;
     }
 
-    public void uniqueAcquireReadLock(Set<LockWrapper> heldLocks, Operation op){
-        Option.ofNullable(heldLocks)
-                    .map(slw ->
-                            BI_FUNCTION.apply(slw, new LockWrapper(OptimisticTransactionalMap.LockType.READ, op, rLock))
-                    );
+    //Only called while holding the write lock, so there's a single writer and the increments needn't be atomic
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    void beginWrite(){
+        version++;
     }
 
-
-    //This is only held by write transactions, for read transactions that
-    public Lock writeLock(){
-        return this.wLock;
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    void endWrite(){
+        version++;
     }
 
-    private record ILockBiFunction() implements BiFunction<Set<LockWrapper>, LockWrapper, Lock>{
-        @Override
-        public Lock apply(Set<LockWrapper> held, LockWrapper lw) {
-            if (held.add(lw)) lw.lock();
-            return lw.iLock();
-        }
+    //Held in READ by read transactions, in WRITE by write transactions and in MERGE by transactions merging into the key
+    public SemanticLock lock(){
+        return this.lock;
     }
 }
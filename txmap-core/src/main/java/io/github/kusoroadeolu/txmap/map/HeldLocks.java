@@ -0,0 +1,217 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.TransactionAbortedException;
+import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType;
+import org.jspecify.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/*
+ * The locks a transaction holds, indexed by semantic lock instance and mode. Keys that share lock state (e.g. a stripe) share the same lock instances, so they share one entry.
+ * Open addressed on the lock's identity hash, a slot keeps its lock once claimed and only its mode bits change until the table is cleared, so lookups never see a hole.
+ * Claimed slots are also kept in claim order, so releasing and clearing cost the number of locks held, not the table size.
+ *
+ * Lock waits
+ * Every wait a transaction makes, for a lock or for the size tracker's lockless writers, is taken out of one budget, a lock that can't be had before the budget runs out throws a TransactionAbortedException and the caller
+ * aborts the transaction. With a wait for graph, a waiter also wakes up every probe interval to look for a cycle through itself, and the youngest transaction on a
+ * cycle is picked as the victim, so a deadlock is broken long before the budget runs out.
+ * Confined to the transaction's thread apart from the wait fields other waiters read, it's allocated once per transaction and reused across its commits
+ * */
+final class HeldLocks {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final byte READ_HELD = 1;
+    private static final byte WRITE_HELD = 2;
+    private static final byte MERGE_HELD = 4;
+    private static final long PROBE_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final LockType[] TYPES = LockType.values();
+
+    private SemanticLock[] locks;
+    private byte[] modes;
+    private int[] claimed; //Slots in claim order
+    private int size;
+
+    //Lock waits
+    private final long budgetNanos;
+    private long remainingNanos; //What's left of the budget for the current transaction
+    private final @Nullable WaitForGraph graph;
+    long birth; //Orders transactions by age for victim selection, smaller is older
+    volatile @Nullable SemanticLock waitingFor; //Read by other waiters walking the graph
+    volatile LockType waitingMode;
+    volatile boolean victim; //Set by a waiter that found this transaction on a cycle
+
+    HeldLocks() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    HeldLocks(long budgetNanos, @Nullable WaitForGraph graph) {
+        this.locks = new SemanticLock[INITIAL_CAPACITY];
+        this.modes = new byte[INITIAL_CAPACITY];
+        this.claimed = new int[INITIAL_CAPACITY];
+        this.budgetNanos = budgetNanos;
+        this.remainingNanos = budgetNanos;
+        this.graph = graph;
+        this.waitingMode = LockType.READ;
+        if (graph != null) this.birth = graph.nextBirth();
+    }
+
+    //Locks the lock if it isn't already held in this mode, returns false if it was
+    boolean acquire(SemanticLock lock, LockType type){
+        int slot = this.slotOf(lock);
+        byte bit = bit(type);
+        if ((modes[slot] & bit) != 0) return false;
+        var modeLock = lock.lock(type);
+        if (!modeLock.tryLock()) this.await(lock, modeLock, type);
+        modes[slot] |= bit;
+        if (graph != null) graph.held(lock, this, type);
+        return true;
+    }
+
+    //Unlocks the lock if it's held in this mode, returns false if it wasn't
+    boolean release(SemanticLock lock, LockType type){
+        int slot = this.find(lock);
+        byte bit = bit(type);
+        if (slot < 0 || (modes[slot] & bit) == 0) return false;
+        modes[slot] &= (byte) ~bit;
+        if (graph != null) graph.released(lock, this, type);
+        lock.lock(type).unlock();
+        return true;
+    }
+
+    void releaseAll(){
+        for (int i = 0; i < size; i++) {
+            int slot = claimed[i];
+            for (var type : TYPES) {
+                if ((modes[slot] & bit(type)) == 0) continue;
+                if (graph != null) graph.released(locks[slot], this, type);
+                locks[slot].lock(type).unlock();
+            }
+            modes[slot] = 0;
+        }
+    }
+
+    //Forgets every lock without unlocking, only called once they've all been released. Also renews the wait budget for the next transaction
+    void clear(){
+        for (int i = 0; i < size; i++) {
+            int slot = claimed[i];
+            locks[slot] = null;
+            modes[slot] = 0;
+        }
+        size = 0;
+        remainingNanos = budgetNanos;
+        victim = false;
+        if (graph != null) birth = graph.nextBirth();
+    }
+
+    //Waits for the lock out of the remaining budget, throws once the budget runs out or this transaction is picked as a deadlock victim
+    private void await(SemanticLock lock, Lock modeLock, LockType type){
+        long start = System.nanoTime();
+        try {
+            if (graph == null) {
+                if (!modeLock.tryLock(remainingNanos, TimeUnit.NANOSECONDS)) throw timedOut();
+                return;
+            }
+
+            victim = false; //A mark from a cycle this transaction has since left
+            waitingMode = type;
+            waitingFor = lock;
+            graph.waiting(lock, this);
+            try {
+                long left;
+                while (!modeLock.tryLock(Math.min(PROBE_NANOS, left = remainingNanos - (System.nanoTime() - start)), TimeUnit.NANOSECONDS)) {
+                    if (victim) throw deadlocked();
+                    if (left <= PROBE_NANOS) throw timedOut(); //That was the last probe the budget had room for
+                    var picked = graph.victimOf(this);
+                    if (picked == this) throw deadlocked();
+                    if (picked != null) picked.victim = true;
+                }
+            } finally {
+                graph.stoppedWaiting(lock, this);
+                waitingFor = null;
+            }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException("Interrupted while waiting for a lock");
+        } finally {
+            remainingNanos = Math.max(0, remainingNanos - (System.nanoTime() - start));
+        }
+    }
+
+    //Waits for the size tracker's lockless writers to drain out of the same budget as lock waits
+    void awaitWriters(SizeTracker tracker){
+        long start = System.nanoTime();
+        try {
+            if (!tracker.awaitWriters(remainingNanos)) throw timedOut();
+        } finally {
+            remainingNanos = Math.max(0, remainingNanos - (System.nanoTime() - start));
+        }
+    }
+
+    private static TransactionAbortedException timedOut(){
+        return new TransactionAbortedException("Timed out waiting for a lock");
+    }
+
+    private static TransactionAbortedException deadlocked(){
+        return new TransactionAbortedException("Picked as the victim of a deadlock");
+    }
+
+    private int find(SemanticLock lock){
+        int mask = locks.length - 1;
+        for (int slot = hash(lock) & mask; locks[slot] != null; slot = (slot + 1) & mask) {
+            if (locks[slot] == lock) return slot;
+        }
+        return -1;
+    }
+
+    private int slotOf(SemanticLock lock){
+        int mask = locks.length - 1;
+        int slot = hash(lock) & mask;
+        while (locks[slot] != null) {
+            if (locks[slot] == lock) return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        if ((size + 1) * 2 > locks.length) { //Keep the load under a half so probes stay short
+            this.grow();
+            return this.slotOf(lock);
+        }
+
+        locks[slot] = lock;
+        claimed[size++] = slot;
+        return slot;
+    }
+
+    private void grow(){
+        var oldLocks = locks;
+        var oldModes = modes;
+        var oldClaimed = claimed;
+        int oldSize = size;
+        locks = new SemanticLock[oldLocks.length << 1];
+        modes = new byte[oldLocks.length << 1];
+        claimed = new int[oldLocks.length << 1];
+        size = 0;
+
+        int mask = locks.length - 1;
+        for (int i = 0; i < oldSize; i++) {
+            var lock = oldLocks[oldClaimed[i]];
+            int slot = hash(lock) & mask;
+            while (locks[slot] != null) slot = (slot + 1) & mask;
+            locks[slot] = lock;
+            modes[slot] = oldModes[oldClaimed[i]];
+            claimed[size++] = slot;
+        }
+    }
+
+    private static int hash(SemanticLock lock){
+        int h = System.identityHashCode(lock);
+        return h ^ (h >>> 16);
+    }
+
+    private static byte bit(LockType type){
+        return switch (type) {
+            case READ -> READ_HELD;
+            case WRITE -> WRITE_HELD;
+            case MERGE -> MERGE_HELD;
+        };
+    }
+}
@@ -1,32 +1,123 @@
 package io.github.kusoroadeolu.txmap.map;
 
-import io.github.kusoroadeolu.ferrous.option.Option;
-import io.github.kusoroadeolu.txmap.Transaction;
-
+import java.util.ArrayDeque;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
-public class KeyToLockers<K> {
-    private final Map<K, Map<Operation, GuardedTxSet>> keyToLockers;
+/*
+ * Lock state for a key is reference counted. A transaction pins every key it touches before it creates, holds or waits on
+ * any of the key's locks, and unpins the key once it has released those locks.
+ * The last unpin removes the key's lock state, so the table only ever holds keys that a live transaction is using.
+ *
+ * Pins are only read or written inside compute calls on the key, which run under the key's bin lock, or set on lock state before an insert publishes it,
+ * so a pin can never race with the removal of the entry it is pinning
+ *
+ * Removed lock state goes to a small pool on the unpinning thread and the next key that thread pins reuses it under a fresh id, its locks are all free by then.
+ * Nothing outside a pin can reach lock state, so no one still holds the recycled one. Pinning an idle key then only costs the table's own node
+ * */
+public final class KeyToLockers<K> implements LockTable<K> {
+    private static final int MAX_SPARE_LOCKERS = 64; //Per thread, enough for the keys of a typical transaction
+    private final ConcurrentHashMap<K, Lockers> keyToLockers;
+    private final AtomicLong ids;
+    private final ThreadLocal<ArrayDeque<Lockers>> spare; //Removed lock state, each thread's own
+    private final BiFunction<K, Lockers, Lockers> pinner; //Kept as fields so a pin doesn't allocate a capturing lambda
+    private final BiFunction<K, Lockers, Lockers> unpinner;
 
     public KeyToLockers() {
         this.keyToLockers = new ConcurrentHashMap<>();
+        this.ids = new AtomicLong();
+        this.spare = ThreadLocal.withInitial(ArrayDeque::new);
+        this.pinner = (_, lockers) -> {
+            if (lockers == null) lockers = this.newLockers();
+            lockers.pins++;
+            return lockers;
+        };
+        this.unpinner = (_, lockers) -> {
+            if (--lockers.pins > 0) return lockers;
+            this.recycle(lockers);
+            return null;
+        };
+    }
+
+    @Override
+    public void pin(K key){
+        if (!keyToLockers.containsKey(key)) { //Likely idle, a plain insert doesn't allocate the reservation node a compute on a missing key does
+            var lockers = this.newLockers();
+            lockers.pins = 1;
+            if (keyToLockers.putIfAbsent(key, lockers) == null) return;
+            this.recycle(lockers); //Lost the race to another pin
+        }
+        keyToLockers.compute(key, pinner);
+    }
+
+    @Override
+    public void unpin(K key){
+        keyToLockers.computeIfPresent(key, unpinner);
+    }
+
+    private void recycle(Lockers lockers){
+        var pool = spare.get();
+        if (pool.size() < MAX_SPARE_LOCKERS) pool.push(lockers);
+    }
+
+    private Lockers newLockers(){
+        var lockers = spare.get().poll();
+        if (lockers == null) return new Lockers(ids.incrementAndGet());
+        lockers.id = ids.incrementAndGet(); //A fresh id keeps lock order unique, see lockOrder
+        return lockers;
+    }
+
+    //The key must be pinned by the caller, otherwise the lock state could be reclaimed while it's being used
+    @Override
+    public GuardedTxSet getOrCreate(K key, Operation op){
+        var lockers = keyToLockers.get(key);
+        if (lockers == null) throw new IllegalStateException("Lock state requested for an unpinned key");
+
+        var set = lockers.byOp.get(op);
+        return set != null ? set : lockers.byOp.computeIfAbsent(op, _ -> new GuardedTxSet());
     }
 
-    public void put(K key, Operation op, Transaction tx){
-        var txSet = this.getOrCreate(key, op).unwrap();
-        txSet.put(tx);
+    //Lock state gets a unique id when it's created, and equal keys share lock state while pinned, so ids order keys by equality rather than identity or hash.
+    //Unlike hashes ids never tie, keys with equal hashes("Aa" and "BB") would otherwise lock in registration order and two txs could take them in opposite orders
+    @Override
+    public long lockOrder(K key){
+        var lockers = keyToLockers.get(key);
+        if (lockers == null) throw new IllegalStateException("Lock order requested for an unpinned key");
+        return lockers.id;
     }
 
-    Option<GuardedTxSet> getOrCreate(K key, Operation op){
-        var map = keyToLockers.get(key);
-        GuardedTxSet set;
-        if (map == null) map = keyToLockers.computeIfAbsent(key, _ -> new ConcurrentHashMap<>());
+    @Override
+    public int size(){
+        return keyToLockers.size();
+    }
+
+    @Override
+    public boolean isPinned(K key){
+        return keyToLockers.containsKey(key);
+    }
 
-        set = map.get(op);
-        if (set != null) return Option.some(set);
-        else return Option.some(map.computeIfAbsent(op, _ -> new GuardedTxSet()));
+    //The action runs inside a compute on the absent key, which holds the key's bin lock, so a pin of the key waits for it
+    @Override
+    public boolean runIfUnpinned(K key, Runnable action){
+        if (keyToLockers.containsKey(key)) return false;
+        var ran = new boolean[1];
+        keyToLockers.computeIfAbsent(key, _ -> {
+            action.run();
+            ran[0] = true;
+            return null; //Leaves the key unmapped
+        });
+        return ran[0];
     }
 
+    private static final class Lockers {
+        private final Map<Operation, GuardedTxSet> byOp = new ConcurrentHashMap<>();
+        private long id; //Only reassigned while the lock state is unreachable, before the pin that publishes it
+        private int pins;
 
+        Lockers(long id) {
+            this.id = id;
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package io.github.kusoroadeolu.txmap.map;
+
+//Maps a key and the semantics of an operation on it to the lock state of that semantic lock
+sealed interface LockTable<K> permits KeyToLockers, StripedKeyToLockers {
+
+    //Keeps the key's lock state alive until it is unpinned
+    void pin(K key);
+
+    void unpin(K key);
+
+    //The key must be pinned by the caller, both tables always have lock state to hand out so there's no none case
+    GuardedTxSet getOrCreate(K key, Operation op);
+
+    //A total order over lock state, write locks are acquired in ascending lock order and keys with the same lock order share the same lock state.
+    //The key must be pinned by the caller
+    long lockOrder(K key);
+
+    //Number of entries currently holding lock state
+    int size();
+
+    //If a transaction may have the key pinned, i.e. be partway through using its locks
+    boolean isPinned(K key);
+
+    //Runs the action while no transaction can pin the key and returns true, or returns false without running it if the key is already pinned
+    boolean runIfUnpinned(K key, Runnable action);
+}
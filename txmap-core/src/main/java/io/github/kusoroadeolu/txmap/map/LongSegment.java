@@ -0,0 +1,137 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.LongFutureValue;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * One segment of a long to long map, an open addressing table with linear probing guarded by its own read write lock.
+ * Removals shift the following entries of the probe run back instead of leaving tombstones, so lookups never have to skip dead slots.
+ * Every method must be called with the segment's lock held, reads under the read lock and writes under the write lock
+ * */
+final class LongSegment {
+    private static final int MIN_CAPACITY = 8;
+
+    final ReentrantReadWriteLock lock;
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int mask;
+    private int count;
+    private int threshold; //Resize once the table is 3/4 full
+
+    LongSegment(int initialCapacity) {
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1);
+        this.lock = new ReentrantReadWriteLock();
+        this.allocate(capacity);
+    }
+
+    private void allocate(int capacity){
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.used = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.threshold = capacity - (capacity >>> 2);
+    }
+
+    //Returns the slot holding the key, or the empty slot ending its probe run as ~slot
+    private int find(long key, int hash){
+        int slot = hash & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        return ~slot;
+    }
+
+    boolean containsKey(long key, int hash){
+        return this.find(key, hash) >= 0;
+    }
+
+    //Completes the handle with the value, or leaves it absent
+    void get(long key, int hash, LongFutureValue out){
+        int slot = this.find(key, hash);
+        if (slot >= 0) out.complete(values[slot]);
+        else out.completeAbsent();
+    }
+
+    //Completes the handle with the previous value, or leaves it absent
+    void put(long key, long value, int hash, LongFutureValue prev){
+        int slot = this.find(key, hash);
+        if (slot >= 0) {
+            prev.complete(values[slot]);
+            values[slot] = value;
+            return;
+        }
+
+        prev.completeAbsent();
+        slot = ~slot;
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        if (++count > threshold) this.resize();
+    }
+
+    //Completes the handle with the sum, a missing key counts as 0
+    void add(long key, long delta, int hash, LongFutureValue sum){
+        int slot = this.find(key, hash);
+        if (slot >= 0) {
+            values[slot] += delta;
+            sum.complete(values[slot]);
+            return;
+        }
+
+        sum.complete(delta);
+        slot = ~slot;
+        keys[slot] = key;
+        values[slot] = delta;
+        used[slot] = true;
+        if (++count > threshold) this.resize();
+    }
+
+    //Completes the handle with the removed value, or leaves it absent
+    void remove(long key, int hash, LongFutureValue prev){
+        int slot = this.find(key, hash);
+        if (slot < 0) {
+            prev.completeAbsent();
+            return;
+        }
+
+        prev.complete(values[slot]);
+        count--;
+
+        //Shift back every entry in the run that would otherwise be unreachable past the hole
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (used[next]) {
+            int home = SegmentedTransactionalLongMap.hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        used[hole] = false;
+    }
+
+    int size(){
+        return count;
+    }
+
+    private void resize(){
+        var oldKeys = keys;
+        var oldValues = values;
+        var oldUsed = used;
+        this.allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) continue;
+            int slot = ~this.find(oldKeys[i], SegmentedTransactionalLongMap.hash(oldKeys[i]));
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            used[slot] = true;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * The store of a transactional set, a ConcurrentMap of members to TRUE that keeps no value at all. Members are hashed onto a fixed, power of two number
+ * of segments, each an open addressing table of member references with linear probing guarded by its own read write lock, like the long map's segments.
+ * A member costs one table slot, where a ConcurrentHashMap spends a node holding its hash, key, value and next pointer on top of the slot.
+ * Every member maps to TRUE, so writing any other value is rejected
+ * */
+final class MemberTable<E> extends AbstractMap<E, Boolean> implements ConcurrentMap<E, Boolean> {
+    private static final int DEFAULT_SEGMENTS = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+    private static final int DEFAULT_SEGMENT_CAPACITY = 16;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    MemberTable() {
+        this(DEFAULT_SEGMENTS, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    //The segment count must be a power of two
+    MemberTable(int segmentCount, int segmentCapacity) {
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) segments[i] = new Segment(segmentCapacity);
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    @Override
+    public @Nullable Boolean get(Object key) {
+        return this.containsKey(key) ? Boolean.TRUE : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int hash = hash(key);
+        var segment = this.segmentFor(hash);
+        segment.lock.readLock().lock();
+        try {
+            return segment.find(key, hash) >= 0;
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public @Nullable Boolean put(E key, Boolean value) {
+        requireMember(value);
+        return this.add(key) ? null : Boolean.TRUE;
+    }
+
+    @Override
+    public @Nullable Boolean putIfAbsent(E key, Boolean value) {
+        return this.put(key, value);
+    }
+
+    @Override
+    public @Nullable Boolean remove(Object key) {
+        int hash = hash(key);
+        var segment = this.segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            return segment.remove(key, hash) ? Boolean.TRUE : null;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return Boolean.TRUE.equals(value) && this.remove(key) != null;
+    }
+
+    //A member's value never changes, so replacing only checks membership
+    @Override
+    public boolean replace(E key, Boolean oldValue, Boolean newValue) {
+        requireMember(newValue);
+        return Boolean.TRUE.equals(oldValue) && this.containsKey(key);
+    }
+
+    @Override
+    public @Nullable Boolean replace(E key, Boolean value) {
+        requireMember(value);
+        return this.get(key);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (var segment : segments) {
+            segment.lock.readLock().lock();
+            try {
+                size += segment.count;
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (var segment : segments) {
+            segment.lock.writeLock().lock();
+            try {
+                segment.allocate(segment.keys.length);
+            } finally {
+                segment.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    //Weakly consistent, each segment's members are copied under its read lock once the iterator reaches it
+    @Override
+    public Set<Entry<E, Boolean>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<E, Boolean>> iterator() {
+                return new Iterator<>() {
+                    private int segment;
+                    private Object[] members = new Object[0];
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (index == members.length && segment < segments.length) {
+                            members = segments[segment++].members();
+                            index = 0;
+                        }
+                        return index < members.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<E, Boolean> next() {
+                        if (!this.hasNext()) throw new NoSuchElementException();
+                        return new SimpleImmutableEntry<>((E) members[index++], Boolean.TRUE);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MemberTable.this.size();
+            }
+        };
+    }
+
+    //Returns true if the key wasn't a member
+    private boolean add(E key){
+        int hash = hash(key);
+        var segment = this.segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            return segment.add(key, hash);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    private Segment segmentFor(int hash){
+        return segments[segmentShift == 32 ? 0 : hash >>> segmentShift];
+    }
+
+    //Fibonacci hashing spreads the key's hash into the high bits, which pick the segment, folded into the low bits, which pick the slot
+    private static int hash(Object key){
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static void requireMember(Boolean value){
+        if (!Boolean.TRUE.equals(value)) throw new IllegalArgumentException("A member table only maps members to TRUE, was: " + value);
+    }
+
+    //Every method but allocate must be called with the segment's lock held, reads under the read lock and writes under the write lock
+    private static final class Segment {
+        private static final int MIN_CAPACITY = 8;
+
+        final ReentrantReadWriteLock lock;
+        private @Nullable Object[] keys;
+        private int mask;
+        private int count;
+        private int threshold; //Resize once the table is 3/4 full
+
+        Segment(int initialCapacity) {
+            int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1);
+            this.lock = new ReentrantReadWriteLock();
+            this.allocate(capacity);
+        }
+
+        void allocate(int capacity){
+            this.keys = new Object[capacity];
+            this.mask = capacity - 1;
+            this.count = 0;
+            this.threshold = capacity - (capacity >>> 2);
+        }
+
+        //Returns the slot holding the key, or the empty slot ending its probe run as ~slot
+        int find(Object key, int hash){
+            int slot = hash & mask;
+            for (Object k; (k = keys[slot]) != null; slot = (slot + 1) & mask) {
+                if (k.equals(key)) return slot;
+            }
+            return ~slot;
+        }
+
+        boolean add(Object key, int hash){
+            int slot = this.find(key, hash);
+            if (slot >= 0) return false;
+            keys[~slot] = key;
+            if (++count > threshold) this.resize();
+            return true;
+        }
+
+        //Shifts back every member of the run that would otherwise be unreachable past the hole instead of leaving a tombstone
+        boolean remove(Object key, int hash){
+            int slot = this.find(key, hash);
+            if (slot < 0) return false;
+            count--;
+
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            for (Object k; (k = keys[next]) != null; next = (next + 1) & mask) {
+                int home = hash(k) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = k;
+                    hole = next;
+                }
+            }
+            keys[hole] = null;
+            return true;
+        }
+
+        Object[] members(){
+            lock.readLock().lock();
+            try {
+                var members = new Object[count];
+                int i = 0;
+                for (var key : keys) {
+                    if (key != null) members[i++] = key;
+                }
+                return members;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void resize(){
+            var oldKeys = keys;
+            int oldCount = count;
+            this.allocate(oldKeys.length << 1);
+            for (var key : oldKeys) {
+                if (key != null) keys[~this.find(key, hash(key))] = key;
+            }
+            count = oldCount;
+        }
+    }
+}
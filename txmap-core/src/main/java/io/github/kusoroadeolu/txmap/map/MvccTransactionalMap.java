@@ -0,0 +1,419 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.*;
+import io.github.kusoroadeolu.txmap.map.Operation.MergeOperation;
+import io.github.kusoroadeolu.txmap.map.Operation.ModifyOperation;
+import org.jspecify.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+import static io.github.kusoroadeolu.txmap.map.Operation.ContainsKeyOperation.CONTAINS;
+import static io.github.kusoroadeolu.txmap.map.Operation.DEFAULT_MODIFY_OP;
+import static io.github.kusoroadeolu.txmap.map.Operation.GetOperation.GET;
+import static io.github.kusoroadeolu.txmap.map.Operation.ModifyType.PUT;
+import static io.github.kusoroadeolu.txmap.map.Operation.SizeOperation.SIZE;
+
+/*
+ * A multi version map promising SNAPSHOT isolation.
+ * Every committed write installs a new version of its key, stamped with the commit timestamp of its transaction. A transaction reads the newest
+ * versions no newer than the timestamp it began at, so readers never take locks and never block or get blocked by writers.
+ * Writers serialize on a commit lock and abort with a TransactionAbortedException if a key they wrote was committed by another transaction after they began(first committer wins)
+ *
+ * Versions no active transaction can see are trimmed by committers. The gc horizon is the oldest snapshot still registered,
+ * every version older than the newest version at or below the horizon is unreachable. A key whose older versions were still visible when it was written
+ * is queued, and trimmed by the first commit whose horizon has passed that write, so a long snapshot never leaves a key's history behind for good.
+ *
+ * Happens before guarantees
+ * 1. The installation of a transaction's versions happens before the publication of its commit timestamp
+ * 2. The registration of a snapshot happens before its gc horizon check, the publication of a gc horizon happens before the scan for the oldest snapshot
+ * 3. The trimming of versions happens after the publication of the horizon they were trimmed against
+ * */
+public class MvccTransactionalMap<K, V> implements CheckpointableMap<K, V> {
+    private final ConcurrentHashMap<K, Version<V>> versions; //Newest version first
+    private final AtomicLong clock; //Timestamp of the newest committed transaction
+    private final AtomicLong gcHorizon;
+    private final AtomicLong snapshotIds;
+    private final ConcurrentSkipListSet<Snapshot> activeSnapshots;
+    private volatile Version<Integer> sizeVersions;
+
+    //Commit state, guarded by the commit lock
+    private final ReentrantLock commitLock;
+    private final ArrayDeque<Tombstone<K>> tombstones; //Deleted keys waiting for the horizon to pass their deletion
+    private final ArrayDeque<Superseded<K>> superseded; //Written keys that kept older versions, waiting for the horizon to pass the write
+
+    public MvccTransactionalMap() {
+        this.versions = new ConcurrentHashMap<>();
+        this.clock = new AtomicLong();
+        this.gcHorizon = new AtomicLong();
+        this.snapshotIds = new AtomicLong();
+        this.activeSnapshots = new ConcurrentSkipListSet<>();
+        this.sizeVersions = new Version<>(0, 0, null);
+        this.commitLock = new ReentrantLock();
+        this.tombstones = new ArrayDeque<>();
+        this.superseded = new ArrayDeque<>();
+    }
+
+    @Override
+    public MapTransaction<K, V> beginTx() {
+        return new MvccTransaction<>(this, this.registerSnapshot());
+    }
+
+    //Every op is a one op transaction, so a conditional write that lost its key to a newer commit is retried. Iteration reads a copy of one snapshot
+    @Override
+    public ConcurrentMap<K, V> asConcurrentMap(){
+        return new TransactionPerOpMap<>(this, this::committed);
+    }
+
+    //The newest committed value of every key, copied at one snapshot
+    Map<K, V> committed(){
+        var snapshot = this.registerSnapshot();
+        try {
+            var entries = new HashMap<K, V>();
+            for (var key : versions.keySet()) {
+                var value = this.read(key, snapshot.ts());
+                if (value.isSome()) entries.put(key, value.unwrap());
+            }
+            return Collections.unmodifiableMap(entries);
+        } finally {
+            activeSnapshots.remove(snapshot);
+        }
+    }
+
+    //Streams the newest versions visible to a snapshot to the file, the snapshot holds back trimming until it's written
+    @Override
+    public void checkpoint(Path file, Codec<K> keyCodec, Codec<V> valueCodec){
+        var snapshot = this.registerSnapshot();
+        try (var writer = CheckpointFile.writer(file, keyCodec, valueCodec)) {
+            for (var key : versions.keySet()) {
+                var value = this.read(key, snapshot.ts());
+                if (value.isSome()) writer.append(key, value.unwrap());
+            }
+            writer.finish();
+        } finally {
+            activeSnapshots.remove(snapshot);
+        }
+    }
+
+    Snapshot registerSnapshot(){
+        long id = snapshotIds.incrementAndGet();
+        while (true) {
+            long ts = clock.get();
+            var snapshot = new Snapshot(ts, id);
+            activeSnapshots.add(snapshot);
+            if (gcHorizon.get() <= ts) return snapshot;
+            activeSnapshots.remove(snapshot); //Versions this snapshot needs may already be trimmed, take a newer one
+        }
+    }
+
+    Option<V> read(K key, long ts){
+        var version = visible(versions.get(key), ts);
+        return version == null ? Option.none() : Option.ofNullable(version.value);
+    }
+
+    int readSize(long ts){
+        var version = visible(sizeVersions, ts);
+        return version == null ? 0 : version.value;
+    }
+
+    //Number of versions currently kept for a key, including tombstones
+    int versionCount(K key){
+        int count = 0;
+        for (var v = versions.get(key); v != null; v = v.older) count++;
+        return count;
+    }
+
+    private static <T> @Nullable Version<T> visible(@Nullable Version<T> head, long ts){
+        var v = head;
+        while (v != null && v.ts > ts) v = v.older;
+        return v;
+    }
+
+    //Must be called under the commit lock
+    private long publishHorizon(){
+        long candidate = clock.get();
+        gcHorizon.accumulateAndGet(candidate, Math::max);
+        var oldest = activeSnapshots.isEmpty() ? null : activeSnapshots.first();
+        return oldest == null ? candidate : Math.min(candidate, oldest.ts());
+    }
+
+    //Must be called under the commit lock
+    private void collect(Collection<K> written){
+        long horizon = this.publishHorizon();
+        for (K key : written) {
+            var head = versions.get(key);
+            trim(head, horizon);
+            if (head != null && head.older != null) superseded.addLast(new Superseded<>(key, head.ts));
+        }
+        trim(sizeVersions, horizon);
+
+        //Queued in commit order. A key rewritten since it was queued has a newer write, which queued it again if it still needed to
+        while (!superseded.isEmpty() && superseded.peekFirst().ts() <= horizon) trim(versions.get(superseded.pollFirst().key()), horizon);
+
+        while (!tombstones.isEmpty() && tombstones.peekFirst().ts() <= horizon) {
+            var tombstone = tombstones.pollFirst();
+            var head = versions.get(tombstone.key());
+            if (head != null && head.ts == tombstone.ts() && head.value == null) versions.remove(tombstone.key(), head);
+        }
+    }
+
+    private static <T> void trim(@Nullable Version<T> head, long horizon){
+        var newestVisible = visible(head, horizon);
+        if (newestVisible != null) newestVisible.older = null;
+    }
+
+    static final class MvccTransaction<K, V> implements MapTransaction<K, V>, ComputingTransaction<K, V> {
+        private final MvccTransactionalMap<K, V> txMap;
+        private final Snapshot snapshot;
+        private final List<PendingOp<K, V>> ops;
+        private final List<Transaction> participants; //Committed once the versions are installed, before the commit lock is released
+        private boolean hasWrites;
+        private boolean finished;
+        TransactionState state;
+
+        MvccTransaction(MvccTransactionalMap<K, V> txMap, Snapshot snapshot) {
+            this.txMap = txMap;
+            this.snapshot = snapshot;
+            this.ops = new ArrayList<>();
+            this.participants = new ArrayList<>();
+            this.state = TransactionState.NONE;
+        }
+
+        @Override
+        public FutureValue<Option<V>> put(K key, V value) {
+            hasWrites = true;
+            return this.register(key, new ModifyOperation<>(value, PUT), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Option<V>> remove(K key) {
+            hasWrites = true;
+            return this.register(key, DEFAULT_MODIFY_OP, new FutureValue<>());
+        }
+
+        //Evaluated against the snapshot like a put of the merged value, so it conflicts with any newer commit of the key like a put
+        @Override
+        public FutureValue<V> merge(K key, V value, BinaryOperator<V> fn) {
+            Objects.requireNonNull(value, "Null values aren't supported");
+            Objects.requireNonNull(fn);
+            hasWrites = true;
+            return this.register(key, new MergeOperation<>(value, fn), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<V> get(K key) {
+            return this.register(key, GET, new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Boolean> containsKey(K key) {
+            return this.register(key, CONTAINS, new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Integer> size() {
+            return this.register(null, SIZE, new FutureValue<>());
+        }
+
+        //Decided against the snapshot, so it conflicts with any newer commit of the key like a put and a lost race is retried on a newer snapshot
+        @Override
+        public FutureValue<Option<V>> compute(K key, UnaryOperator<Option<V>> fn) {
+            hasWrites = true;
+            return this.register(key, DEFAULT_MODIFY_OP, fn, new FutureValue<>());
+        }
+
+        private <T> FutureValue<T> register(@Nullable K key, Operation op, FutureValue<T> future){
+            return this.register(key, op, null, future);
+        }
+
+        private <T> FutureValue<T> register(@Nullable K key, Operation op, @Nullable UnaryOperator<Option<V>> computer, FutureValue<T> future){
+            if (finished) throw new IllegalStateException("Transaction has already completed");
+            ops.add(new PendingOp<>(key, op, computer, future));
+            return future;
+        }
+
+        @Override
+        public void enlist(Transaction participant) {
+            if (finished) throw new IllegalStateException("Transaction has already completed");
+            participants.add(participant);
+        }
+
+        @Override
+        public void commit() {
+            if (!hasWrites) {
+                //Read only transactions see their snapshot and never conflict
+                this.complete(this.evaluate());
+                participants.forEach(Transaction::commit);
+                this.finish(TransactionState.COMMITTED);
+                return;
+            }
+
+            //Evaluation only reads the snapshot, so it can run before we take the commit lock
+            Evaluation<K, V> evaluation;
+            try {
+                evaluation = this.evaluate();
+            } catch (RuntimeException | Error e) {
+                this.finish(TransactionState.ABORTED); //A merge function threw, nothing was installed
+                throw e;
+            }
+
+            var lock = txMap.commitLock;
+            lock.lock();
+            try {
+                if (this.conflicts()) {
+                    this.finish(TransactionState.ABORTED);
+                    throw new TransactionAbortedException("A key written by this transaction was committed by a newer transaction");
+                }
+
+                this.state = TransactionState.VALIDATED;
+                this.install(evaluation);
+                participants.forEach(Transaction::commit);
+                txMap.activeSnapshots.remove(snapshot); //Our results are already evaluated, don't hold back the horizon
+                txMap.collect(evaluation.writes.keySet());
+            } finally {
+                lock.unlock();
+            }
+
+            this.complete(evaluation);
+            this.finish(TransactionState.COMMITTED);
+        }
+
+        //First committer wins, any version newer than our snapshot on a key we write means we'd overwrite a write we never saw
+        private boolean conflicts(){
+            for (var op : ops) {
+                if (op.operation() instanceof ModifyOperation<?> || op.operation() instanceof MergeOperation<?>) {
+                    var head = txMap.versions.get(op.key());
+                    if (head != null && head.ts > snapshot.ts()) return true;
+                }
+            }
+
+            return false;
+        }
+
+        //Replays the ops in order against the snapshot, with this tx's own writes layered on top
+        @SuppressWarnings("unchecked")
+        private Evaluation<K, V> evaluate(){
+            var writes = new LinkedHashMap<K, Option<V>>();
+            var results = new Object[ops.size()];
+            int snapshotSize = txMap.readSize(snapshot.ts());
+            int size = snapshotSize;
+
+            for (int i = 0; i < ops.size(); i++) {
+                var op = ops.get(i);
+                var key = op.key();
+                switch (op.operation()) {
+                    case ModifyOperation<?> mo -> {
+                        var prev = this.current(writes, key);
+                        var next = op.computer() != null ? op.computer().apply(prev) : mo.type() == PUT ? Option.some((V) mo.element()) : Option.<V>none();
+                        if (prev.isNone() && next.isSome()) size++;
+                        if (prev.isSome() && next.isNone()) size--;
+                        writes.put(key, next);
+                        results[i] = prev;
+                    }
+                    case Operation.GetOperation _ -> results[i] = this.current(writes, key);
+                    case Operation.ContainsKeyOperation _ -> results[i] = this.current(writes, key).isSome();
+                    case Operation.SizeOperation _ -> results[i] = size;
+                    case MergeOperation<?> mo -> {
+                        var merge = (MergeOperation<V>) mo;
+                        var prev = this.current(writes, key);
+                        var merged = prev.isSome() ? MergeOperation.merged(merge.fn(), prev.unwrap(), merge.operand()) : merge.operand();
+                        if (prev.isNone()) size++;
+                        writes.put(key, Option.some(merged));
+                        results[i] = merged;
+                    }
+                }
+            }
+
+            return new Evaluation<>(writes, results, size - snapshotSize);
+        }
+
+        private Option<V> current(Map<K, Option<V>> writes, K key){
+            var written = writes.get(key);
+            return written != null ? written : txMap.read(key, snapshot.ts());
+        }
+
+        //Must be called under the commit lock
+        private void install(Evaluation<K, V> evaluation){
+            long ts = txMap.clock.get() + 1;
+            evaluation.writes.forEach((key, value) -> {
+                var v = value.isSome() ? value.unwrap() : null;
+                txMap.versions.compute(key, (_, head) -> new Version<>(ts, v, head));
+                if (v == null) txMap.tombstones.addLast(new Tombstone<>(key, ts));
+            });
+
+            //The delta was taken against the snapshot, which agrees with the latest version on every key we wrote since we didn't conflict
+            if (evaluation.sizeDelta != 0) txMap.sizeVersions = new Version<>(ts, txMap.readSize(ts - 1) + evaluation.sizeDelta, txMap.sizeVersions);
+            txMap.clock.set(ts); //Publish, snapshots taken from here on see this tx's versions
+        }
+
+        private void complete(Evaluation<K, V> evaluation){
+            for (int i = 0; i < ops.size(); i++) ops.get(i).future().complete(evaluation.results[i]);
+        }
+
+        private void finish(TransactionState state){
+            if (finished) return;
+            finished = true;
+            this.state = state;
+            if (state == TransactionState.ABORTED) participants.forEach(Transaction::abort);
+            participants.clear();
+            txMap.activeSnapshots.remove(snapshot);
+            ops.clear();
+        }
+
+        @Override
+        public void abort() {
+            this.finish(TransactionState.ABORTED);
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return state == TransactionState.COMMITTED;
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return Option.none();
+        }
+
+        @Override
+        public TransactionState state() {
+            return state;
+        }
+    }
+
+    private static final class Version<T> {
+        private final long ts;
+        private final @Nullable T value; //Null marks a deletion
+        private volatile @Nullable Version<T> older;
+
+        Version(long ts, @Nullable T value, @Nullable Version<T> older) {
+            this.ts = ts;
+            this.value = value;
+            this.older = older;
+        }
+    }
+
+    record Snapshot(long ts, long id) implements Comparable<Snapshot> {
+        @Override
+        public int compareTo(Snapshot that) {
+            int c = Long.compare(ts, that.ts);
+            return c != 0 ? c : Long.compare(id, that.id);
+        }
+    }
+
+    private record PendingOp<K, V>(@Nullable K key, Operation operation, @Nullable UnaryOperator<Option<V>> computer, FutureValue<?> future) {}
+
+    private record Evaluation<K, V>(Map<K, Option<V>> writes, Object[] results, int sizeDelta) {}
+
+    private record Tombstone<K>(K key, long ts) {}
+
+    private record Superseded<K>(K key, long ts) {}
+}
@@ -0,0 +1,243 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.Codec;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.foreign.MemorySegment;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+/*
+ * A ConcurrentMap keeping its values off heap. Keys stay on the heap, each mapped to the handle and generation of a slab block holding its encoded value,
+ * so the heap only grows by a key and a block reference per entry however large the values are.
+ * Values are encoded outside any lock where the new value is known up front, and decoded only when they're read.
+ *
+ * A block is only freed inside a compute on its key, once the value replacing it is encoded, so a codec that throws leaves the key as it was.
+ * Gets take no lock, they copy the block's bytes out and check its generation after, see OffHeapSlab. A get that raced the block being freed retries
+ * against the key's new mapping, while every other read of a block happens inside a compute on its key, where it can't be freed
+ * */
+final class OffHeapMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    private final ConcurrentHashMap<K, Block> handles;
+    private final OffHeapSlab slab;
+    private final Codec<V> codec;
+
+    OffHeapMap(Codec<V> codec) {
+        this.handles = new ConcurrentHashMap<>();
+        this.slab = new OffHeapSlab();
+        this.codec = codec;
+    }
+
+    @Override
+    public @Nullable V get(Object key) {
+        for (;;) {
+            var block = handles.get(key);
+            if (block == null) return null;
+            var bytes = slab.read(block.handle(), block.generation());
+            if (bytes != null) return codec.decode(MemorySegment.ofArray(bytes));
+            Thread.onSpinWait(); //Freed by a write that hasn't remapped the key yet
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return handles.containsKey(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V put(K key, V value) {
+        var encoded = this.encode(value);
+        var out = new Object[1];
+        handles.compute(key, (_, block) -> {
+            if (block != null) out[0] = this.release(block);
+            return encoded;
+        });
+        return (V) out[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V remove(Object key) {
+        var out = new Object[1];
+        handles.computeIfPresent((K) key, (_, block) -> {
+            out[0] = this.release(block);
+            return null;
+        });
+        return (V) out[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V putIfAbsent(K key, V value) {
+        var out = new Object[1];
+        handles.compute(key, (_, block) -> {
+            if (block == null) return this.encode(value);
+            out[0] = this.decode(block);
+            return block;
+        });
+        return (V) out[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object key, Object value) {
+        var removed = new boolean[1];
+        handles.computeIfPresent((K) key, (_, block) -> {
+            if (!Objects.equals(this.decode(block), value)) return block;
+            slab.free(block.handle());
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        var encoded = this.encode(newValue);
+        var replaced = new boolean[1];
+        handles.computeIfPresent(key, (_, block) -> {
+            if (!Objects.equals(this.decode(block), oldValue)) return block;
+            slab.free(block.handle());
+            replaced[0] = true;
+            return encoded;
+        });
+        if (!replaced[0]) slab.free(encoded.handle()); //Never published
+        return replaced[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V replace(K key, V value) {
+        var encoded = this.encode(value);
+        var out = new Object[1];
+        handles.computeIfPresent(key, (_, block) -> {
+            out[0] = this.release(block);
+            return encoded;
+        });
+        if (out[0] == null) slab.free(encoded.handle()); //Never published
+        return (V) out[0];
+    }
+
+    //ConcurrentMap's defaults retry a replace until the value they decoded equals the one mapped, which never holds for values without value
+    //equality(byte[]), so merges and computes run as one compute on the key's handle, encoding the new value inside it
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V merge(K key, V value, BiFunction<? super V, ? super V, ? extends @Nullable V> fn) {
+        Objects.requireNonNull(value);
+        var out = new Object[1];
+        handles.compute(key, (_, block) -> {
+            V next = block == null ? value : fn.apply(this.decode(block), value);
+            return this.swap(block, next, out);
+        });
+        return (V) out[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V compute(K key, BiFunction<? super K, ? super @Nullable V, ? extends @Nullable V> fn) {
+        var out = new Object[1];
+        handles.compute(key, (k, block) -> this.swap(block, fn.apply(k, block == null ? null : this.decode(block)), out));
+        return (V) out[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends @Nullable V> fn) {
+        var out = new Object[1];
+        handles.computeIfPresent(key, (k, block) -> this.swap(block, fn.apply(k, this.decode(block)), out));
+        return (V) out[0];
+    }
+
+    @Override
+    public int size() {
+        return handles.size();
+    }
+
+    @Override
+    public void clear() {
+        for (K key : handles.keySet()) this.remove(key);
+    }
+
+    //Weakly consistent like the key set it's built on, values are decoded as entries are visited
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                var keys = handles.keySet().iterator();
+                return new Iterator<>() {
+                    private @Nullable Entry<K, V> next = this.advance();
+
+                    private @Nullable Entry<K, V> advance(){
+                        while (keys.hasNext()) {
+                            K key = keys.next();
+                            V value = OffHeapMap.this.get(key);
+                            if (value != null) return new SimpleImmutableEntry<>(key, value);
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        if (next == null) throw new NoSuchElementException();
+                        var entry = next;
+                        next = this.advance();
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return handles.size();
+            }
+        };
+    }
+
+    //Bytes of encoded values currently held off heap
+    long offHeapBytes(){
+        return slab.allocatedBytes();
+    }
+
+    private Block encode(V value){
+        int size = codec.size(value);
+        long handle = slab.allocate(size);
+        try {
+            codec.encode(value, slab.bytes(handle));
+        } catch (RuntimeException e) {
+            slab.free(handle);
+            throw e;
+        }
+        return new Block(handle, slab.generation(handle));
+    }
+
+    //Must be called inside a compute on the block's key
+    private V decode(Block block){
+        return codec.decode(slab.bytes(block.handle()));
+    }
+
+    //Maps the key to the next value, or removes it if there is none, must be called inside a compute on the key. The new block is encoded before the old
+    //one is freed, so a codec that throws leaves the key as it was
+    private @Nullable Block swap(@Nullable Block block, @Nullable V next, Object[] out){
+        var encoded = next == null ? null : this.encode(next);
+        if (block != null) slab.free(block.handle());
+        out[0] = next;
+        return encoded;
+    }
+
+    //Decodes the block then frees it, must be called inside a compute on the block's key
+    private V release(Block block){
+        V value = this.decode(block);
+        slab.free(block.handle());
+        return value;
+    }
+
+    private record Block(long handle, long generation) {}
+}
@@ -0,0 +1,207 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import org.jspecify.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * A slab allocator over off heap chunks. Blocks are carved out of fixed size chunks in power of two size classes, each block starting with
+ * a header holding its generation and the length of the bytes stored in it. Freed blocks go on a per class free list threaded through the blocks themselves,
+ * so the allocator keeps no per block state on the heap.
+ * Every allocation stamps the block with a generation no other allocation has, and freeing it clears the stamp before the block can be reused.
+ * A reader holding a handle and its generation copies the bytes out without a lock, then checks the stamp is still there, like a seqlock.
+ * Blocks too large for a chunk get a chunk of their own, which is dropped when the block is freed.
+ *
+ * A block is addressed by a handle, the chunk index in the high 32 bits and the block's offset within the chunk in the low 32 bits.
+ * Chunks are allocated from automatic arenas, so the memory is reclaimed once the slab becomes unreachable
+ * */
+final class OffHeapSlab {
+    static final int CHUNK_SIZE = 1 << 20;
+    private static final int LENGTH = Long.BYTES; //The length follows the generation
+    private static final int HEADER = Long.BYTES + Integer.BYTES;
+    private static final long FREED = 0;
+    private static final int MIN_CLASS = 5; //32 byte blocks
+    private static final int MAX_CLASS = 20; //A whole chunk
+    private static final long NIL = -1;
+
+    private final ReentrantLock[] classLocks;
+    private final long[] freeHeads; //Head of each size class's free list, guarded by the class's lock
+    private final ReentrantLock chunkLock;
+    private final ArrayDeque<Integer> freeChunkIndexes; //Indexes of dropped large chunks, guarded by the chunk lock
+    private volatile MemorySegment[] chunks;
+    private int chunkCount; //Guarded by the chunk lock
+    private int bumpChunk = -1; //The chunk new small blocks are carved from, guarded by the chunk lock
+    private int bumpOffset;
+    private final AtomicLong allocatedBytes;
+    private final AtomicLong generations;
+
+    OffHeapSlab() {
+        this.classLocks = new ReentrantLock[MAX_CLASS + 1];
+        this.freeHeads = new long[MAX_CLASS + 1];
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) classLocks[i] = new ReentrantLock();
+        Arrays.fill(freeHeads, NIL);
+        this.chunkLock = new ReentrantLock();
+        this.freeChunkIndexes = new ArrayDeque<>();
+        this.chunks = new MemorySegment[16];
+        this.allocatedBytes = new AtomicLong();
+        this.generations = new AtomicLong(FREED);
+    }
+
+    //Returns a handle to a block able to hold length bytes
+    long allocate(int length){
+        int sizeClass = sizeClass(length);
+        long handle = sizeClass > MAX_CLASS ? this.allocateLarge(length) : this.allocateSmall(sizeClass);
+        var chunk = this.chunk(handle);
+        chunk.set(ValueLayout.JAVA_INT_UNALIGNED, offset(handle) + LENGTH, length);
+        chunk.set(ValueLayout.JAVA_LONG, offset(handle), generations.incrementAndGet());
+        allocatedBytes.addAndGet(length);
+        return handle;
+    }
+
+    //The generation the block was stamped with when it was allocated, only read by the thread that allocated it
+    long generation(long handle){
+        return this.chunk(handle).get(ValueLayout.JAVA_LONG, offset(handle));
+    }
+
+    void free(long handle){
+        var chunk = this.chunk(handle);
+        int length = chunk.get(ValueLayout.JAVA_INT_UNALIGNED, offset(handle) + LENGTH);
+        chunk.set(ValueLayout.JAVA_LONG, offset(handle), FREED);
+        VarHandle.storeStoreFence(); //A reader that sees any write reusing the block sees it freed first
+        allocatedBytes.addAndGet(-length);
+        int sizeClass = sizeClass(length);
+        if (sizeClass > MAX_CLASS) {
+            this.freeLarge(handle);
+            return;
+        }
+
+        var lock = classLocks[sizeClass];
+        lock.lock();
+        try {
+            chunk.set(ValueLayout.JAVA_LONG_UNALIGNED, offset(handle) + HEADER, freeHeads[sizeClass]);
+            freeHeads[sizeClass] = handle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //The bytes stored in the block, only safe to use while the block can't be freed
+    MemorySegment bytes(long handle){
+        var chunk = this.chunk(handle);
+        int offset = offset(handle);
+        return chunk.asSlice(offset + HEADER, chunk.get(ValueLayout.JAVA_INT_UNALIGNED, offset + LENGTH));
+    }
+
+    //Copies the bytes stored in the block without a lock, returns null if the block lost the generation, i.e. it was freed, before the copy was done.
+    //A copy racing a free may read a length or bytes of the block's next use, which the generation check throws away
+    byte @Nullable [] read(long handle, long generation){
+        var chunk = this.chunk(handle);
+        if (chunk == null) return null; //A large block whose chunk was dropped
+        int offset = offset(handle);
+        if (chunk.get(ValueLayout.JAVA_LONG, offset) != generation) return null;
+        VarHandle.acquireFence();
+
+        byte[] bytes;
+        try {
+            bytes = chunk.asSlice(offset + HEADER, chunk.get(ValueLayout.JAVA_INT_UNALIGNED, offset + LENGTH)).toArray(ValueLayout.JAVA_BYTE);
+        } catch (IndexOutOfBoundsException _) {
+            return null;
+        }
+        VarHandle.acquireFence(); //The copy is done before the generation is checked again
+        return chunk.get(ValueLayout.JAVA_LONG, offset) == generation ? bytes : null;
+    }
+
+    //Bytes currently stored, excluding headers and the slack in each block
+    long allocatedBytes(){
+        return allocatedBytes.get();
+    }
+
+    private long allocateSmall(int sizeClass){
+        var lock = classLocks[sizeClass];
+        lock.lock();
+        try {
+            long head = freeHeads[sizeClass];
+            if (head != NIL) {
+                freeHeads[sizeClass] = this.chunk(head).get(ValueLayout.JAVA_LONG_UNALIGNED, offset(head) + HEADER);
+                return head;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        int blockSize = 1 << sizeClass;
+        chunkLock.lock();
+        try {
+            if (bumpChunk < 0 || bumpOffset + blockSize > CHUNK_SIZE) {
+                bumpChunk = this.addChunk(Arena.ofAuto().allocate(CHUNK_SIZE, Long.BYTES));
+                bumpOffset = 0;
+            }
+
+            long handle = handle(bumpChunk, bumpOffset);
+            bumpOffset += blockSize;
+            return handle;
+        } finally {
+            chunkLock.unlock();
+        }
+    }
+
+    private long allocateLarge(int length){
+        var segment = Arena.ofAuto().allocate(HEADER + (long) length, Long.BYTES);
+        chunkLock.lock();
+        try {
+            return handle(this.addChunk(segment), 0);
+        } finally {
+            chunkLock.unlock();
+        }
+    }
+
+    private void freeLarge(long handle){
+        chunkLock.lock();
+        try {
+            int index = (int) (handle >>> 32); //Its generation was cleared by free, so a reader still holding the chunk throws its copy away
+            var copy = chunks.clone();
+            copy[index] = null; //Unreachable now, so its arena frees it
+            chunks = copy;
+            freeChunkIndexes.push(index);
+        } finally {
+            chunkLock.unlock();
+        }
+    }
+
+    //Must be called under the chunk lock. Chunks are published copy on write so readers never need the lock
+    private int addChunk(MemorySegment segment){
+        var copy = chunks;
+        Integer reused = freeChunkIndexes.poll();
+        int index = reused != null ? reused : chunkCount++;
+        if (index >= copy.length) copy = Arrays.copyOf(copy, copy.length << 1);
+        else copy = copy.clone();
+        copy[index] = segment;
+        chunks = copy;
+        return index;
+    }
+
+    private MemorySegment chunk(long handle){
+        return chunks[(int) (handle >>> 32)];
+    }
+
+    private static int offset(long handle){
+        return (int) handle;
+    }
+
+    private static long handle(int chunk, int offset){
+        return ((long) chunk << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    //Free blocks hold the next free handle after their header, so no block is smaller than 32 bytes
+    private static int sizeClass(int length){
+        int blockSize = HEADER + Math.max(length, Long.BYTES);
+        return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(blockSize - 1));
+    }
+}
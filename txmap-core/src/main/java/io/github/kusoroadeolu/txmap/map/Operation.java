@@ -1,9 +1,12 @@
 package io.github.kusoroadeolu.txmap.map;
 
+import java.util.function.BinaryOperator;
+
 import static io.github.kusoroadeolu.txmap.map.Operation.ModifyType.REMOVE;
 
-public sealed interface Operation permits Operation.ModifyOperation, Operation.ContainsKeyOperation, Operation.SizeOperation, Operation.GetOperation {
+public sealed interface Operation permits Operation.ModifyOperation, Operation.ContainsKeyOperation, Operation.SizeOperation, Operation.GetOperation, Operation.MergeOperation {
     ModifyOperation<?> DEFAULT_MODIFY_OP = new ModifyOperation<>(null, REMOVE);
+    MergeOperation<?> DEFAULT_MERGE_OP = new MergeOperation<>(null, null);
 
     record ModifyOperation<E>(E element, ModifyType type) implements Operation{
         public boolean equals(Object object) {
@@ -28,6 +31,25 @@ public sealed interface Operation permits Operation.ModifyOperation, Operation.C
             SIZE
         }
 
+        //A write that commutes with other merges of the key. Every merge is equal like every modify, so lock state is keyed by the kind of op
+        record MergeOperation<V>(V operand, BinaryOperator<V> fn) implements Operation{
+            public boolean equals(Object object) {
+                return object != null && getClass() == object.getClass();
+            }
+
+            @Override
+            public int hashCode() {
+                return MergeOperation.class.hashCode();
+            }
+
+            //The merged value of the key, a null result would read as a removal so it's rejected
+            static <V> V merged(BinaryOperator<V> fn, V current, V operand){
+                var merged = fn.apply(current, operand);
+                if (merged == null) throw new NullPointerException("A merge function returned null");
+                return merged;
+            }
+        }
+
         enum ModifyType{
             PUT, REMOVE
         }
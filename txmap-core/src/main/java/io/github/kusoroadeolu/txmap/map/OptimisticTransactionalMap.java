@@ -1,24 +1,31 @@
 package io.github.kusoroadeolu.txmap.map;
 
-import io.github.kusoroadeolu.ferrous.option.None;
 import io.github.kusoroadeolu.ferrous.option.Option;
 import io.github.kusoroadeolu.ferrous.option.Some;
 import io.github.kusoroadeolu.txmap.*;
 import io.github.kusoroadeolu.txmap.handlers.AbortHandler;
 import io.github.kusoroadeolu.txmap.handlers.CommitHandler;
+import io.github.kusoroadeolu.txmap.map.Operation.MergeOperation;
 import io.github.kusoroadeolu.txmap.map.Operation.ModifyOperation;
 import org.jspecify.annotations.Nullable;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 import static io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType.READ;
 import static io.github.kusoroadeolu.txmap.map.Operation.ContainsKeyOperation.CONTAINS;
+import static io.github.kusoroadeolu.txmap.map.Operation.DEFAULT_MERGE_OP;
 import static io.github.kusoroadeolu.txmap.map.Operation.DEFAULT_MODIFY_OP;
 import static io.github.kusoroadeolu.txmap.map.Operation.GetOperation.GET;
 import static io.github.kusoroadeolu.txmap.map.Operation.ModifyType.PUT;
+import static io.github.kusoroadeolu.txmap.map.Operation.ModifyType.REMOVE;
 import static io.github.kusoroadeolu.txmap.map.Operation.SizeOperation.SIZE;
 import static io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType.WRITE;
 
@@ -31,27 +38,235 @@ import static io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockTy
  * 5. The acquisition of a contains key write lock happens before the potential acquisition of a size lock
  * 6. Write conflicting ops -> Contains key, (depending on the write type and contains key type, size might be conflicting), get
  * 7. The release of read locks held by a transaction(on the same thread) of conflicting happens before the acquisition of the write lock to prevent deadlock issues
+ * 8. The acquisition of every key lock a transaction needs happens before it enters the size tracker, so a lockless size writer never blocks
+ * 9. For durable maps, the append of a transaction's write set to the log happens after it enters the commit gate and before any of its writes are applied
+ * 10. A transaction enters the commit gate before applying any of its writes and exits it after applying all of them, so a checkpoint begins either before or after them
+ * 11. With optimistic reads, a writer's version bumps to odd happen before it applies any write and its bumps back to even happen after it applied all of them
+ * 12. A transaction that runs out of lock wait budget or is picked as a deadlock victim releases its locks and leaves the key lockers before it throws, and never after its write set was logged
+ * 13. Merges of a key only share its locks with other merges, so the application of a merge happens before or after, never during, a read or plain write of the key
+ * 14. A direct op of the auto commit view is applied under the key's bin lock in the key lockers while the key is unpinned, so it happens before or after, never during, any transaction's use of the key
+ * 15. While a checkpoint runs, the record of a key's pre-image happens before a transaction or direct op applies its write of the key
+ * 16. A transaction whose writes fail partway through being applied undoes them, bumps its versions back to even and exits the commit gate before it releases any lock
+ *
+ * Store buffer
+ * Each key a transaction writes gets one write child, which holds the value the key will end up with. Later writes to the key are folded into that child
+ * instead of registering their own, so the key is mutated once at commit no matter how often it's rewritten. Reads of a key this transaction has written
+ * are answered from the buffer and never touch the key's lock state. A size op seals the buffer, since it must observe the writes registered before it
+ * and none after, so a write to a key after a size op starts a new write child
+ *
+ * Merges
+ * A merge registers its own child rather than going through the store buffer, unless the key already has a buffered write it can fold into. A transaction whose
+ * only write is a merge locks the key in MERGE rather than WRITE, without the modify lock, so merges of the key from different transactions hold its locks together
+ * and are applied with the underlying map's atomic merge, while reads and plain writes of the key still exclude them. A merge function that throws or returns null
+ * fails the commit, and the writes the transaction applied before it are undone. A merge applied under a shared lock can't be taken back, other merges may already
+ * have folded into it, so only a transaction with nothing else to apply shares the lock, and a shard of a sharded transaction that touched several shards never
+ * does, since it may be undone after it applied. With optimistic reads or a log, merges lock in WRITE like any write, since a version bump and a logged value both
+ * need the one writer of the key
+ *
+ * Optimistic reads
+ * With optimistic reads, get and containsKey take no locks. They record the version of the key's lock state and are evaluated during validation, once the
+ * transaction holds its write locks, and the transaction aborts if a writer has applied a write to the key since the read was registered. A writer holds
+ * the versions of every key it writes odd from before its first write is applied until after its last, so a reader never validates against half a
+ * transaction, and writers never wait on these readers. Size ops still take the size read lock
+ *
+ * Auto commit view
+ * asConcurrentMap runs every op as its own transaction, but a single key op on a key no transaction has pinned skips the transaction entirely. A key is
+ * pinned before any of its locks is taken and unpinned after its writes are applied, so an unpinned key has no transaction partway through reading or writing it:
+ * 1. A direct read reads the map between two checks that the key is unpinned, and can be ordered after every transaction that wrote the key
+ * 2. A direct write runs while holding off pins of the key, entering the commit gate and, if it may change the size, the size tracker like a lockless writer
+ * Anything else, a pinned key, a registered size reader for a write that changes the size, a durable or striped map, falls back to a one op transaction.
+ * Conditional writes(putIfAbsent, replace...) decide their value from the key's current value once their transaction holds all of the key's write locks
+ *
+ * Checkpoints
+ * A checkpoint closes the commit gate only long enough to install a pre-image table, then streams the live map to the image file while transactions carry on.
+ * Writers record the value a key had before their first write of it, and the checkpoint writes those keys from their pre-images, see PreImages.
+ * A durable map enters the gate before logging, so every logged write set is applied by the time the gate drains, and a checkpoint to the map's own
+ * checkpoint file drops the log records it covers
  * */
-public class OptimisticTransactionalMap<K, V> implements TransactionalMap<K, V> {
+public class OptimisticTransactionalMap<K, V> implements CheckpointableMap<K, V> {
+    private static final int MAX_SPARE_CHILDREN = 1 << 12; //Caps the op slots a recycled transaction keeps after a large transaction
+    private static final Duration DEFAULT_LOCK_WAIT_BUDGET = Duration.ofSeconds(1);
+    private static final Comparator<ChildMapTransaction<?, ?>> PLAN_ORDER = Comparator.<ChildMapTransaction<?, ?>>comparingLong(child -> child.order).thenComparingInt(child -> child.keyIndex);
+    static final Object CONTENDED = new Object(); //Returned by direct ops that must go through a transaction instead
     private final ConcurrentMap<K, V> map;
 
     //Shared state
-    private final KeyToLockers<K> keyToLockers;
+    final LockTable<K> keyToLockers;
     private final GuardedTxSet sizeLockers;
-
-    OptimisticTransactionalMap(ConcurrentMap<K, V> map, KeyToLockers<K> keyToLockers, GuardedTxSet sizeLockers) {
+    private final SizeTracker sizeTracker;
+    private final Option<WriteAheadLog<K, V>> log;
+    private final CommitGate commitGate;
+    private final @Nullable ThreadLocal<MapTransactionImpl<K, V>> recycled; //Set in reuse mode, each thread's recycled transaction
+    private final boolean optimisticReads; //If gets and containsKeys are validated against versions instead of read locked
+    private final long lockWaitNanos; //Each transaction's budget for waiting on locks
+    private final @Nullable WaitForGraph waitForGraph; //Set if deadlocks are detected rather than waited out
+    private final boolean sharedMerges; //If merges of a key lock in MERGE and may be applied concurrently
+    private final ReentrantLock checkpointLock; //One checkpoint at a time, they share the pre-image slot
+    private volatile @Nullable PreImages<K, V> preImages; //Set while a checkpoint runs, only swapped while the commit gate is closed
+
+    OptimisticTransactionalMap(ConcurrentMap<K, V> map, LockTable<K> keyToLockers, GuardedTxSet sizeLockers, Option<WriteAheadLog<K, V>> log, Options options) {
         this.map = map;
         this.keyToLockers = keyToLockers;
         this.sizeLockers = sizeLockers;
+        this.sizeTracker = new SizeTracker(map.size());
+        this.log = log;
+        this.commitGate = new CommitGate();
+        this.recycled = options.reuse() ? ThreadLocal.withInitial(() -> new MapTransactionImpl<>(this)) : null;
+        this.optimisticReads = options.optimisticReads();
+        this.lockWaitNanos = options.lockWaitBudget().toNanos();
+        this.waitForGraph = options.detectDeadlocks() ? new WaitForGraph() : null;
+        this.sharedMerges = !options.optimisticReads() && log.isNone();
+        this.checkpointLock = new ReentrantLock();
+    }
+
+    OptimisticTransactionalMap(ConcurrentMap<K, V> map, LockTable<K> keyToLockers, GuardedTxSet sizeLockers, Option<WriteAheadLog<K, V>> log) {
+        this(map, keyToLockers, sizeLockers, log, Options.DEFAULT);
+    }
+
+    OptimisticTransactionalMap(ConcurrentMap<K, V> map, LockTable<K> keyToLockers, GuardedTxSet sizeLockers) {
+        this(map, keyToLockers, sizeLockers, Option.none());
     }
 
     public OptimisticTransactionalMap(){
         this(new ConcurrentHashMap<>(), new KeyToLockers<>(), new GuardedTxSet());
     }
 
+    //A transaction that waits longer than the budget on locks in total is aborted. With deadlock detection, a transaction waiting on a cycle of
+    //transactions that wait on it is aborted as soon as the cycle is found instead, see HeldLocks
+    public OptimisticTransactionalMap(Duration lockWaitBudget, boolean detectDeadlocks){
+        this(new ConcurrentHashMap<>(), new KeyToLockers<>(), new GuardedTxSet(), Option.none(), new Options(false, false, lockWaitBudget, detectDeadlocks));
+    }
+
+    //Hashes keys onto a fixed number of lock stripes instead of keeping lock state per key, the stripe count must be a power of two
+    public OptimisticTransactionalMap(int lockStripes){
+        this(new ConcurrentHashMap<>(), new StripedKeyToLockers<>(lockStripes), new GuardedTxSet());
+    }
+
+    //Keeps values off heap in slab allocated memory segments, encoded with the codec on commit and decoded when read. Lock state stays on heap
+    public OptimisticTransactionalMap(Codec<V> valueCodec){
+        this(new OffHeapMap<>(valueCodec), new KeyToLockers<>(), new GuardedTxSet());
+    }
+
+    //Logs every committed write set to the file before applying it, and replays the file into the map first if it already exists
+    public OptimisticTransactionalMap(Path logFile, Codec<K> keyCodec, Codec<V> valueCodec, Durability durability){
+        this(WriteAheadLog.open(logFile, null, keyCodec, valueCodec, durability));
+    }
+
+    //Loads the checkpoint file if it exists and replays the log over it, a checkpoint to that file drops the log records it covers
+    public OptimisticTransactionalMap(Path logFile, Path checkpointFile, Codec<K> keyCodec, Codec<V> valueCodec, Durability durability){
+        this(WriteAheadLog.open(logFile, checkpointFile, keyCodec, valueCodec, durability));
+    }
+
+    private OptimisticTransactionalMap(WriteAheadLog<K, V> log){
+        this(log.recovered(), new KeyToLockers<>(), new GuardedTxSet(), Option.some(log));
+    }
+
+    //Recycles transactions and their op slots per thread, see beginTx
+    public static <K, V> OptimisticTransactionalMap<K, V> reusing(){
+        return new OptimisticTransactionalMap<>(new ConcurrentHashMap<>(), new KeyToLockers<>(), new GuardedTxSet(), Option.none(), new Options(true, false, DEFAULT_LOCK_WAIT_BUDGET, false));
+    }
+
+    //Gets and containsKeys take no locks and are validated against key versions at commit, see Optimistic reads
+    public static <K, V> OptimisticTransactionalMap<K, V> withOptimisticReads(){
+        return new OptimisticTransactionalMap<>(new ConcurrentHashMap<>(), new KeyToLockers<>(), new GuardedTxSet(), Option.none(), new Options(false, true, DEFAULT_LOCK_WAIT_BUDGET, false));
+    }
+
+    //Builds a map from an image written by checkpoint
+    public static <K, V> OptimisticTransactionalMap<K, V> fromCheckpoint(Path file, Codec<K> keyCodec, Codec<V> valueCodec){
+        return new OptimisticTransactionalMap<>(CheckpointFile.read(file, keyCodec, valueCodec), new KeyToLockers<>(), new GuardedTxSet());
+    }
+
+    //Commits are only held back while the pre-image table is installed, the map is then streamed to the file while transactions carry on, see Checkpoints
+    @Override
+    public void checkpoint(Path file, Codec<K> keyCodec, Codec<V> valueCodec){
+        checkpointLock.lock();
+        try {
+            var images = new PreImages<K, V>();
+            long logged;
+            commitGate.close();
+            try {
+                preImages = images;
+                logged = log.isSome() ? log.unwrap().position() : 0; //Every write set logged before this point is applied
+            } finally {
+                commitGate.open();
+            }
+
+            try (var writer = CheckpointFile.writer(file, keyCodec, valueCodec)) {
+                for (var entry : map.entrySet()) {
+                    if (!images.recorded(entry.getKey())) writer.append(entry.getKey(), entry.getValue());
+                }
+                images.forEachPresent(writer::append);
+                log.ifSome(WriteAheadLog::force); //The log must cover the image before it replaces the previous one
+                writer.finish();
+            } finally {
+                preImages = null;
+            }
+
+            log.ifSome(l -> {
+                if (l.compactsWith(file)) l.compact(logged);
+            });
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    //Closes the log of a durable map, no transaction may commit afterwards
+    @Override
+    public void close(){
+        log.ifSome(WriteAheadLog::close);
+    }
+
+    @Override
+    public ConcurrentMap<K, V> asConcurrentMap(){
+        return new AutoCommitMap<>(this);
+    }
+
+    //The committed entries, read without locks
+    Map<K, V> committed(){
+        return Collections.unmodifiableMap(map);
+    }
+
+    //Reads the key straight from the map, or returns CONTENDED if a transaction had the key pinned before or after the read
+    @Nullable Object readDirect(K key){
+        if (keyToLockers.isPinned(key)) return CONTENDED;
+        var value = map.get(key);
+        return keyToLockers.isPinned(key) ? CONTENDED : value;
+    }
+
+    //Applies the op straight to the map and returns its result, or returns CONTENDED without applying it. inserts and deletes say if the op may add or remove the key
+    @Nullable Object writeDirect(K key, boolean inserts, boolean deletes, Function<ConcurrentMap<K, V>, @Nullable Object> op){
+        if (log.isSome()) return CONTENDED; //Every write of a durable map is logged by its transaction
+        var result = new Object[]{CONTENDED};
+        keyToLockers.runIfUnpinned(key, () -> {
+            boolean present = map.containsKey(key); //No one else can write the key until this returns
+            boolean changesSize = present ? deletes : inserts;
+            int stripe = sizeTracker.stripe();
+            if (changesSize && !sizeTracker.tryEnterWriter(stripe)) return; //A size reader is registered, it must see this write through the size lock
+            commitGate.enter(stripe);
+            try {
+                var images = preImages;
+                if (images != null) images.record(key, map.get(key));
+                result[0] = op.apply(map);
+            } finally {
+                commitGate.exit(stripe);
+                if (changesSize) {
+                    sizeTracker.add((map.containsKey(key) ? 1 : 0) - (present ? 1 : 0));
+                    sizeTracker.exitWriter(stripe);
+                }
+            }
+        });
+        return result[0];
+    }
+
+    //In reuse mode a thread gets the same transaction back once its previous one has committed or aborted, so a finished transaction and the results it
+    //handed out must not be used after the thread's next beginTx, which recycles them. A thread that begins a transaction while its recycled one is still open gets a fresh one
     @Override
     public MapTransaction<K, V> beginTx(){
-        return new MapTransactionImpl<>(this);
+        if (recycled == null) return new MapTransactionImpl<>(this);
+        var tx = recycled.get();
+        if (tx.open) return new MapTransactionImpl<>(this);
+        tx.begin();
+        return tx;
     }
 
     static class MapTransactionImpl<K, V> implements MapTransaction<K, V> {
@@ -59,78 +274,278 @@ public class OptimisticTransactionalMap<K, V> implements TransactionalMap<K, V>
         final OptimisticTransactionalMap<K, V> txMap;
 
         //Local fields
-        final List<ChildMapTransaction<K, V>> txs;
-        final Set<LockWrapper> heldLocks;
+        final ArrayList<ChildMapTransaction<K, V>> txs;
+        private final List<ChildMapTransaction<K, V>> spare; //Finished children kept for reuse, only filled in reuse mode
+        final HeldLocks heldLocks;
+        final PinnedKeys<K, ChildMapTransaction<K, V>> pinnedKeys; //Keys whose lock state this tx keeps alive in the key lockers, and the store buffer, the latest write child of every key this tx has written
+        final List<FutureValue<?>> bufferedFutures; //Ops answered by the store buffer, completed at commit with the result at the same index
+        final List<Object> bufferedResults;
+        final List<ChildMapTransaction<K, V>> plan; //The write children in lock order, see planWrites
+        private final List<RecycledFuture> futures; //Handed out by this tx, recycled by the next begin. Only filled in reuse mode
+        private final List<RecycledFuture> spareFutures;
+        final List<BulkFutureValue<V>> bulkResults; //Bulk read views, published at commit once every slot is written
+        final Set<GuardedTxSet> versioned; //With optimistic reads, the lock state whose version this tx's writes bump
+        final List<Transaction> participants; //Enlisted transactions, e.g. a joined queue transaction, finished with this tx
+        int sizeEpoch; //Bumped by every size op, writes only fold into a child registered in the current epoch
         TransactionState state;
+        boolean open; //For recycled txs, from begin until the tx has committed or aborted
+
+        //Size tracking
+        final int sizeStripe;
+        boolean sizeReader; //If this tx has registered itself as a size reader
+        boolean changesSize; //If any write op in this tx might change the size, decided during validation
+        boolean sizeWriter; //If this tx entered the size tracker as a lockless writer
+        int delta; //Change in size made by this tx's committed writes so far
+        boolean shardOfMany; //Prepared by a sharded transaction that touched several shards, which may undo this tx once it has applied
         private final AbortHandler abortHandler;
-        private final CommitHandler commitHandler;
+        private final MapTxCommitHandler<K, V> commitHandler;
 
 
         public MapTransactionImpl(OptimisticTransactionalMap<K, V> txMap){
             this.txMap = txMap;
-            this.heldLocks = ConcurrentHashMap.newKeySet(); //In the case where two threads try to remove a iLock from this set
+            this.heldLocks = new HeldLocks(txMap.lockWaitNanos, txMap.waitForGraph);
             this.txs = new ArrayList<>();
+            this.spare = new ArrayList<>();
+            this.pinnedKeys = new PinnedKeys<>();
+            this.bufferedFutures = new ArrayList<>();
+            this.bufferedResults = new ArrayList<>();
+            this.plan = new ArrayList<>();
+            this.futures = new ArrayList<>();
+            this.spareFutures = new ArrayList<>();
+            this.bulkResults = new ArrayList<>();
+            this.versioned = new HashSet<>();
+            this.participants = new ArrayList<>();
+            this.sizeStripe = txMap.sizeTracker.stripe();
             this.state = TransactionState.NONE;
             this.abortHandler = new MapTxAbortHandler<>(this);
             this.commitHandler = new MapTxCommitHandler<>(this);
         }
 
+        //The previous tx's results may be read until now, so this is where they're recycled
+        void begin(){
+            for (var future : futures) {
+                future.recycle();
+                if (spareFutures.size() < MAX_SPARE_CHILDREN) spareFutures.add(future);
+            }
+            futures.clear();
+            this.state = TransactionState.NONE;
+            this.open = true;
+        }
+
+        //A fresh future, or in reuse mode a recycled one
+        @SuppressWarnings("unchecked")
+        <T> FutureValue<T> future(){
+            if (txMap.recycled == null) return new FutureValue<>();
+            var future = spareFutures.isEmpty() ? new RecycledFuture() : spareFutures.removeLast();
+            futures.add(future);
+            return (FutureValue<T>) (FutureValue<?>) future;
+        }
+
+        void buffer(FutureValue<?> future, Object result){
+            bufferedFutures.add(future);
+            bufferedResults.add(result);
+        }
+
+        ChildMapTransaction<K, V> child(Operation op, @Nullable K key, @Nullable FutureValue<?> future){
+            var child = spare.isEmpty() ? new ChildMapTransaction<>(this) : spare.removeLast();
+            child.reset(op, key, future, sizeEpoch);
+            txs.add(child);
+            return child;
+        }
+
         //WRITE OPS
         public FutureValue<Option<V>> put(K key, V value) {
-            var op = new ModifyOperation<>(value, PUT);
-            var future = new FutureValue<Option<V>>();
-            var ctx = new ChildMapTransaction<>(this, op, Option.some(key), future);
-            this.txs.add(ctx);
-            return future;
+            return this.write(key, Option.some(value));
         }
 
         @Override
         public FutureValue<Option<V>> remove(K key) {
-            var future = new FutureValue<Option<V>>();
-            this.txs.add(new ChildMapTransaction<>(this, DEFAULT_MODIFY_OP, Option.some(key), future));
+            return this.write(key, Option.none());
+        }
+
+        FutureValue<Option<V>> write(K key, Option<V> value){
+            FutureValue<Option<V>> future = this.future();
+            this.write(key, value, future, false);
             return future;
         }
 
-        // READ OPS
-        FutureValue<?> registerReadOp(@Nullable K key, Operation op, FutureValue<?> future){
-            var nullable = Option.ofNullable(key);
-            this.acquireReadLock(op, nullable);
-            var ctx = new ChildMapTransaction<>(this, op, nullable, future);
-            this.txs.add(ctx);
-            switch (nullable) {
-                case Some<?> _ -> txMap.keyToLockers.put(key, op, ctx);
-                case None<?> _ -> txMap.sizeLockers.put(ctx);
+        //For sets, completes with whether the write changed the key's membership instead of with the previous value
+        FutureValue<Boolean> writeMember(K key, Option<V> value){
+            FutureValue<Boolean> future = this.future();
+            this.write(key, value, future, true);
+            return future;
+        }
+
+        private void write(K key, Option<V> value, FutureValue<?> future, boolean member){
+            var buffered = pinnedKeys.buffered(key);
+            if (buffered != null && buffered.epoch == sizeEpoch) {
+                //The previous value is this tx's own pending write
+                this.buffer(future, member ? buffered.write.isSome() != value.isSome() : buffered.write);
+                buffered.write = value;
+                return;
+            }
+
+            this.pin(key);
+            var ctx = this.child(DEFAULT_MODIFY_OP, key, future); //The child's write decides whether it's a put or a remove
+            ctx.write = value;
+            if (member) ctx.adds = value.isSome();
+            pinnedKeys.buffer(key, ctx);
+        }
+
+        //A write whose value is decided from the key's current value once the tx holds every write lock of the key, for the auto commit view's conditional ops.
+        //Only ever the single op of its tx, so it never folds into another write and nothing folds into it
+        FutureValue<Option<V>> compute(K key, UnaryOperator<Option<V>> fn){
+            FutureValue<Option<V>> future = this.future();
+            this.pin(key);
+            var ctx = this.child(DEFAULT_MODIFY_OP, key, future);
+            ctx.computer = fn;
+            return future;
+        }
+
+        //Bulk writes still register a write child and a pin per key like put and remove, but report into slots of one view instead of a future each, and size
+        //the child list and pinned key table for every key up front instead of doubling them as the keys come in
+        @Override
+        public BulkFutureValue<V> putAll(Map<K, V> entries){
+            var bulk = new BulkFutureValue<V>(entries.size());
+            this.reserve(entries.size());
+            int i = 0;
+            for (var entry : entries.entrySet()) this.write(entry.getKey(), Option.some(entry.getValue()), bulk, i++);
+            bulkResults.add(bulk);
+            return bulk;
+        }
+
+        @Override
+        public BulkFutureValue<V> removeAll(Collection<K> keys){
+            var bulk = new BulkFutureValue<V>(keys.size());
+            this.reserve(keys.size());
+            int i = 0;
+            for (var key : keys) this.write(key, Option.none(), bulk, i++);
+            bulkResults.add(bulk);
+            return bulk;
+        }
+
+        void reserve(int keys){
+            txs.ensureCapacity(txs.size() + keys);
+            pinnedKeys.reserve(keys);
+        }
+
+        //Writes the key and its previous value into a slot of the bulk view, which the caller completes
+        void write(K key, Option<V> value, BulkFutureValue<V> bulk, int index){
+            var buffered = pinnedKeys.buffered(key);
+            if (buffered != null && buffered.epoch == sizeEpoch) {
+                bulk.set(index, buffered.write.isSome() ? buffered.write.unwrap() : null);
+                buffered.write = value;
+                return;
+            }
+
+            this.pin(key);
+            var ctx = this.child(DEFAULT_MODIFY_OP, key, null);
+            ctx.write = value;
+            ctx.bulk(bulk, index);
+            pinnedKeys.buffer(key, ctx);
+        }
+
+        //Folds into this tx's own pending write of the key if it has one, since that write decides the key's value anyway
+        @Override
+        public FutureValue<V> merge(K key, V value, BinaryOperator<V> fn){
+            FutureValue<V> future = this.future();
+            var buffered = pinnedKeys.buffered(key);
+            if (buffered != null && buffered.epoch == sizeEpoch) {
+                var merged = buffered.write.isSome() ? MergeOperation.merged(fn, buffered.write.unwrap(), value) : value;
+                buffered.write = Option.some(merged);
+                this.buffer(future, merged);
+                return future;
             }
+
+            this.pin(key);
+            var ctx = this.child(DEFAULT_MERGE_OP, key, future);
+            ctx.write = Option.some(value);
+            ctx.merger = fn;
             return future;
         }
 
-        @SuppressWarnings("unchecked")
+        // READ OPS
+        ChildMapTransaction<K, V> registerReadOp(@Nullable K key, Operation op, @Nullable FutureValue<?> future){
+            if (key != null && txMap.optimisticReads) {
+                this.pin(key); //Keeps the lock state, and so its version, alive until this tx finishes
+                var ctx = this.child(op, key, future);
+                ctx.observe(txMap.keyToLockers.getOrCreate(key, op));
+                return ctx;
+            }
+
+            if (key != null) this.pin(key);
+            try {
+                this.acquireReadLock(op, key);
+            } catch (TransactionAbortedException e) { //Ran out of lock wait budget or picked as a deadlock victim
+                this.abort();
+                throw e;
+            }
+            return this.child(op, key, future);
+        }
+
         public FutureValue<V> get(K key) {
-            var future = new FutureValue<V>();
-            return (FutureValue<V>) this.registerReadOp(key, GET, future);
+            FutureValue<V> future = this.future();
+            var buffered = pinnedKeys.buffered(key);
+            if (buffered != null) {
+                this.buffer(future, buffered.write);
+                return future;
+            }
+
+            this.registerReadOp(key, GET, future);
+            return future;
         }
 
-        @SuppressWarnings("unchecked")
         public FutureValue<Boolean> containsKey(K key){
-            var future = new FutureValue<Boolean>();
-            return (FutureValue<Boolean>) this.registerReadOp(key, CONTAINS, future);
+            FutureValue<Boolean> future = this.future();
+            var buffered = pinnedKeys.buffered(key);
+            if (buffered != null) {
+                this.buffer(future, buffered.write.isSome());
+                return future;
+            }
+
+            this.registerReadOp(key, CONTAINS, future);
+            return future;
         }
 
-        @SuppressWarnings("unchecked")
         public FutureValue<Integer> size(){
-            var future = new FutureValue<Integer>();
-            return (FutureValue<Integer>) registerReadOp(null, SIZE, future);
+            FutureValue<Integer> future = this.future();
+            sizeEpoch++;
+            this.registerReadOp(null, SIZE, future);
+            return future;
         }
 
-        void acquireReadLock(Operation op, Option<K> key){
-            switch (key){
-                case Some<K> s -> txMap.keyToLockers.getOrCreate(s.unwrap(), op)
-                        .ifSome(txSet ->
-                                txSet.uniqueAcquireReadLock(heldLocks, op)
-                        );
+        //Keys answered by the store buffer fill their slot now, the rest get a read child that fills its slot at commit
+        @Override
+        public BulkFutureValue<V> getAll(List<K> keys){
+            var bulk = new BulkFutureValue<V>(keys.size());
+            for (int i = 0; i < keys.size(); i++) this.read(keys.get(i), bulk, i);
+            bulkResults.add(bulk);
+            return bulk;
+        }
 
-                case None<K> _ -> txMap.sizeLockers.uniqueAcquireReadLock(heldLocks, op);
-            };
+        //Reads the key into a slot of the bulk view, which the caller completes
+        void read(K key, BulkFutureValue<V> bulk, int index){
+            var buffered = pinnedKeys.buffered(key);
+            if (buffered != null) bulk.set(index, buffered.write.isSome() ? buffered.write.unwrap() : null);
+            else this.registerReadOp(key, GET, null).bulk(bulk, index);
+        }
+
+        //Pins must be taken before any of the key's locks are created, held or waited on
+        void pin(K key){
+            if (pinnedKeys.add(key)) txMap.keyToLockers.pin(key);
+        }
+
+        void acquireReadLock(Operation op, @Nullable K key){
+            if (key != null) {
+                txMap.keyToLockers.getOrCreate(key, op).uniqueAcquireReadLock(heldLocks);
+                return;
+            }
+
+            if (sizeReader) return;
+            sizeReader = true;
+            txMap.sizeTracker.registerReader(sizeStripe); //Writers that enter after this take the size lock
+            txMap.sizeLockers.uniqueAcquireReadLock(heldLocks); //Wait for writers holding the size lock
+            heldLocks.awaitWriters(txMap.sizeTracker); //Then for lockless writers that entered before this, out of the lock wait budget
         }
 
         @Override
@@ -145,9 +560,39 @@ public class OptimisticTransactionalMap<K, V> implements TransactionalMap<K, V>
 
         public void commit() {
             this.commitHandler.validate();
+            this.commitPrepared();
+        }
+
+        //Takes every lock the tx needs to commit, aborting the tx and throwing a TransactionAbortedException if it can't. A sharded transaction prepares
+        //every shard it touched before committing any of them, first every shard's key locks, then every shard's size
+        void prepareKeys(){
+            this.shardOfMany = true;
+            this.commitHandler.lockKeys();
+        }
+
+        void prepareSize(){
+            this.commitHandler.enterSizeTracker();
+        }
+
+        //Applies a prepared tx's writes and releases its locks
+        void commitPrepared(){
             this.commitHandler.commit();
         }
 
+        //A sharded transaction applies every shard before it releases the locks of any, so a shard that fails to apply can be undone with the rest
+        void applyPrepared(){
+            this.commitHandler.apply();
+        }
+
+        void finishPrepared(){
+            this.commitHandler.finish();
+        }
+
+        //Takes back the writes of an applied tx and aborts it
+        void undoApplied(){
+            this.commitHandler.undo();
+        }
+
         @Override
         public boolean isCommitted() {
             return state == TransactionState.COMMITTED;
@@ -157,9 +602,134 @@ public class OptimisticTransactionalMap<K, V> implements TransactionalMap<K, V>
             abortHandler.abort();
         }
 
+        @Override
+        public void enlist(Transaction participant) {
+            participants.add(participant);
+        }
+
+        //Called at the end of validation, once the tx holds every key lock it needs
+        void enterSizeTracker(){
+            if (!changesSize) return;
+
+            if (txMap.sizeTracker.tryEnterWriter(sizeStripe)) {
+                sizeWriter = true;
+                return;
+            }
+
+            //A reader is registered, so wait for it through the size lock, releasing our own read first
+            heldLocks.release(txMap.sizeLockers.lock(), READ);
+            heldLocks.acquire(txMap.sizeLockers.lock(), WRITE);
+        }
+
+        //Sorts the writes and merges by lock order, then by the key's place in pin order, so every key's writes are one run of the plan in registration order
+        //and keys sharing lock state are next to each other,
+        //the sort is stable. Every key is pinned so its lock order is stable until the tx unpins it. The plan is reused, and sorting a plan of fewer than
+        //32 writes doesn't allocate
+        List<ChildMapTransaction<K, V>> planWrites(){
+            plan.clear();
+            for (var child : txs) {
+                if (!child.writes()) continue;
+                child.order = txMap.keyToLockers.lockOrder(child.key);
+                child.keyIndex = pinnedKeys.indexOf(child.key);
+                plan.add(child);
+            }
+            plan.sort(PLAN_ORDER);
+            return plan;
+        }
+
+        //Aborts the tx if the write set can't be logged or encoded, nothing has been applied yet so the abort is clean.
+        //Merges are logged as the value they'll produce, the tx holds the key's write locks so the value can't change before it's applied, and the
+        //merge child applies that value rather than running the function a second time
+        void appendToLog(){
+            if (!(txMap.log instanceof Some<WriteAheadLog<K, V>> s)) return;
+            try {
+                var writes = new ArrayList<Map.Entry<K, Option<V>>>();
+                var pending = new HashMap<K, Option<V>>();
+                for (var child : txs) {
+                    if (!child.writes()) continue;
+                    var value = child.write;
+                    if (child.merger != null) {
+                        var current = pending.containsKey(child.key) ? pending.get(child.key) : Option.ofNullable(txMap.map.get(child.key));
+                        value = Option.some(current.isSome() ? MergeOperation.merged(child.merger, current.unwrap(), child.write.unwrap()) : child.write.unwrap());
+                        child.merged = value.unwrap();
+                    }
+                    pending.put(child.key, value);
+                    writes.add(Map.entry(child.key, value));
+                }
+                if (!writes.isEmpty()) s.unwrap().append(writes);
+            } catch (RuntimeException e) { //An IO failure, or a codec or merge function that threw
+                abortHandler.abort();
+                throw e;
+            }
+        }
+
+        //Applies every child in registration order. A child that throws, i.e. a merge whose function threw or returned null, has every write applied
+        //before it undone before the failure propagates, so the tx aborts with the map as it found it. A merge under a shared lock is always the tx's only write
+        //and a failed merge applies nothing, so there's never one to undo
+        void apply(){
+            int applied = 0;
+            try {
+                for (; applied < txs.size(); applied++) txs.get(applied).commit();
+            } catch (RuntimeException | Error e) {
+                this.undo(applied);
+                throw e;
+            }
+        }
+
+        //Restores the previous value of every applied write, newest first. The tx holds the write locks of these keys so no one else wrote them in between
+        private void undo(int applied){
+            var underlying = txMap.map;
+            for (int i = applied - 1; i >= 0; i--) {
+                var child = txs.get(i);
+                if (!child.writes()) continue;
+                if (child.shared) throw new Error(); //Never undone, see apply
+                if (child.previous != null) {
+                    if (underlying.put(child.key, child.previous) == null) delta++;
+                } else if (underlying.remove(child.key) != null) {
+                    delta--;
+                }
+            }
+        }
+
+        //Called inside the commit gate, before any write is applied
+        void recordPreImages(){
+            var images = txMap.preImages;
+            if (images == null) return;
+            for (var child : txs) {
+                if (child.writes()) images.record(child.key, txMap.map.get(child.key));
+            }
+        }
+
+        void exitSizeTracker(){
+            txMap.sizeTracker.add(delta);
+            if (sizeWriter) txMap.sizeTracker.exitWriter(sizeStripe);
+            sizeWriter = false;
+        }
+
+        //Only called once every lock has been released
         void clearAll(){
+            if (sizeReader) txMap.sizeTracker.deregisterReader(sizeStripe);
+            sizeReader = false;
+            changesSize = false;
+            delta = 0;
+            if (sizeWriter) txMap.sizeTracker.exitWriter(sizeStripe); //Aborted after validation
+            sizeWriter = false;
             heldLocks.clear();
+            if (txMap.recycled != null && spare.size() < MAX_SPARE_CHILDREN) {
+                for (int i = 0; i < txs.size(); i++) spare.add(txs.get(i)); //addAll would copy txs into a fresh array
+            }
             txs.clear();
+            plan.clear();
+            bufferedFutures.clear();
+            bufferedResults.clear();
+            bulkResults.clear();
+            versioned.clear();
+            participants.clear();
+            sizeEpoch = 0;
+            shardOfMany = false;
+            for (int i = 0; i < pinnedKeys.size(); i++) txMap.keyToLockers.unpin(pinnedKeys.key(i));
+            pinnedKeys.clear();
+            open = false;
         }
     }
 
@@ -169,7 +739,8 @@ public class OptimisticTransactionalMap<K, V> implements TransactionalMap<K, V>
         @Override
         public void abort() {
             tx.txs.forEach(ChildMapTransaction::abort);
-            tx.heldLocks.forEach(LockWrapper::unlock);
+            tx.participants.forEach(Transaction::abort);
+            tx.heldLocks.releaseAll();
             tx.state = TransactionState.ABORTED;
             tx.clearAll();
         }
@@ -178,51 +749,259 @@ public class OptimisticTransactionalMap<K, V> implements TransactionalMap<K, V>
     record MapTxCommitHandler<K, V>(MapTransactionImpl<K, V> tx) implements CommitHandler{
         @Override
         public void commit() {
-            tx.txs.forEach(ChildMapTransaction::commit);
-            tx.heldLocks.forEach(LockWrapper::unlock); //Then unlock all locks
-            tx.txs.forEach(cmtx -> {
-                switch (cmtx.operation){
-                    case Operation.SizeOperation _ -> tx.txMap.sizeLockers.remove(cmtx);
-                    default -> {
-                        var op = cmtx.operation;
-                        var key = cmtx.key;
-                        tx.txMap.keyToLockers.getOrCreate(key.unwrap(), op)
-                                .ifSome(s -> s.remove(cmtx));
-                    }
+            this.apply();
+            this.finish();
+        }
+
+        //Applies the tx's writes inside the commit gate. A tx whose apply fails has its writes undone and is aborted
+        void apply() {
+            tx.txMap.commitGate.enter(tx.sizeStripe);
+            try {
+                tx.appendToLog();
+            } catch (RuntimeException e) { //The tx was aborted
+                tx.txMap.commitGate.exit(tx.sizeStripe);
+                throw e;
+            }
+            boolean versions = !tx.versioned.isEmpty(); //Only with optimistic reads, iterating an empty HashSet would still allocate its iterator
+            try {
+                try {
+                    tx.recordPreImages();
+                    if (versions) tx.versioned.forEach(GuardedTxSet::beginWrite);
+                    tx.apply();
+                } finally {
+                    if (versions) tx.versioned.forEach(GuardedTxSet::endWrite);
+                    tx.txMap.commitGate.exit(tx.sizeStripe);
                 }
-            });
+            } catch (RuntimeException | Error e) { //A merge function threw or returned null, the tx's writes were undone
+                tx.exitSizeTracker(); //Hands back the tracker, the undo left no change in size
+                tx.abort();
+                throw e;
+            }
+        }
+
+        //Commits the participants, completes the results and releases every lock
+        void finish() {
+            tx.participants.forEach(Transaction::commit);
+            for (int i = 0; i < tx.bufferedFutures.size(); i++) tx.bufferedFutures.get(i).complete(tx.bufferedResults.get(i));
+            tx.bulkResults.forEach(BulkFutureValue::complete);
+            tx.exitSizeTracker();
+            tx.heldLocks.releaseAll(); //Then unlock all locks
             tx.clearAll();
             tx.state = TransactionState.COMMITTED;
         }
 
+        //Undoes every write of an applied tx, which still holds its locks, and aborts it. Only shards of a sharded map are undone once applied, and they never log
+        void undo() {
+            boolean versions = !tx.versioned.isEmpty();
+            tx.txMap.commitGate.enter(tx.sizeStripe);
+            try {
+                if (versions) tx.versioned.forEach(GuardedTxSet::beginWrite);
+                tx.undo(tx.txs.size());
+            } finally {
+                if (versions) tx.versioned.forEach(GuardedTxSet::endWrite);
+                tx.txMap.commitGate.exit(tx.sizeStripe);
+            }
+            tx.exitSizeTracker();
+            tx.abort();
+        }
 
-
+        //The write set is planned once, then every key's locks are taken in one pass in lock order, MODIFY then GET then CONTAINS per key.
+        //The size lock is never part of the plan, a tx that changes the size enters the size tracker last, once it holds every key lock.
+        //A lock wait that runs out of budget or is picked as a deadlock victim aborts the tx before any of its writes are logged or applied
         public void validate() {
+            this.lockKeys();
+            this.enterSizeTracker();
+        }
+
+        //Takes every key lock the write set needs and evaluates the optimistic reads
+        void lockKeys() {
+            try {
+                var plan = tx.planWrites();
+                //A shared merge can't be undone, so only a lone merge that nothing else in this tx or its sharded transaction could fail after shares the lock
+                boolean shareMerges = tx.txMap.sharedMerges && plan.size() == 1 && !tx.shardOfMany;
+                for (int from = 0, end; from < plan.size(); from = end) {
+                    //Keys with the same lock order share lock state(a stripe), and a lock is held in one mode, so they all lock in WRITE unless every write to them is a merge
+                    boolean onlyMerges = true;
+                    for (end = from; end < plan.size() && plan.get(end).order == plan.get(from).order; end++) onlyMerges &= plan.get(end).merger != null;
+                    var mode = onlyMerges && shareMerges ? LockType.MERGE : WRITE;
+
+                    for (int run = from, to; run < end; run = to) {
+                        for (to = run; to < end && plan.get(to).keyIndex == plan.get(run).keyIndex; to++) plan.get(to).shared = mode == LockType.MERGE;
+                        var key = plan.get(run).key;
+                        if (!onlyMerges) tx.heldLocks.acquire(tx.txMap.keyToLockers.getOrCreate(key, DEFAULT_MODIFY_OP).lock(), WRITE);
+                        this.lockForWrite(key, plan, run, to, mode);
+                    }
+                }
+            } catch (TransactionAbortedException e) {
+                tx.abort();
+                throw e;
+            }
+
+            //Optimistic reads are evaluated before any write is applied, so a stale read aborts the tx cleanly.
+            //Every version is checked again once all reads are done, so the reads were all current at one point rather than each at its own
+            boolean valid = true;
+            for (var child : tx.txs) {
+                if (child.readSet != null) valid = valid && child.evaluate();
+            }
+            for (var child : tx.txs) {
+                if (child.readSet != null) valid = valid && child.readSet.version() == child.seenVersion;
+            }
+
+            if (!valid) {
+                tx.abort();
+                throw new TransactionAbortedException("A key read by this transaction was written by another transaction");
+            }
+        }
+
+        //Only once every key lock is held, a sharded transaction's other shards included, so a lockless writer inside the size tracker never waits on a lock
+        void enterSizeTracker() {
+            try {
+                tx.enterSizeTracker();
+            } catch (TransactionAbortedException e) {
+                tx.abort();
+                throw e;
+            }
+
             tx.txs.forEach(ChildMapTransaction::validate);
             tx.state = TransactionState.VALIDATED;
         }
+
+        //Locks the key for its run of the plan. Merges lock in MERGE and count as puts, a merge into a missing key inserts it
+        void lockForWrite(K key, List<ChildMapTransaction<K, V>> plan, int from, int to, LockType mode){
+            var txMap = tx.txMap;
+            //Take the get lock first
+            var getSet = txMap.keyToLockers.getOrCreate(key, GET);
+            this.releaseReadLockIfHeld(getSet);
+            this.holdWriteLockForReadType(getSet, mode);
+
+            //Ensure we only lock once, since a tx is basically only on a single thread, we cant really get deadlocks, but we want to ensure we release all locks
+            //Then we want to grab to writeLocks for the contains operation, we want to check if the underlying map contains the key, so we can grab the size lock as well
+            //Then lock the write lock to prevent a situation where we cant use the write lock cuz we have the read iLock
+            var containsSet = txMap.keyToLockers.getOrCreate(key, CONTAINS);
+            this.releaseReadLockIfHeld(containsSet);
+
+            //Now that we have the iLock for contains key , we can check the underlying map to see if this write changes the size
+            boolean heldByThisTx = this.holdWriteLockForReadType(containsSet, mode); //Check if this transaction held this lock, otherwise a previous transaction couldve held this lock
+            for (int i = from; i < to; i++) { //Every write lock of the key is held, so its value can't change before the write is applied
+                var write = plan.get(i);
+                if (write.computer != null) write.write = write.computer.apply(Option.ofNullable(txMap.map.get(key)));
+            }
+            boolean containsKey = txMap.map.containsKey(key);
+
+            //Size changes aren't locked here, the tx enters the size tracker at commit once it holds every key lock it needs
+            //Any write that flips the key's presence changes the size
+            boolean flipsPresence = false;
+            for (int i = from; i < to; i++) {
+                var type = plan.get(i).write.isSome() ? PUT : REMOVE;
+                switch (type){
+                    case PUT -> flipsPresence |= !containsKey;
+                    case REMOVE -> flipsPresence |= containsKey;
+                    default -> throw new Error();// Should never happen
+                }
+            }
+
+            if (txMap.optimisticReads) {
+                tx.versioned.add(getSet);
+                if (flipsPresence) tx.versioned.add(containsSet); //Contains only changes if a write flips the key's presence
+            }
+
+            if (flipsPresence) {
+                tx.changesSize = true;
+            } else if (heldByThisTx) { //Contains key answers the same either way, hence we dont need this lock
+                tx.heldLocks.release(containsSet.lock(), mode);
+            }
+        }
+
+        boolean holdWriteLockForReadType(GuardedTxSet txSet, LockType mode){
+            return tx.heldLocks.acquire(txSet.lock(), mode);
+        }
+
+        void releaseReadLockIfHeld(GuardedTxSet txSet){
+            tx.heldLocks.release(txSet.lock(), READ);
+        }
     }
 
+    //An op slot, its parent and handlers are fixed and everything else is reset when the parent reuses it for another op
     static class ChildMapTransaction<K, V> implements Transaction {
         private final MapTransactionImpl<K, V> parent;
-        final Option<K> key;
-        final Operation operation;
+        @Nullable K key; //Null for size ops
+        Operation operation;
         TransactionState state;
         private final CommitHandler commitHandler;
         private final AbortHandler abortHandler;
-        private final FutureValue<?> future;
-
-        public ChildMapTransaction(MapTransactionImpl<K, V> parent, Operation operation, Option<K> key, FutureValue<?> future) {
-            this.operation = operation;
+        private @Nullable FutureValue<?> future; //Null for slots of a bulk op
+        private @Nullable BulkFutureValue<?> bulk;
+        private int bulkIndex;
+        Option<V> write; //For write children, the value the key ends up with once every write folded into this child is applied. For merges, the merged value
+        @Nullable BinaryOperator<V> merger; //Set for merges
+        @Nullable V merged; //For merges of a logged map, the value the log recorded
+        @Nullable Boolean adds; //Set for set writes, whether the first write folded into this child adds the key
+        @Nullable UnaryOperator<Option<V>> computer; //Set for computed writes, decides the write from the key's current value
+        int epoch; //The parent's size epoch when this child was registered
+        boolean shared; //For merges, if the key is locked in MERGE and other transactions' merges may be applied alongside this one
+        @Nullable V previous; //For write children, the key's value before this child was applied, so a failed commit can undo it
+        long order; //For write children, the key's lock order and its place in the parent's pin order, set when the parent plans its writes
+        int keyIndex;
+
+        //Optimistic reads only
+        @Nullable GuardedTxSet readSet; //The lock state whose version this read validates against
+        long seenVersion;
+        private @Nullable V readValue;
+        private boolean readContains;
+
+        public ChildMapTransaction(MapTransactionImpl<K, V> parent) {
             this.parent = parent;
-            this.state = TransactionState.NONE;
             this.commitHandler = new ChildTxCommitHandler<>(this);
             this.abortHandler = new ChildTxAbortHandler<>(this);
+        }
+
+        void reset(Operation operation, @Nullable K key, @Nullable FutureValue<?> future, int epoch){
+            this.operation = operation;
             this.key = key;
             this.future = future;
+            this.bulk = null;
+            this.readSet = null;
+            this.readValue = null;
+            this.epoch = epoch;
+            this.state = TransactionState.NONE;
+            this.write = Option.none();
+            this.merger = null;
+            this.merged = null;
+            this.adds = null;
+            this.computer = null;
+            this.shared = false;
+            this.previous = null;
+        }
+
+        boolean writes(){
+            return operation instanceof ModifyOperation<?> || operation instanceof MergeOperation<?>;
         }
 
 
+        void observe(GuardedTxSet readSet){
+            this.readSet = readSet;
+            this.seenVersion = readSet.stableVersion();
+        }
+
+        //Reads the key without locks, the read only counts if no write to the key was applied since the op was registered or while reading
+        boolean evaluate(){
+            var set = Objects.requireNonNull(readSet);
+            if (set.stableVersion() != seenVersion) return false;
+            var underlying = parent.txMap.map;
+            switch (operation) {
+                case Operation.GetOperation _ -> readValue = underlying.get(key);
+                case Operation.ContainsKeyOperation _ -> readContains = underlying.containsKey(key);
+                default -> throw new Error(); //Only gets and containsKeys are optimistic
+            }
+            return set.version() == seenVersion;
+        }
+
+        //Results go to a slot of the bulk view rather than a future
+        void bulk(BulkFutureValue<?> bulk, int index){
+            this.bulk = bulk;
+            this.bulkIndex = index;
+        }
+
         public Option<Transaction> parent() {
             return Option.some(parent);
         }
@@ -248,42 +1027,66 @@ public class OptimisticTransactionalMap<K, V> implements TransactionalMap<K, V>
 
 
     record ChildTxCommitHandler<K, V>(ChildMapTransaction<K, V> cmtx) implements CommitHandler {
-        @SuppressWarnings("unchecked")
         public void commit() {
             var op = cmtx.operation;
             var underlying = cmtx.parent.txMap.map;
-            var keyOption = cmtx.key;
-            Option<V> prevOpt;
+            var key = cmtx.key;
             switch (op) {
-                case ModifyOperation<?> mo -> {
-                    var key = keyOption.unwrap();
-                    if (mo.type() == PUT){
-                        V v = (V) mo.element();
-                        V prev = underlying.put(key, v);
-                        prevOpt = Option.ofNullable(prev);
+                case ModifyOperation<?> _ -> {
+                    V prev;
+                    if (cmtx.write.isSome()){
+                        prev = underlying.put(key, cmtx.write.unwrap());
+                        if (prev == null) cmtx.parent.delta++;
                     }else{
-                        prevOpt = Option.ofNullable(underlying.remove(key));
+                        prev = underlying.remove(key);
+                        if (prev != null) cmtx.parent.delta--;
                     }
+                    cmtx.previous = prev;
+                    cmtx.state = TransactionState.COMMITTED;
+                    if (cmtx.bulk != null) cmtx.bulk.set(cmtx.bulkIndex, prev);
+                    else if (cmtx.adds != null) cmtx.future.complete(cmtx.adds == (prev == null)); //An add changes membership if the key was missing, a remove if it wasn't
+                    else cmtx.future.complete(Option.ofNullable(prev));
+                }
+
+
+                //Merges of a key only exclude reads and plain writes of it, so a concurrent merge may insert the key first, but nothing can remove it
+                //before this merge is applied
+                case MergeOperation<?> _ when cmtx.merged != null -> { //Logged, so the tx holds the key's write locks
+                    V prev = underlying.put(key, cmtx.merged);
+                    if (prev == null) cmtx.parent.delta++;
+                    cmtx.previous = prev;
                     cmtx.state = TransactionState.COMMITTED;
-                    cmtx.future.complete(prevOpt);
+                    cmtx.future.complete(cmtx.merged);
                 }
 
+                case MergeOperation<?> _ -> {
+                    var operand = cmtx.write.unwrap();
+                    var merger = Objects.requireNonNull(cmtx.merger);
+                    V prev = underlying.putIfAbsent(key, operand);
+                    //A null result would remove the key behind the size tracker's back, the function throws inside merge so the key is left as it was
+                    V merged = prev == null ? operand : underlying.merge(key, operand, (current, given) -> MergeOperation.merged(merger, current, given));
+                    if (prev == null) cmtx.parent.delta++;
+                    cmtx.previous = prev;
+                    cmtx.state = TransactionState.COMMITTED;
+                    cmtx.future.complete(merged);
+                }
 
                 case Operation.GetOperation _ -> {
-                    var v = underlying.get(keyOption.unwrap());
-                    Option<V> opt = Option.ofNullable(v);
+                    var v = cmtx.readSet != null ? cmtx.readValue : underlying.get(key);
                     cmtx.state = TransactionState.COMMITTED;
-                    cmtx.future.complete(opt);
+                    if (cmtx.bulk != null) cmtx.bulk.set(cmtx.bulkIndex, v);
+                    else cmtx.future.complete(Option.ofNullable(v));
                 }
 
                 case Operation.ContainsKeyOperation _ -> {
-                    boolean contains = underlying.containsKey(keyOption.unwrap());
+                    boolean contains = cmtx.readSet != null ? cmtx.readContains : underlying.containsKey(key);
                     cmtx.state = TransactionState.COMMITTED;
                     cmtx.future.complete(contains);
                 }
 
                 case Operation.SizeOperation _ -> {
-                    int size = underlying.size();
+                    var parent = cmtx.parent;
+                    int size = (int) (parent.txMap.sizeTracker.sum() + parent.delta); //Includes this tx's writes that committed before this op
                     cmtx.state = TransactionState.COMMITTED;
                     cmtx.future.complete(size);
                 }
@@ -292,175 +1095,33 @@ public class OptimisticTransactionalMap<K, V> implements TransactionalMap<K, V>
         }
 
         public void validate(){
-            this.validateOps(cmtx.operation);
-        }
-
-        public void orderThenAcquireKeys(Operation op){
-            var tx = cmtx.parent;
-            tx.txs.stream()
-                    .filter(c -> c.operation instanceof Operation.ModifyOperation<?>)
-                    .map(c -> c.key.unwrap())
-                    .distinct()
-                    .sorted(Comparator.comparingInt(System::identityHashCode))
-                    .forEach(
-                            key -> tx.txMap.keyToLockers.getOrCreate(key, op)
-                                    .map(GuardedTxSet::writeLock)
-                                    .map(lock -> new LockWrapper(LockType.WRITE,  DEFAULT_MODIFY_OP, lock))
-                                    .filter(tx.heldLocks::add)
-                                    .ifSome(LockWrapper::lock)
-                    );
-        }
-
-        void validateOps(Operation op){
-            var txMap = cmtx.parent.txMap;
-            var key = cmtx.key; //Write ops always have a key so this is safe
-            switch (op){
-                case ModifyOperation<?> mo -> {
-                    this.orderThenAcquireKeys(mo);
-                    this.handleWriteOps(txMap, key.unwrap(), mo);
-                    cmtx.state = TransactionState.VALIDATED;
-                }
-
-                //For read ops
-                default -> cmtx.state = TransactionState.VALIDATED;
-            }
+            cmtx.state = TransactionState.VALIDATED; //Locks are taken by the parent's commit plan
         }
-
-
-        void handleWriteOps(OptimisticTransactionalMap<K, V> txMap, K key, ModifyOperation<?> op){
-            var heldLocks = cmtx.parent.heldLocks;
-            //Take the get lock first
-            var getSet = txMap.keyToLockers.getOrCreate(key, GET);
-            this.releaseReadLockIfHeld(getSet, GET);
-            this.holdWriteLockForReadType(getSet, heldLocks, GET);
-
-            //Ensure we only lock once, since a tx is basically only on a single thread, we cant really get deadlocks, but we want to ensure we release all locks
-            //Then we want to grab to writeLocks for the contains operation, we want to check if the underlying map contains the key, so we can grab the size lock as well
-            //Then lock the write lock to prevent a situation where we cant use the write lock cuz we have the read iLock
-            var containsSet = txMap.keyToLockers.getOrCreate(key, CONTAINS);
-            this.releaseReadLockIfHeld(containsSet, CONTAINS);
-
-            //Now that we have the iLock for contains key , we can check the underlying map to see if we should obtain the size iLock too
-            boolean heldByThisTx = this.holdWriteLockForReadType(containsSet, heldLocks, CONTAINS); //Check if this transaction held this lock, otherwise a previous transaction couldve held this lock
-            boolean containsKey = txMap.map.containsKey(key);
-            
-
-            var sizeSet = txMap.sizeLockers;
-            switch (op.type()){
-                case PUT -> {
-                    if (!containsKey){
-                        var optionSizeSet = Option.some(sizeSet);
-                        this.releaseReadLockIfHeld(optionSizeSet , SIZE);
-                        this.holdWriteLockForReadType(optionSizeSet, heldLocks, SIZE);
-
-                    }else {
-                       if(heldByThisTx) this.findExistingWriteLock(CONTAINS).ifPresent(lw -> {
-                           if(heldLocks.remove(lw)) lw.unlock();
-                       }); //If "contains key is already present, then it will return true always, hence we dont need this lock,"
-                    }
-                }
-
-                case REMOVE -> {
-                    if (containsKey){
-                        var optionSizeSet = Option.some(sizeSet);
-                        this.releaseReadLockIfHeld(optionSizeSet, SIZE);
-                        this.holdWriteLockForReadType(optionSizeSet, heldLocks, SIZE);
-
-                    }else {
-                        if(heldByThisTx) this.findExistingWriteLock(CONTAINS).ifPresent(lw -> {
-                            if(heldLocks.remove(lw)) lw.unlock();
-                        });
-                    }
-                }
-
-                default -> throw new Error();// Should never happen
-            }
-        }
-
-        boolean holdWriteLockForReadType(Option<GuardedTxSet> txSet, Set<LockWrapper> set, Operation op){
-            return txSet.map(GuardedTxSet::writeLock)
-                    .map(lock -> new LockWrapper(LockType.WRITE, op, lock))
-                    .map(lw -> {
-                        if (set.add(lw)) {
-                            lw.lock();
-                            return true;
-                        }
-                        
-                        return false;
-                    }).unwrap();
-        }
-
-        void releaseReadLockIfHeld(Option<GuardedTxSet> txSet, Operation op){
-            txSet.map(_ -> {
-                this.findExistingReadLock(op).ifPresent(lw -> {
-                    lw.unlock();
-                    cmtx.parent.heldLocks.remove(lw);
-                });
-                return Option.none();
-            });
-        }
-
-        Optional<LockWrapper> findExistingReadLock(Operation op){
-            var glw = new LockWrapper(READ, op, null);
-            return cmtx.parent.heldLocks
-                    .stream()
-                    .filter(lw -> lw.equals(glw))
-                    .findFirst();
-        }
-
-        Optional<LockWrapper> findExistingWriteLock(Operation op){
-            var glw = new LockWrapper(WRITE, op, null);
-            return cmtx.parent.heldLocks
-                    .stream()
-                    .filter(lw -> lw.equals(glw))
-                    .findFirst();
-        }
-
     }
     record ChildTxAbortHandler<K, V>(ChildMapTransaction<K, V> cmtx) implements AbortHandler {
         public void abort(){
-            var txMap = cmtx.parent.txMap;
-            cmtx.state = TransactionState.ABORTED;
-            switch (cmtx.operation){
-                case Operation.SizeOperation _ -> txMap.sizeLockers.remove(cmtx);
-                default -> {
-                    var op = cmtx.operation;
-                    var key = cmtx.key;
-                    txMap.keyToLockers.getOrCreate(key.unwrap(), op)
-                            .ifSome(s -> s.remove(cmtx));
-                }
-            }
-
+            cmtx.state = TransactionState.ABORTED; //Its locks are released by the parent
         }
     }
 
-    record LockWrapper(LockType type, Operation op ,Lock iLock){ // I want this to be lock agnostic
-
-        @Override
-        public boolean equals(Object object) {
-            if (object == null || getClass() != object.getClass()) return false;
-
-            LockWrapper that = (LockWrapper) object;
-            return op.equals(that.op) && type == that.type;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(type, op);
-        }
+    //How a map's transactions lock, read and are recycled
+    record Options(boolean reuse, boolean optimisticReads, Duration lockWaitBudget, boolean detectDeadlocks) {
+        static final Options DEFAULT = new Options(false, false, DEFAULT_LOCK_WAIT_BUDGET, false);
 
-        public void lock(){
-            iLock.lock();
+        Options {
+            if (lockWaitBudget.isNegative()) throw new IllegalArgumentException("Lock wait budget must not be negative");
         }
+    }
 
-        public void unlock(){
-            iLock.unlock();
+    //A result slot a recycled transaction hands out again, see beginTx
+    static final class RecycledFuture extends FutureValue<Object> {
+        void recycle(){
+            this.reset();
         }
-
     }
 
-    public enum LockType{ //If the lock is a read or write lock
-        READ, WRITE
+    public enum LockType{ //The mode a semantic lock is held in
+        READ, WRITE, MERGE
     }
 }
 
@@ -0,0 +1,76 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.*;
+import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.MapTransactionImpl;
+
+/*
+ * An optimistic transactional map whose keys are the members, run through the map's own transactions so it has the same locks and conflict rules:
+ * 1. contains read locks the element's contains lock, which only writes that flip the element's membership hold
+ * 2. add and remove are write children of the element, folded in the store buffer like puts and removes
+ * 3. size read locks the size, which only membership changes enter
+ * Members are kept in a MemberTable, which stores the member alone with no value slot or entry node, and hands the map the one shared TRUE for every member.
+ * Adds allocate no value, and adds and removes complete with whether they changed membership rather than an Option of the previous value
+ * */
+public class OptimisticTransactionalSet<E> implements TransactionalSet<E> {
+    private static final Option<Boolean> MEMBER = Option.some(Boolean.TRUE);
+    private static final Option<Boolean> NON_MEMBER = Option.none();
+
+    private final OptimisticTransactionalMap<E, Boolean> txMap;
+
+    public OptimisticTransactionalSet() {
+        this.txMap = new OptimisticTransactionalMap<>(new MemberTable<>(), new KeyToLockers<>(), new GuardedTxSet());
+    }
+
+    @Override
+    public SetTransaction<E> beginTx() {
+        return new SetTransactionImpl<>(new MapTransactionImpl<>(txMap));
+    }
+
+    record SetTransactionImpl<E>(MapTransactionImpl<E, Boolean> tx) implements SetTransaction<E> {
+        @Override
+        public FutureValue<Boolean> add(E element) {
+            return tx.writeMember(element, MEMBER);
+        }
+
+        @Override
+        public FutureValue<Boolean> remove(E element) {
+            return tx.writeMember(element, NON_MEMBER);
+        }
+
+        @Override
+        public FutureValue<Boolean> contains(E element) {
+            return tx.containsKey(element);
+        }
+
+        @Override
+        public FutureValue<Integer> size() {
+            return tx.size();
+        }
+
+        @Override
+        public void commit() {
+            tx.commit();
+        }
+
+        @Override
+        public void abort() {
+            tx.abort();
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return tx.isCommitted();
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return Option.none();
+        }
+
+        @Override
+        public TransactionState state() {
+            return tx.state();
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.*;
+import io.github.kusoroadeolu.txmap.map.Operation.MergeOperation;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+/*
+ * A strict two phase locking map. Every op takes its semantic lock the moment it's registered and holds it until commit or abort:
+ * 1. get and containsKey take the key's read lock
+ * 2. put, remove and merge take the key's write lock, and the size write lock too if they add or remove the key
+ * 3. size takes the size read lock
+ * Ops are evaluated against the map and this tx's own buffered writes as they're registered, commit only applies the buffer and releases the locks.
+ * Conflicts are found when they happen instead of during a validation pass at commit, so long transactions over a few hot keys block early rather than fail late.
+ * This map promises SERIALIZABLE isolation, the locks a transaction holds keep everything it observed unchanged until it commits
+ *
+ * Locks are taken in registration order, so deadlocks are possible. Every acquisition is bounded by the lock timeout, a transaction that times out
+ * releases everything it holds and fails with a TransactionAbortedException, which breaks the cycle.
+ * StampedLocks aren't reentrant or owned by a thread, so two transactions on the same thread still exclude each other
+ *
+ * A read lock held by this tx is upgraded in place when no other reader holds it, otherwise it's released and the write lock is waited for.
+ * In the latter case the value observed under the read lock is checked again once the write lock is held, and the tx aborts if it changed
+ *
+ * Happens before guarantees
+ * 1. The acquisition of a key's lock happens before the evaluation of any op on that key
+ * 2. The application of buffered writes happens before the release of any lock
+ * 3. The release of a key's locks happens before the key is unpinned
+ * */
+public class PessimisticTransactionalMap<K, V> implements TransactionalMap<K, V> {
+    private static final Duration DEFAULT_LOCK_TIMEOUT = Duration.ofMillis(100);
+
+    private final ConcurrentMap<K, V> map;
+    private final ConcurrentHashMap<K, KeyLock> keyLocks;
+    private final StampedLock sizeLock;
+    private final long lockTimeoutNanos;
+
+    public PessimisticTransactionalMap() {
+        this(DEFAULT_LOCK_TIMEOUT);
+    }
+
+    //The longest an op waits on a lock before its transaction is aborted
+    public PessimisticTransactionalMap(Duration lockTimeout) {
+        if (lockTimeout.isNegative()) throw new IllegalArgumentException("Lock timeout must not be negative");
+        this.map = new ConcurrentHashMap<>();
+        this.keyLocks = new ConcurrentHashMap<>();
+        this.sizeLock = new StampedLock();
+        this.lockTimeoutNanos = lockTimeout.toNanos();
+    }
+
+    @Override
+    public MapTransaction<K, V> beginTx() {
+        return new PessimisticTransaction<>(this);
+    }
+
+    //Every op is a one op transaction, which takes and releases the key's locks like any other
+    @Override
+    public ConcurrentMap<K, V> asConcurrentMap(){
+        return new TransactionPerOpMap<>(this, () -> Collections.unmodifiableMap(map));
+    }
+
+    //Number of keys with live lock state
+    int lockedKeys(){
+        return keyLocks.size();
+    }
+
+    private KeyLock pin(K key){
+        return keyLocks.compute(key, (_, keyLock) -> {
+            if (keyLock == null) keyLock = new KeyLock();
+            keyLock.pins++;
+            return keyLock;
+        });
+    }
+
+    private void unpin(K key){
+        keyLocks.computeIfPresent(key, (_, keyLock) -> --keyLock.pins == 0 ? null : keyLock);
+    }
+
+    static final class PessimisticTransaction<K, V> implements MapTransaction<K, V>, ComputingTransaction<K, V> {
+        private final PessimisticTransactionalMap<K, V> txMap;
+        private final Map<K, Held> held; //Keys this tx has pinned and locked
+        private final LinkedHashMap<K, Option<V>> writes; //Buffered writes, applied in order at commit
+        private final List<FutureValue<?>> futures;
+        private final List<Object> results;
+        private final List<Transaction> participants; //Committed once the writes are applied, before the locks are released
+        private long sizeStamp; //Zero if the size lock isn't held
+        private boolean sizeWrite;
+        private int observedSize;
+        private int delta;
+        TransactionState state;
+
+        PessimisticTransaction(PessimisticTransactionalMap<K, V> txMap) {
+            this.txMap = txMap;
+            this.held = new HashMap<>();
+            this.writes = new LinkedHashMap<>();
+            this.futures = new ArrayList<>();
+            this.results = new ArrayList<>();
+            this.participants = new ArrayList<>();
+            this.state = TransactionState.NONE;
+        }
+
+        @Override
+        public FutureValue<Option<V>> put(K key, V value) {
+            return this.write(key, Option.some(value));
+        }
+
+        @Override
+        public FutureValue<Option<V>> remove(K key) {
+            return this.write(key, Option.none());
+        }
+
+        //Decided under the key's write lock, so no other transaction writes the key until this one commits
+        @Override
+        public FutureValue<Option<V>> compute(K key, UnaryOperator<Option<V>> fn) {
+            this.ensureActive();
+            this.lockWrite(key);
+            var prev = this.current(key);
+            this.buffer(key, prev, fn.apply(prev));
+            return this.record(prev, new FutureValue<>());
+        }
+
+        //Evaluated under the key's write lock like a put of the merged value, so merges of a key wait on each other
+        @Override
+        public FutureValue<V> merge(K key, V value, BinaryOperator<V> fn) {
+            Objects.requireNonNull(value, "Null values aren't supported");
+            Objects.requireNonNull(fn);
+            this.ensureActive();
+            this.lockWrite(key);
+            var prev = this.current(key);
+            var merged = prev.isSome() ? MergeOperation.merged(fn, prev.unwrap(), value) : value;
+            this.buffer(key, prev, Option.some(merged));
+            return this.record(merged, new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<V> get(K key) {
+            this.ensureActive();
+            this.lockRead(key);
+            return this.record(this.current(key), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Boolean> containsKey(K key) {
+            this.ensureActive();
+            this.lockRead(key);
+            return this.record(this.current(key).isSome(), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Integer> size() {
+            this.ensureActive();
+            if (sizeStamp == 0) {
+                sizeStamp = this.acquire(txMap.sizeLock, false);
+                observedSize = txMap.map.size();
+            }
+
+            return this.record(txMap.map.size() + delta, new FutureValue<>());
+        }
+
+        private FutureValue<Option<V>> write(K key, Option<V> next){
+            this.ensureActive();
+            this.lockWrite(key);
+            var prev = this.current(key);
+            this.buffer(key, prev, next);
+            return this.record(prev, new FutureValue<>());
+        }
+
+        //The key's write lock must be held
+        private void buffer(K key, Option<V> prev, Option<V> next){
+            if (prev.isSome() != next.isSome()) {
+                this.lockSizeWrite();
+                delta += next.isSome() ? 1 : -1;
+            }
+
+            writes.put(key, next);
+        }
+
+        private Option<V> current(K key){
+            var written = writes.get(key);
+            return written != null ? written : Option.ofNullable(txMap.map.get(key));
+        }
+
+        private <T> FutureValue<T> record(Object result, FutureValue<T> future){
+            futures.add(future);
+            results.add(result);
+            return future;
+        }
+
+        private void lockRead(K key){
+            if (held.containsKey(key)) return;
+            var keyLock = txMap.pin(key);
+            var h = new Held(keyLock);
+            held.put(key, h); //Tracked before acquiring so an abort unpins it
+            h.stamp = this.acquire(keyLock.lock, false);
+            h.observed = txMap.map.get(key);
+        }
+
+        private void lockWrite(K key){
+            var h = held.get(key);
+            if (h == null) {
+                var keyLock = txMap.pin(key);
+                h = new Held(keyLock);
+                held.put(key, h);
+                h.stamp = this.acquire(keyLock.lock, true);
+                h.write = true;
+                return;
+            }
+
+            if (h.write) return;
+            h.stamp = this.upgrade(h.keyLock.lock, h.stamp);
+            h.write = true;
+            if (!Objects.equals(txMap.map.get(key), h.observed)) this.fail("Key changed while its read lock was being upgraded");
+        }
+
+        private void lockSizeWrite(){
+            if (sizeWrite) return;
+            if (sizeStamp == 0) {
+                sizeStamp = this.acquire(txMap.sizeLock, true);
+                sizeWrite = true;
+                return;
+            }
+
+            sizeStamp = this.upgrade(txMap.sizeLock, sizeStamp);
+            sizeWrite = true;
+            if (txMap.map.size() != observedSize) this.fail("Size changed while its read lock was being upgraded");
+        }
+
+        private long acquire(StampedLock lock, boolean write){
+            long stamp;
+            try {
+                stamp = write ? lock.tryWriteLock(txMap.lockTimeoutNanos, TimeUnit.NANOSECONDS) : lock.tryReadLock(txMap.lockTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException _) {
+                Thread.currentThread().interrupt();
+                stamp = 0;
+            }
+
+            if (stamp == 0) this.fail("Timed out waiting for a lock");
+            return stamp;
+        }
+
+        //The stamp must be a read stamp held by this tx. If the upgrade fails the stamp is released, so it must be cleared before failing
+        private long upgrade(StampedLock lock, long readStamp){
+            long stamp = lock.tryConvertToWriteLock(readStamp);
+            if (stamp != 0) return stamp;
+
+            lock.unlockRead(readStamp);
+            try {
+                stamp = lock.tryWriteLock(txMap.lockTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException _) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (stamp == 0) {
+                this.forget(lock);
+                this.fail("Timed out upgrading a lock");
+            }
+
+            return stamp;
+        }
+
+        //Drops a released stamp so the abort doesn't release it a second time
+        private void forget(StampedLock lock){
+            if (lock == txMap.sizeLock) sizeStamp = 0;
+            else for (var h : held.values()) if (h.keyLock.lock == lock) h.stamp = 0;
+        }
+
+        private void fail(String message){
+            this.abortParticipants();
+            this.releaseAll();
+            this.state = TransactionState.ABORTED;
+            throw new TransactionAbortedException(message);
+        }
+
+        private void ensureActive(){
+            if (state != TransactionState.NONE) throw new IllegalStateException("Transaction has already completed");
+        }
+
+        @Override
+        public void enlist(Transaction participant) {
+            this.ensureActive();
+            participants.add(participant);
+        }
+
+        @Override
+        public void commit() {
+            if (state != TransactionState.NONE) return;
+            writes.forEach((key, value) -> {
+                if (value.isSome()) txMap.map.put(key, value.unwrap());
+                else txMap.map.remove(key);
+            });
+            participants.forEach(Transaction::commit);
+
+            this.releaseAll();
+            for (int i = 0; i < futures.size(); i++) futures.get(i).complete(results.get(i));
+            this.state = TransactionState.COMMITTED;
+            futures.clear();
+            results.clear();
+            participants.clear();
+        }
+
+        @Override
+        public void abort() {
+            if (state != TransactionState.NONE) return;
+            this.abortParticipants();
+            this.releaseAll();
+            this.state = TransactionState.ABORTED;
+        }
+
+        private void abortParticipants(){
+            participants.forEach(Transaction::abort);
+            participants.clear();
+        }
+
+        private void releaseAll(){
+            held.forEach((key, h) -> {
+                if (h.stamp != 0) h.keyLock.lock.unlock(h.stamp);
+                txMap.unpin(key);
+            });
+
+            if (sizeStamp != 0) txMap.sizeLock.unlock(sizeStamp);
+            held.clear();
+            writes.clear();
+            sizeStamp = 0;
+            sizeWrite = false;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return state == TransactionState.COMMITTED;
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return Option.none();
+        }
+
+        @Override
+        public TransactionState state() {
+            return state;
+        }
+    }
+
+    //Pins are only read or written inside compute calls on the key, see KeyToLockers
+    private static final class KeyLock {
+        private final StampedLock lock = new StampedLock();
+        private int pins;
+    }
+
+    private static final class Held {
+        private final KeyLock keyLock;
+        private long stamp; //Zero until acquired or after it's been released
+        private boolean write;
+        private @Nullable Object observed; //Value seen when the read lock was taken
+
+        Held(KeyLock keyLock) {
+            this.keyLock = keyLock;
+        }
+    }
+}
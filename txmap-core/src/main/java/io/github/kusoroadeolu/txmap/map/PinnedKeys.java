@@ -0,0 +1,129 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import org.jspecify.annotations.Nullable;
+
+/*
+ * The keys a transaction has pinned, each with the write child buffering its latest write if the transaction wrote it. Open addressed on the key's hash like
+ * HeldLocks, a slot keeps its key until the table is cleared, and claimed slots are kept in pin order, so a key's place in that order is stable for the
+ * transaction and unpinning costs the number of keys pinned, not the table size.
+ * Confined to the transaction's thread and reused across its commits, so once it has grown to a transaction's key count pinning allocates nothing
+ * */
+final class PinnedKeys<K, C> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private @Nullable Object[] keys;
+    private @Nullable Object[] buffered;
+    private int[] slots; //Each slot's place in pin order
+    private int[] claimed; //Slots in pin order
+    private int size;
+
+    PinnedKeys() {
+        this.keys = new Object[INITIAL_CAPACITY];
+        this.buffered = new Object[INITIAL_CAPACITY];
+        this.slots = new int[INITIAL_CAPACITY];
+        this.claimed = new int[INITIAL_CAPACITY];
+    }
+
+    //Returns false if the key was already pinned
+    boolean add(K key){
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) return false;
+            slot = (slot + 1) & mask;
+        }
+
+        if ((size + 1) * 2 > keys.length) { //Keep the load under a half so probes stay short
+            this.grow();
+            return this.add(key);
+        }
+
+        keys[slot] = key;
+        slots[slot] = size;
+        claimed[size++] = slot;
+        return true;
+    }
+
+    //The key's place in pin order, or -1 if it isn't pinned
+    int indexOf(K key){
+        int slot = this.find(key);
+        return slot < 0 ? -1 : slots[slot];
+    }
+
+    //The write child buffering the key's latest write, null if this tx hasn't written it
+    @SuppressWarnings("unchecked")
+    @Nullable C buffered(K key){
+        int slot = this.find(key);
+        return slot < 0 ? null : (C) buffered[slot];
+    }
+
+    //The key must be pinned
+    void buffer(K key, C child){
+        buffered[this.find(key)] = child;
+    }
+
+    int size(){
+        return size;
+    }
+
+    //The key pinned at this place in pin order
+    @SuppressWarnings("unchecked")
+    K key(int index){
+        return (K) keys[claimed[index]];
+    }
+
+    //Grows the table once for this many more keys, instead of doubling it as they're pinned
+    void reserve(int more){
+        int needed = (size + more) * 2;
+        if (needed > keys.length) this.resize(Integer.highestOneBit(needed - 1) << 1);
+    }
+
+    void clear(){
+        for (int i = 0; i < size; i++) {
+            int slot = claimed[i];
+            keys[slot] = null;
+            buffered[slot] = null;
+        }
+        size = 0;
+    }
+
+    private int find(K key){
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot].equals(key)) return slot;
+        }
+        return -1;
+    }
+
+    private void grow(){
+        this.resize(keys.length << 1);
+    }
+
+    private void resize(int capacity){
+        var oldKeys = keys;
+        var oldBuffered = buffered;
+        var oldClaimed = claimed;
+        int oldSize = size;
+        keys = new Object[capacity];
+        buffered = new Object[capacity];
+        slots = new int[capacity];
+        claimed = new int[capacity];
+        size = 0;
+
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldSize; i++) {
+            var key = oldKeys[oldClaimed[i]];
+            int slot = hash(key) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            buffered[slot] = oldBuffered[oldClaimed[i]];
+            slots[slot] = size;
+            claimed[size++] = slot;
+        }
+    }
+
+    private static int hash(Object key){
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/*
+ * The values keys had when a checkpoint began, kept for the keys written while it runs. A writer records a key's current value before its first write
+ * of the key is applied, and only the first record of a key sticks. The checkpoint then reads the map itself, except for keys with a record:
+ * 1. A key with no record when the checkpoint reads it hasn't been written since the checkpoint began, so the value it read is the one the key had then
+ * 2. A key with a record is written from its record, absent if the key didn't exist
+ * Every key written during the checkpoint costs one entry, the rest of the map is never copied
+ * */
+final class PreImages<K, V> {
+    private static final Object ABSENT = new Object();
+
+    private final ConcurrentHashMap<K, Object> images;
+
+    PreImages() {
+        this.images = new ConcurrentHashMap<>();
+    }
+
+    //Must be called before the writer applies its write of the key
+    void record(K key, @Nullable V current){
+        images.putIfAbsent(key, current == null ? ABSENT : current);
+    }
+
+    boolean recorded(K key){
+        return images.containsKey(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEachPresent(BiConsumer<K, V> action){
+        images.forEach((key, value) -> {
+            if (value != ABSENT) action.accept(key, (V) value);
+        });
+    }
+}
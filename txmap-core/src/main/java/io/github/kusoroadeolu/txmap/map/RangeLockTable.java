@@ -0,0 +1,302 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Point locks on keys and read locks on key ranges, owned by transactions rather than threads. A transaction never conflicts with itself:
+ * 1. A point read conflicts with another transaction's write of the key
+ * 2. A point write conflicts with another transaction's read or write of the key, and with another transaction's range covering the key
+ * 3. A range read conflicts with another transaction's write of any key inside the range, including keys that aren't in the map yet, which is what keeps phantoms out
+ * Writes are only ever points, so ranges never conflict with each other.
+ *
+ * Points are kept sorted, so a range only checks the points inside it. Ranges are kept in an interval tree, so a point write only visits the ranges that
+ * could cover its key instead of every range held. The table is guarded by one lock that's only held to check and record locks, never while a transaction
+ * waits or reads the map.
+ * A transaction that has to wait, waits on the one point or range lock that blocked it, and a release only wakes the waiters of the locks it released, which
+ * check again and wait on the next lock in their way if there is one
+ * */
+final class RangeLockTable<K> {
+    private final Comparator<? super K> comparator;
+    private final TreeMap<K, PointLock> points;
+    private final RangeTree ranges;
+    private final IdentityHashMap<Object, List<RangeLock<K>>> rangesByOwner;
+    private final ReentrantLock lock;
+    private long rangeSeq; //Orders range locks with the same low bound, guarded by the table lock
+
+    RangeLockTable(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+        this.points = new TreeMap<>(comparator);
+        this.ranges = new RangeTree();
+        this.rangesByOwner = new IdentityHashMap<>();
+        this.lock = new ReentrantLock();
+    }
+
+    //Returns false if the lock couldn't be had before the timeout
+    boolean readPoint(Object owner, K key, long timeoutNanos){
+        return this.await(timeoutNanos, () -> {
+            var point = points.get(key);
+            if (point != null && point.writer != null && point.writer != owner) return point;
+            points.computeIfAbsent(key, _ -> new PointLock()).readers.add(owner);
+            return null;
+        });
+    }
+
+    boolean writePoint(Object owner, K key, long timeoutNanos){
+        return this.await(timeoutNanos, () -> {
+            var point = points.get(key);
+            if (point != null && point.blocksWriter(owner)) return point;
+            var range = ranges.covering(key, owner);
+            if (range != null) return range;
+            points.computeIfAbsent(key, _ -> new PointLock()).writer = owner;
+            return null;
+        });
+    }
+
+    boolean readRange(Object owner, Range<K> range, long timeoutNanos){
+        return this.await(timeoutNanos, () -> {
+            for (var point : this.pointsIn(range).values()) {
+                if (point.writer != null && point.writer != owner) return point;
+            }
+            var rangeLock = new RangeLock<K>(range, owner, ++rangeSeq);
+            ranges.insert(rangeLock);
+            rangesByOwner.computeIfAbsent(owner, _ -> new ArrayList<>()).add(rangeLock);
+            return null;
+        });
+    }
+
+    //Releases every lock the owner took on these points and ranges
+    void releaseAll(Object owner, Collection<K> keys, Collection<Range<K>> held){
+        lock.lock();
+        try {
+            for (var key : keys) {
+                var point = points.get(key);
+                if (point == null) continue;
+                point.readers.remove(owner);
+                if (point.writer == owner) point.writer = null;
+                if (point.writer == null && point.readers.isEmpty()) points.remove(key); //Its waiters record a fresh one
+                point.signalWaiters();
+            }
+
+            var owned = held.isEmpty() ? null : rangesByOwner.remove(owner);
+            if (owned != null) {
+                for (var rangeLock : owned) {
+                    ranges.remove(rangeLock);
+                    rangeLock.signalWaiters();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private NavigableMap<K, PointLock> pointsIn(Range<K> range){
+        NavigableMap<K, PointLock> view = points;
+        if (range.low() != null) view = view.tailMap(range.low(), range.lowInclusive());
+        if (range.high() != null) view = view.headMap(range.high(), range.highInclusive());
+        return view;
+    }
+
+    private boolean await(long timeoutNanos, Attempt attempt){
+        long remaining = timeoutNanos;
+        lock.lock();
+        try {
+            for (Waitable blocker; (blocker = attempt.tryAcquire()) != null; ) {
+                if (remaining <= 0) return false;
+                remaining = blocker.released(lock).awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Runs under the table lock, records the lock and returns null if nothing conflicts with it, otherwise the lock in its way
+    private interface Attempt {
+        @Nullable Waitable tryAcquire();
+    }
+
+    //A key range, null bounds are unbounded
+    record Range<K>(@Nullable K low, boolean lowInclusive, @Nullable K high, boolean highInclusive) {
+        static <K> Range<K> all(){
+            return new Range<>(null, false, null, false);
+        }
+
+        boolean startsAfter(K key, Comparator<? super K> comparator){
+            if (low == null) return false;
+            int c = comparator.compare(key, low);
+            return c < 0 || (c == 0 && !lowInclusive);
+        }
+
+        boolean endsBefore(K key, Comparator<? super K> comparator){
+            if (high == null) return false;
+            int c = comparator.compare(key, high);
+            return c > 0 || (c == 0 && !highInclusive);
+        }
+    }
+
+    //A lock transactions can wait on, its condition is only created once one has to
+    private static class Waitable {
+        private @Nullable Condition released;
+
+        Condition released(ReentrantLock lock){
+            if (released == null) released = lock.newCondition();
+            return released;
+        }
+
+        void signalWaiters(){
+            if (released != null) released.signalAll();
+        }
+    }
+
+    //A node of the range tree, guarded by the table lock
+    private static final class RangeLock<K> extends Waitable {
+        private final Range<K> range;
+        private final Object owner;
+        private final long seq;
+        private final int priority;
+        private @Nullable RangeLock<K> left;
+        private @Nullable RangeLock<K> right;
+        private RangeLock<K> maxHigh; //The range ending last in this subtree
+
+        RangeLock(Range<K> range, Object owner, long seq) {
+            this.range = range;
+            this.owner = owner;
+            this.seq = seq;
+            this.priority = ThreadLocalRandom.current().nextInt();
+            this.maxHigh = this;
+        }
+    }
+
+    private static final class PointLock extends Waitable {
+        private final Set<Object> readers = Collections.newSetFromMap(new IdentityHashMap<>());
+        private @Nullable Object writer;
+
+        boolean blocksWriter(Object owner){
+            if (writer != null && writer != owner) return true;
+            for (var reader : readers) {
+                if (reader != owner) return true;
+            }
+            return false;
+        }
+    }
+
+    /*
+     * Range locks in a treap ordered by their low bound, ties broken by when they were taken so a lock is always found again. Every node keeps the range that ends last
+     * in its subtree, so a search for the ranges covering a key skips every subtree that ends before the key, and stops going right at the first range that
+     * starts after it. Finding a covering range costs the tree's depth plus the ranges the key's owner holds over it, not the number of ranges held
+     * */
+    private final class RangeTree {
+        private @Nullable RangeLock<K> root;
+
+        //A range of another owner covering the key, or null
+        @Nullable RangeLock<K> covering(K key, Object owner){
+            return this.covering(root, key, owner);
+        }
+
+        private @Nullable RangeLock<K> covering(@Nullable RangeLock<K> node, K key, Object owner){
+            if (node == null || node.maxHigh.range.endsBefore(key, comparator)) return null;
+            var found = this.covering(node.left, key, owner);
+            if (found != null) return found;
+            if (node.range.startsAfter(key, comparator)) return null; //So does every range to its right
+            if (node.owner != owner && !node.range.endsBefore(key, comparator)) return node;
+            return this.covering(node.right, key, owner);
+        }
+
+        void insert(RangeLock<K> rangeLock){
+            root = this.insert(root, rangeLock);
+        }
+
+        private RangeLock<K> insert(@Nullable RangeLock<K> node, RangeLock<K> rangeLock){
+            if (node == null) return rangeLock;
+            if (this.compareLow(rangeLock, node) < 0) {
+                node.left = this.insert(node.left, rangeLock);
+                if (node.left.priority > node.priority) return this.rotateRight(node);
+            } else {
+                node.right = this.insert(node.right, rangeLock);
+                if (node.right.priority > node.priority) return this.rotateLeft(node);
+            }
+            this.update(node);
+            return node;
+        }
+
+        void remove(RangeLock<K> rangeLock){
+            root = this.remove(root, rangeLock);
+        }
+
+        private @Nullable RangeLock<K> remove(@Nullable RangeLock<K> node, RangeLock<K> rangeLock){
+            if (node == null) return null;
+            if (node == rangeLock) return this.join(node.left, node.right);
+            if (this.compareLow(rangeLock, node) < 0) node.left = this.remove(node.left, rangeLock);
+            else node.right = this.remove(node.right, rangeLock);
+            this.update(node);
+            return node;
+        }
+
+        //Every range in left orders before every range in right
+        private @Nullable RangeLock<K> join(@Nullable RangeLock<K> left, @Nullable RangeLock<K> right){
+            if (left == null) return right;
+            if (right == null) return left;
+            if (left.priority > right.priority) {
+                left.right = this.join(left.right, right);
+                this.update(left);
+                return left;
+            }
+            right.left = this.join(left, right.left);
+            this.update(right);
+            return right;
+        }
+
+        private RangeLock<K> rotateRight(RangeLock<K> node){
+            var left = Objects.requireNonNull(node.left);
+            node.left = left.right;
+            this.update(node);
+            left.right = node;
+            this.update(left);
+            return left;
+        }
+
+        private RangeLock<K> rotateLeft(RangeLock<K> node){
+            var right = Objects.requireNonNull(node.right);
+            node.right = right.left;
+            this.update(node);
+            right.left = node;
+            this.update(right);
+            return right;
+        }
+
+        private void update(RangeLock<K> node){
+            var maxHigh = node;
+            if (node.left != null && this.compareHigh(node.left.maxHigh, maxHigh) > 0) maxHigh = node.left.maxHigh;
+            if (node.right != null && this.compareHigh(node.right.maxHigh, maxHigh) > 0) maxHigh = node.right.maxHigh;
+            node.maxHigh = maxHigh;
+        }
+
+        //An unbounded low orders first, an inclusive low before an exclusive one of the same key
+        private int compareLow(RangeLock<K> a, RangeLock<K> b){
+            K x = a.range.low();
+            K y = b.range.low();
+            int c;
+            if (x == null || y == null) c = x == y ? 0 : x == null ? -1 : 1;
+            else c = comparator.compare(x, y);
+            if (c == 0) c = Boolean.compare(b.range.lowInclusive(), a.range.lowInclusive());
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        }
+
+        //An unbounded high orders last, an inclusive high after an exclusive one of the same key
+        private int compareHigh(RangeLock<K> a, RangeLock<K> b){
+            K x = a.range.high();
+            K y = b.range.high();
+            if (x == null || y == null) return x == y ? 0 : x == null ? 1 : -1;
+            int c = comparator.compare(x, y);
+            return c != 0 ? c : Boolean.compare(a.range.highInclusive(), b.range.highInclusive());
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.*;
+
+import java.util.Arrays;
+
+/*
+ * A transactional map specialized for long keys and values. Keys are hashed onto a fixed, power of two number of segments,
+ * each an open addressing table with its own read write lock, so lock state is indexed by the key's segment and nothing is boxed or allocated per key.
+ *
+ * A transaction buffers its ops in primitive arrays. At commit it locks every segment it touches in ascending segment order, read locks for segments
+ * it only reads and write locks for segments it writes(a size op reads every segment), then applies its ops in registration order and releases the locks.
+ * Since every segment is locked in the same order no two transactions can deadlock, and since the locks are held across the whole apply, this map
+ * promises SERIALIZABLE isolation. An aborted transaction never touches a segment
+ *
+ * Happens before guarantees
+ * 1. The acquisition of every segment lock a transaction needs happens before any of its ops is applied
+ * 2. The application of every op, and the completion of its result handle, happens before any segment lock is released
+ * */
+public class SegmentedTransactionalLongMap implements TransactionalLongMap {
+    private static final int DEFAULT_SEGMENTS = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+    private static final int DEFAULT_SEGMENT_CAPACITY = 16;
+
+    private final LongSegment[] segments;
+    private final int segmentShift;
+
+    public SegmentedTransactionalLongMap() {
+        this(DEFAULT_SEGMENTS, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    //The segment count must be a power of two
+    public SegmentedTransactionalLongMap(int segmentCount, int segmentCapacity) {
+        if (segmentCount <= 0 || Integer.bitCount(segmentCount) != 1) throw new IllegalArgumentException("Segment count must be a power of two");
+        this.segments = new LongSegment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) segments[i] = new LongSegment(segmentCapacity);
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    @Override
+    public LongMapTransaction beginTx() {
+        return new LongMapTransactionImpl(this);
+    }
+
+    //Stafford's mix13 folded to an int, segments take the high bits and slots within a segment the low bits
+    static int hash(long key){
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        key = key ^ (key >>> 31);
+        return (int) (key ^ (key >>> 32));
+    }
+
+    int segmentFor(int hash){
+        return segmentShift == 32 ? 0 : hash >>> segmentShift;
+    }
+
+    static final class LongMapTransactionImpl implements LongMapTransaction {
+        private static final byte PUT = 0, REMOVE = 1, GET = 2, CONTAINS = 3, SIZE = 4, INCREMENT = 5;
+        private static final byte NONE = 0, READ = 1, WRITE = 2; //Segment lock modes
+        private static final int INITIAL_OPS = 8;
+
+        private final SegmentedTransactionalLongMap txMap;
+        private byte[] types;
+        private long[] keys;
+        private long[] values;
+        private Object[] results;
+        private int count;
+        private boolean readsAll; //Set by a size op
+        TransactionState state;
+
+        LongMapTransactionImpl(SegmentedTransactionalLongMap txMap) {
+            this.txMap = txMap;
+            this.types = new byte[INITIAL_OPS];
+            this.keys = new long[INITIAL_OPS];
+            this.values = new long[INITIAL_OPS];
+            this.results = new Object[INITIAL_OPS];
+            this.state = TransactionState.NONE;
+        }
+
+        @Override
+        public LongFutureValue put(long key, long value) {
+            return this.register(PUT, key, value, new LongFutureValue());
+        }
+
+        @Override
+        public LongFutureValue remove(long key) {
+            return this.register(REMOVE, key, 0, new LongFutureValue());
+        }
+
+        @Override
+        public LongFutureValue increment(long key, long delta) {
+            return this.register(INCREMENT, key, delta, new LongFutureValue());
+        }
+
+        @Override
+        public LongFutureValue get(long key) {
+            return this.register(GET, key, 0, new LongFutureValue());
+        }
+
+        @Override
+        public BooleanFutureValue containsKey(long key) {
+            return this.register(CONTAINS, key, 0, new BooleanFutureValue());
+        }
+
+        @Override
+        public IntFutureValue size() {
+            readsAll = true;
+            return this.register(SIZE, 0, 0, new IntFutureValue());
+        }
+
+        private <T> T register(byte type, long key, long value, T result){
+            if (state != TransactionState.NONE) throw new IllegalStateException("Transaction has already completed");
+            if (count == types.length) this.grow();
+            types[count] = type;
+            keys[count] = key;
+            values[count] = value;
+            results[count] = result;
+            count++;
+            return result;
+        }
+
+        private void grow(){
+            int capacity = types.length << 1;
+            types = Arrays.copyOf(types, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            results = Arrays.copyOf(results, capacity);
+        }
+
+        @Override
+        public void commit() {
+            if (state != TransactionState.NONE) return;
+            var segments = txMap.segments;
+            var modes = this.lockModes();
+            for (int i = 0; i < segments.length; i++) {
+                switch (modes[i]) {
+                    case READ -> segments[i].lock.readLock().lock();
+                    case WRITE -> segments[i].lock.writeLock().lock();
+                    default -> {}
+                }
+            }
+
+            try {
+                state = TransactionState.VALIDATED;
+                for (int i = 0; i < count; i++) this.apply(i);
+            } finally {
+                for (int i = segments.length - 1; i >= 0; i--) {
+                    switch (modes[i]) {
+                        case READ -> segments[i].lock.readLock().unlock();
+                        case WRITE -> segments[i].lock.writeLock().unlock();
+                        default -> {}
+                    }
+                }
+            }
+
+            state = TransactionState.COMMITTED;
+            this.clear();
+        }
+
+        private byte[] lockModes(){
+            var modes = new byte[txMap.segments.length];
+            if (readsAll) Arrays.fill(modes, READ);
+            for (int i = 0; i < count; i++) {
+                if (types[i] == SIZE) continue;
+                int segment = txMap.segmentFor(hash(keys[i]));
+                byte mode = types[i] == PUT || types[i] == REMOVE || types[i] == INCREMENT ? WRITE : READ;
+                if (mode > modes[segment]) modes[segment] = mode;
+            }
+
+            return modes;
+        }
+
+        private void apply(int i){
+            long key = keys[i];
+            int hash = hash(key);
+            var segment = txMap.segments[txMap.segmentFor(hash)];
+            switch (types[i]) {
+                case PUT -> segment.put(key, values[i], hash, (LongFutureValue) results[i]);
+                case REMOVE -> segment.remove(key, hash, (LongFutureValue) results[i]);
+                case INCREMENT -> segment.add(key, values[i], hash, (LongFutureValue) results[i]);
+                case GET -> segment.get(key, hash, (LongFutureValue) results[i]);
+                case CONTAINS -> ((BooleanFutureValue) results[i]).complete(segment.containsKey(key, hash));
+                case SIZE -> {
+                    int size = 0;
+                    for (var s : txMap.segments) size += s.size();
+                    ((IntFutureValue) results[i]).complete(size);
+                }
+                default -> throw new Error();
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (state != TransactionState.NONE) return;
+            state = TransactionState.ABORTED;
+            this.clear();
+        }
+
+        private void clear(){
+            Arrays.fill(results, 0, count, null);
+            count = 0;
+            readsAll = false;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return state == TransactionState.COMMITTED;
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return Option.none();
+        }
+
+        @Override
+        public TransactionState state() {
+            return state;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/*
+ * A lock with a mode per LockType. Any number of holders may share READ or MERGE, but not both at once, and WRITE is held alone. Merges commute with each other
+ * but not with reads, so concurrent merges of a key never wait on each other while readers still exclude all of them.
+ * Not reentrant, a holder that wants another mode releases its current one first. An arrival that could share the current mode still queues behind a waiter
+ * for another mode, so neither readers nor merges can starve the other
+ *
+ * The state holds the current mode in its low two bits and the number of holders above them
+ * */
+final class SemanticLock {
+    private static final int FREE = 0, READ = 1, MERGE = 2, WRITE = 3;
+    private static final int MODE_MASK = 3;
+    private static final int ONE_HOLDER = 4;
+
+    private final Sync sync = new Sync();
+    private final Lock read = new ModeLock(READ);
+    private final Lock merge = new ModeLock(MERGE);
+    private final Lock write = new ModeLock(WRITE);
+
+    Lock lock(LockType type){
+        return switch (type) {
+            case READ -> read;
+            case MERGE -> merge;
+            case WRITE -> write;
+        };
+    }
+
+    //Holders of the lock in this mode
+    int holders(LockType type){
+        int state = sync.state();
+        return (state & MODE_MASK) == mode(type) ? state >>> 2 : 0;
+    }
+
+    private static int mode(LockType type){
+        return switch (type) {
+            case READ -> READ;
+            case MERGE -> MERGE;
+            case WRITE -> WRITE;
+        };
+    }
+
+    //Every mode is acquired shared, a WRITE acquisition just never lets anyone join it
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        @Override
+        protected int tryAcquireShared(int mode) {
+            for (;;) {
+                int state = getState();
+                if (state == FREE) {
+                    if (compareAndSetState(FREE, ONE_HOLDER | mode)) return mode == WRITE ? 0 : 1;
+                } else if ((state & MODE_MASK) == mode && mode != WRITE && !hasQueuedPredecessors()) {
+                    if (compareAndSetState(state, state + ONE_HOLDER)) return 1;
+                } else {
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryReleaseShared(int mode) {
+            for (;;) {
+                int state = getState();
+                int next = state - ONE_HOLDER < ONE_HOLDER ? FREE : state - ONE_HOLDER;
+                if (compareAndSetState(state, next)) return next == FREE;
+            }
+        }
+
+        int state(){
+            return getState();
+        }
+    }
+
+    private final class ModeLock implements Lock {
+        private final int mode;
+
+        ModeLock(int mode) {
+            this.mode = mode;
+        }
+
+        @Override
+        public void lock() {
+            sync.acquireShared(mode);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireSharedInterruptibly(mode);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryAcquireShared(mode) >= 0;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            return sync.tryAcquireSharedNanos(mode, unit.toNanos(time));
+        }
+
+        @Override
+        public void unlock() {
+            sync.releaseShared(mode);
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("Semantic locks have no conditions");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * An auto commit ConcurrentMap view of a sharded map. Every single key op is a single key op of its shard's auto commit view, so it keeps the shard's
+ * transaction free path for keys no transaction is using, see AutoCommitMap. size runs as a transaction over every shard, and iteration walks each shard's
+ * committed entries in turn, weakly consistent like a ConcurrentHashMap's, and can't remove
+ * */
+final class ShardedAutoCommitMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    private final ShardedTransactionalMap<K, V> txMap;
+    private final ConcurrentMap<K, V>[] views;
+
+    @SuppressWarnings("unchecked")
+    ShardedAutoCommitMap(ShardedTransactionalMap<K, V> txMap, OptimisticTransactionalMap<K, V>[] shards) {
+        this.txMap = txMap;
+        this.views = new ConcurrentMap[shards.length];
+        for (int i = 0; i < shards.length; i++) views[i] = shards[i].asConcurrentMap();
+    }
+
+    @Override
+    public @Nullable V get(Object key) {
+        return this.view(key).get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.view(key).containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return txMap.execute(tx -> tx.size()).value().getAsInt();
+    }
+
+    @Override
+    public @Nullable V put(K key, V value) {
+        return this.view(key).put(key, value);
+    }
+
+    @Override
+    public @Nullable V remove(Object key) {
+        return this.view(key).remove(key);
+    }
+
+    @Override
+    public @Nullable V putIfAbsent(K key, V value) {
+        return this.view(key).putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return this.view(key).remove(key, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        return this.view(key).replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public @Nullable V replace(K key, V value) {
+        return this.view(key).replace(key, value);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new Iterator<>() {
+                    private int shard = 0;
+                    private Iterator<Entry<K, V>> current = views[0].entrySet().iterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!current.hasNext() && shard < views.length - 1) current = views[++shard].entrySet().iterator();
+                        return current.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        if (!this.hasNext()) throw new NoSuchElementException();
+                        return current.next();
+                    }
+                };
+            }
+
+            //Sums the shards' committed entries without a transaction, like iteration
+            @Override
+            public int size() {
+                int size = 0;
+                for (var view : views) size += view.entrySet().size();
+                return size;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentMap<K, V> view(Object key){
+        return views[txMap.shardOf((K) Objects.requireNonNull(key))];
+    }
+}
@@ -0,0 +1,325 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.*;
+import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.MapTransactionImpl;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BinaryOperator;
+
+/*
+ * Keys are partitioned across a power of two number of independent optimistic maps, each with its own underlying map, key lockers, size lock and size tracker,
+ * so transactions on keys of different shards share no state at all. A transaction begins a sub transaction on a shard the first time it touches it:
+ * 1. A transaction that touched one shard commits it like a plain optimistic map transaction
+ * 2. A transaction that touched several prepares every one of them in shard order, each taking every key lock it needs, then enters every shard's size
+ *    tracker, and only then commits them. A shard that fails to prepare aborted itself, and every other shard is aborted before any write is applied
+ * 3. size reads the size of every shard and completes with their sum, so it joins every shard
+ * Shards are prepared in ascending order and each takes its locks in its own lock order, so write locks are taken in one global order and transactions that only
+ * write never deadlock across shards. Reads lock as they're registered like on a plain optimistic map, a cycle through them is broken by a shard's lock wait budget
+ *
+ * Shards apply their writes one after another, and none releases its locks until every shard has applied, while readers keep theirs until they commit. A reader
+ * of keys in two shards can't hold both keys' read locks while a writer of both has only applied one, so it never sees half a transaction. A shard whose apply
+ * fails(a merge function threw) is undone, and so is every shard applied before it, before any lock is released
+ *
+ * Each thread keeps the sub transactions of its finished transactions, one per shard, and begins them again instead of building new ones
+ *
+ * Keys pick their shard from the high bits of their hash, the low bits pick the bin inside the shard's ConcurrentHashMap
+ *
+ * Happens before guarantees
+ * 1. The preparation of every shard a transaction touched happens before the commit of any of them
+ * 2. The application of every shard's writes happens before any shard releases its locks
+ * 3. The commit of every shard happens before the transaction's aggregated results, sizes and bulk views, are completed
+ * */
+public class ShardedTransactionalMap<K, V> implements TransactionalMap<K, V> {
+    static final int DEFAULT_SHARDS = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+
+    private final OptimisticTransactionalMap<K, V>[] shards;
+    private final ThreadLocal<MapTransactionImpl<K, V>[]> finishedSubs; //Sub transactions of each thread's finished transactions, one per shard
+    private final int shift;
+
+    public ShardedTransactionalMap() {
+        this(DEFAULT_SHARDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ShardedTransactionalMap(int shardCount) {
+        if (shardCount <= 0 || Integer.bitCount(shardCount) != 1) {
+            throw new IllegalArgumentException("Shard count must be a positive power of two, was: " + shardCount);
+        }
+
+        this.shards = new OptimisticTransactionalMap[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new OptimisticTransactionalMap<>();
+        this.finishedSubs = ThreadLocal.withInitial(() -> new MapTransactionImpl[shardCount]);
+        this.shift = 32 - Integer.numberOfTrailingZeros(shardCount);
+    }
+
+    @Override
+    public MapTransaction<K, V> beginTx() {
+        return new ShardedTransaction<>(this);
+    }
+
+    //Single key ops go to their shard's auto commit view, with its transaction free path
+    @Override
+    public ConcurrentMap<K, V> asConcurrentMap(){
+        return new ShardedAutoCommitMap<>(this, shards);
+    }
+
+    //A sub transaction on the shard, one a finished transaction of this thread handed back if there is one. Shards never recycle results, so the futures and
+    //views a sub transaction handed out stay valid once it's begun again. A size op touches every shard, this keeps it from building a transaction per shard each time
+    MapTransactionImpl<K, V> beginSub(int shard){
+        var finished = finishedSubs.get();
+        var sub = finished[shard];
+        if (sub == null) return new MapTransactionImpl<>(shards[shard]);
+        finished[shard] = null;
+        sub.begin();
+        return sub;
+    }
+
+    //The sub transaction must have committed or aborted
+    void recycleSub(int shard, MapTransactionImpl<K, V> sub){
+        var finished = finishedSubs.get();
+        if (finished[shard] == null) finished[shard] = sub;
+    }
+
+    int shardOf(K key){
+        if (shards.length == 1) return 0;
+        return (key.hashCode() * 0x9E3779B9) >>> shift; //Fibonacci hashing, spreads the high bits
+    }
+
+    static final class ShardedTransaction<K, V> implements MapTransaction<K, V> {
+        private final ShardedTransactionalMap<K, V> txMap;
+        private int firstShard = -1;
+        private @Nullable MapTransactionImpl<K, V> first; //Most transactions touch one shard, so the array is only allocated for a second
+        private MapTransactionImpl<K, V> @Nullable [] subs;
+        private final List<SizeSum> sizes;
+        private final List<BulkFutureValue<V>> bulkResults;
+        TransactionState state;
+
+        ShardedTransaction(ShardedTransactionalMap<K, V> txMap) {
+            this.txMap = txMap;
+            this.sizes = new ArrayList<>();
+            this.bulkResults = new ArrayList<>();
+            this.state = TransactionState.NONE;
+        }
+
+        @Override
+        public FutureValue<Option<V>> put(K key, V value) {
+            return this.sub(key).put(key, value);
+        }
+
+        @Override
+        public FutureValue<Option<V>> remove(K key) {
+            return this.sub(key).remove(key);
+        }
+
+        @Override
+        public FutureValue<V> merge(K key, V value, BinaryOperator<V> fn) {
+            return this.sub(key).merge(key, value, fn);
+        }
+
+        //Read ops may abort their shard on a lock wait, the whole transaction is aborted with it
+        @Override
+        public FutureValue<V> get(K key) {
+            try {
+                return this.sub(key).get(key);
+            } catch (TransactionAbortedException e) {
+                this.abort();
+                throw e;
+            }
+        }
+
+        @Override
+        public FutureValue<Boolean> containsKey(K key) {
+            try {
+                return this.sub(key).containsKey(key);
+            } catch (TransactionAbortedException e) {
+                this.abort();
+                throw e;
+            }
+        }
+
+        //Still a sub transaction and a size read lock on every shard, so a size op costs the shard count in lock acquisitions and makes the commit a multi shard one
+        @Override
+        @SuppressWarnings("unchecked")
+        public FutureValue<Integer> size() {
+            var parts = new FutureValue[txMap.shards.length];
+            try {
+                for (int i = 0; i < parts.length; i++) parts[i] = this.sub(i).size();
+            } catch (TransactionAbortedException e) {
+                this.abort();
+                throw e;
+            }
+
+            var sum = new SizeSum(new FutureValue<>(), parts);
+            sizes.add(sum);
+            return sum.future();
+        }
+
+        @Override
+        public BulkFutureValue<V> getAll(List<K> keys) {
+            var bulk = new BulkFutureValue<V>(keys.size());
+            try {
+                for (int i = 0; i < keys.size(); i++) this.sub(keys.get(i)).read(keys.get(i), bulk, i);
+            } catch (TransactionAbortedException e) {
+                this.abort();
+                throw e;
+            }
+            bulkResults.add(bulk);
+            return bulk;
+        }
+
+        @Override
+        public BulkFutureValue<V> putAll(Map<K, V> entries) {
+            var bulk = new BulkFutureValue<V>(entries.size());
+            int i = 0;
+            for (var entry : entries.entrySet()) this.sub(entry.getKey()).write(entry.getKey(), Option.some(entry.getValue()), bulk, i++);
+            bulkResults.add(bulk);
+            return bulk;
+        }
+
+        @Override
+        public BulkFutureValue<V> removeAll(Collection<K> keys) {
+            var bulk = new BulkFutureValue<V>(keys.size());
+            int i = 0;
+            for (var key : keys) this.sub(key).write(key, Option.none(), bulk, i++);
+            bulkResults.add(bulk);
+            return bulk;
+        }
+
+        //Commits with the first shard this tx touched, every shard is prepared before any commits so it's never committed with a tx that aborts after
+        @Override
+        public void enlist(Transaction participant) {
+            this.sub(firstShard < 0 ? 0 : firstShard).enlist(participant);
+        }
+
+        @Override
+        public void commit() {
+            if (state != TransactionState.NONE) return;
+            if (subs == null) {
+                if (first != null) first.commit(); //Only one shard, it commits locally
+            } else {
+                try {
+                    for (var sub : subs) {
+                        if (sub != null) sub.prepareKeys();
+                    }
+                    for (var sub : subs) { //A shard inside its size tracker must never wait on another shard's key locks
+                        if (sub != null) sub.prepareSize();
+                    }
+                } catch (TransactionAbortedException e) {
+                    this.abort();
+                    throw e;
+                }
+                this.applyAll(subs);
+                for (var sub : subs) {
+                    if (sub != null) sub.finishPrepared();
+                }
+            }
+
+            this.recycleSubs();
+            sizes.forEach(SizeSum::complete);
+            bulkResults.forEach(BulkFutureValue::complete);
+            this.state = TransactionState.COMMITTED;
+        }
+
+        //Applies every prepared shard before any releases its locks. A shard that fails to apply undid and aborted itself, the shards applied before it are undone
+        //and the rest aborted, so the transaction leaves no shard written
+        private void applyAll(MapTransactionImpl<K, V>[] subs){
+            int shard = 0;
+            try {
+                for (; shard < subs.length; shard++) {
+                    if (subs[shard] != null) subs[shard].applyPrepared();
+                }
+            } catch (RuntimeException | Error e) {
+                for (int i = 0; i < subs.length; i++) {
+                    if (subs[i] == null || i == shard) continue;
+                    if (i < shard) subs[i].undoApplied();
+                    else subs[i].abort();
+                }
+                this.recycleSubs();
+                this.state = TransactionState.ABORTED;
+                throw e;
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (state != TransactionState.NONE) return;
+            if (subs == null) {
+                if (first != null) this.abort(first);
+            } else {
+                for (var sub : subs) {
+                    if (sub != null) this.abort(sub);
+                }
+            }
+            this.recycleSubs();
+            this.state = TransactionState.ABORTED;
+        }
+
+        //Only once this transaction is done with them, a sub transaction that aborted itself may still be aborted again by this transaction until then
+        private void recycleSubs(){
+            if (subs == null) {
+                if (first != null) txMap.recycleSub(firstShard, first);
+                return;
+            }
+            for (int i = 0; i < subs.length; i++) {
+                if (subs[i] != null) txMap.recycleSub(i, subs[i]);
+            }
+        }
+
+        private void abort(MapTransactionImpl<K, V> sub){
+            if (sub.state != TransactionState.ABORTED) sub.abort(); //A shard that failed a lock wait already aborted itself
+        }
+
+        private MapTransactionImpl<K, V> sub(K key){
+            return this.sub(txMap.shardOf(key));
+        }
+
+        @SuppressWarnings("unchecked")
+        private MapTransactionImpl<K, V> sub(int shard){
+            if (state != TransactionState.NONE) throw new IllegalStateException("Transaction has already completed");
+            if (first == null) {
+                firstShard = shard;
+                first = txMap.beginSub(shard);
+                return first;
+            }
+            if (shard == firstShard) return first;
+
+            if (subs == null) {
+                subs = new MapTransactionImpl[txMap.shards.length];
+                subs[firstShard] = first;
+            }
+            var sub = subs[shard];
+            if (sub == null) subs[shard] = sub = txMap.beginSub(shard);
+            return sub;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return state == TransactionState.COMMITTED;
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return Option.none();
+        }
+
+        @Override
+        public TransactionState state() {
+            return state;
+        }
+    }
+
+    //A size op of every shard, completed with their sum once they've all committed
+    record SizeSum(FutureValue<Integer> future, FutureValue<Integer>[] parts) {
+        void complete(){
+            int sum = 0;
+            for (var part : parts) sum += part.getAsInt();
+            future.complete(sum);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Tracks the size of the map through per transaction deltas, so inserts and deletes don't have to serialize through the size lock.
+ * Only transactions which observe the size pay for coordination:
+ * 1. A size reader registers itself on its stripe, takes the size read lock, then waits for every in flight lockless writer to drain
+ * 2. A writer whose transaction changes the size enters its stripe, then checks for registered readers. With no readers around, it applies its
+ *    writes and delta without touching the size lock. Otherwise it leaves the stripe and takes the size write lock, waiting for the readers to commit
+ *
+ * Both sides increment their own counter before reading the other's, so at least one of them always sees the other.
+ * A transaction always increments and decrements the same stripe, so a stripe never under counts, even mid sum
+ *
+ * Happens before edges
+ * 1. A writer adds its delta to the size before it leaves its stripe or releases the size write lock
+ * 2. A registered reader observes no in flight writers before it reads the size
+ * */
+final class SizeTracker {
+    static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+    private static final int PAD = 8; //Longs per stripe, keeps each stripe on its own 64 byte cache line
+    private static final int SPINS = 64;
+
+    private final AtomicLongArray writers; //Lockless writers applying a size change, per stripe
+    private final AtomicLongArray readers; //Transactions holding a size read, per stripe
+    private final LongAdder size;
+
+    SizeTracker(long initialSize) {
+        this.writers = new AtomicLongArray(STRIPES * PAD);
+        this.readers = new AtomicLongArray(STRIPES * PAD);
+        this.size = new LongAdder();
+        this.size.add(initialSize);
+    }
+
+    //Transactions are confined to a thread, so the thread picks the stripe
+    int stripe(){
+        long id = Thread.currentThread().threadId();
+        return (int) (id ^ (id >>> 16)) & (STRIPES - 1);
+    }
+
+    void registerReader(int stripe){
+        readers.incrementAndGet(stripe * PAD);
+    }
+
+    void deregisterReader(int stripe){
+        readers.decrementAndGet(stripe * PAD);
+    }
+
+    //Lockless writers never block once they've entered, so this waits out their apply. Returns false if they're still inside once the timeout has passed,
+    //so a reader behind a stalled writer is aborted out of its lock wait budget rather than spinning for good
+    boolean awaitWriters(long timeoutNanos){
+        long start = System.nanoTime();
+        for (int i = 0; i < STRIPES; i++) {
+            int spins = 0;
+            while (writers.get(i * PAD) != 0) {
+                if (++spins < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                if (System.nanoTime() - start > timeoutNanos) return false;
+                Thread.yield();
+            }
+        }
+        return true;
+    }
+
+    //Returns false if a reader is registered, in which case the writer must take the size write lock instead
+    boolean tryEnterWriter(int stripe){
+        writers.incrementAndGet(stripe * PAD);
+        if (!this.hasReaders()) return true;
+
+        writers.decrementAndGet(stripe * PAD);
+        return false;
+    }
+
+    void exitWriter(int stripe){
+        writers.decrementAndGet(stripe * PAD);
+    }
+
+    void add(long delta){
+        if (delta != 0) size.add(delta);
+    }
+
+    long sum(){
+        return size.sum();
+    }
+
+    private boolean hasReaders(){
+        for (int i = 0; i < STRIPES; i++) {
+            if (readers.get(i * PAD) != 0) return true;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,330 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.*;
+import io.github.kusoroadeolu.txmap.map.Operation.MergeOperation;
+import io.github.kusoroadeolu.txmap.map.RangeLockTable.Range;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+/*
+ * A strict two phase locking map over a ConcurrentSkipListMap, locked through a range lock table instead of per key lock state:
+ * 1. get and containsKey read lock the key
+ * 2. put, remove and merge write lock the key
+ * 3. subMap read locks its range, firstKey the range up to the first key and lastKey the range from the last key. size read locks every key
+ * Ops are evaluated against the map and this tx's own buffered writes as they're registered, commit only applies the buffer and releases the locks.
+ * A range lock covers keys that aren't in the map yet, so a transaction that scanned a range sees the same entries in it until it commits, while
+ * writers outside the range go on without waiting. This map promises SERIALIZABLE isolation
+ *
+ * Locks are taken in registration order, so like the pessimistic map every lock wait is bounded by the lock timeout and a transaction that times out
+ * releases everything it holds and fails with a TransactionAbortedException.
+ *
+ * firstKey and lastKey can't know the range to lock before reading, so they lock up to the first key they see and read again under the lock.
+ * If a writer moved the first key past that range before the lock was granted, they extend the lock to the new first key and read again
+ *
+ * Happens before guarantees
+ * 1. The acquisition of a key's or range's lock happens before the evaluation of any op on it
+ * 2. The application of buffered writes happens before the release of any lock
+ * */
+public class SkipListTransactionalMap<K, V> implements TransactionalSortedMap<K, V> {
+    private static final Duration DEFAULT_LOCK_TIMEOUT = Duration.ofMillis(100);
+
+    private final ConcurrentSkipListMap<K, V> map;
+    private final RangeLockTable<K> locks;
+    private final AtomicInteger size; //The skip list's size is a traversal, this is only changed by commits holding the written keys' locks
+    private final Comparator<? super K> comparator;
+    private final long lockTimeoutNanos;
+
+    public SkipListTransactionalMap(Comparator<? super K> comparator) {
+        this(comparator, DEFAULT_LOCK_TIMEOUT);
+    }
+
+    //The longest an op waits on a lock before its transaction is aborted
+    public SkipListTransactionalMap(Comparator<? super K> comparator, Duration lockTimeout) {
+        if (lockTimeout.isNegative()) throw new IllegalArgumentException("Lock timeout must not be negative");
+        this.map = new ConcurrentSkipListMap<>(comparator);
+        this.locks = new RangeLockTable<>(comparator);
+        this.size = new AtomicInteger();
+        this.comparator = comparator;
+        this.lockTimeoutNanos = lockTimeout.toNanos();
+    }
+
+    @Override
+    public SortedMapTransaction<K, V> beginTx() {
+        return new SkipListTransaction<>(this);
+    }
+
+    //Every op is a one op transaction, which takes and releases the key's point locks like any other
+    @Override
+    public ConcurrentMap<K, V> asConcurrentMap(){
+        return new TransactionPerOpMap<>(this, () -> Collections.unmodifiableMap(map));
+    }
+
+    static final class SkipListTransaction<K, V> implements SortedMapTransaction<K, V>, ComputingTransaction<K, V> {
+        private final SkipListTransactionalMap<K, V> txMap;
+        private final TreeMap<K, Option<V>> writes; //Buffered writes, sorted so range reads can overlay them
+        private final Set<K> readKeys; //Keys this tx holds a point lock on, in either mode
+        private final Set<K> writtenKeys;
+        private final List<Range<K>> ranges;
+        private final List<FutureValue<?>> futures;
+        private final List<Object> results;
+        private final List<Transaction> participants; //Committed once the writes are applied, before the locks are released
+        private int delta;
+        TransactionState state;
+
+        SkipListTransaction(SkipListTransactionalMap<K, V> txMap) {
+            this.txMap = txMap;
+            this.writes = new TreeMap<>(txMap.comparator);
+            this.readKeys = new TreeSet<>(txMap.comparator);
+            this.writtenKeys = new TreeSet<>(txMap.comparator);
+            this.ranges = new ArrayList<>();
+            this.futures = new ArrayList<>();
+            this.results = new ArrayList<>();
+            this.participants = new ArrayList<>();
+            this.state = TransactionState.NONE;
+        }
+
+        @Override
+        public FutureValue<Option<V>> put(K key, V value) {
+            return this.write(key, Option.some(value));
+        }
+
+        @Override
+        public FutureValue<Option<V>> remove(K key) {
+            return this.write(key, Option.none());
+        }
+
+        //Decided under the key's write lock, so no other transaction writes the key until this one commits
+        @Override
+        public FutureValue<Option<V>> compute(K key, UnaryOperator<Option<V>> fn) {
+            this.ensureActive();
+            this.lockWrite(key);
+            var prev = this.current(key);
+            this.buffer(key, prev, fn.apply(prev));
+            return this.record(prev, new FutureValue<>());
+        }
+
+        //Evaluated under the key's write lock like a put of the merged value, so merges of a key wait on each other
+        @Override
+        public FutureValue<V> merge(K key, V value, BinaryOperator<V> fn) {
+            Objects.requireNonNull(value, "Null values aren't supported");
+            Objects.requireNonNull(fn);
+            this.ensureActive();
+            this.lockWrite(key);
+            var prev = this.current(key);
+            var merged = prev.isSome() ? MergeOperation.merged(fn, prev.unwrap(), value) : value;
+            this.buffer(key, prev, Option.some(merged));
+            return this.record(merged, new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<V> get(K key) {
+            this.ensureActive();
+            this.lockRead(key);
+            return this.record(this.current(key), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Boolean> containsKey(K key) {
+            this.ensureActive();
+            this.lockRead(key);
+            return this.record(this.current(key).isSome(), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<Integer> size() {
+            this.ensureActive();
+            this.lockRange(Range.all());
+            return this.record(txMap.size.get() + delta, new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<SortedMap<K, V>> subMap(K fromKey, K toKey) {
+            this.ensureActive();
+            if (txMap.comparator.compare(fromKey, toKey) > 0) throw new IllegalArgumentException("fromKey > toKey");
+            this.lockRange(new Range<>(fromKey, true, toKey, false));
+            var entries = new TreeMap<K, V>(txMap.comparator);
+            entries.putAll(txMap.map.subMap(fromKey, toKey));
+            writes.subMap(fromKey, toKey).forEach((key, value) -> {
+                if (value.isSome()) entries.put(key, value.unwrap());
+                else entries.remove(key);
+            });
+            return this.record(Collections.unmodifiableSortedMap(entries), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<K> firstKey() {
+            this.ensureActive();
+            var first = this.first(false);
+            while (true) {
+                this.lockRange(first == null ? Range.all() : new Range<>(null, false, first, true));
+                var seen = this.first(false);
+                if (Objects.equals(seen, first)) break;
+                first = seen; //The first key was removed before the lock was granted
+            }
+            return this.record(Option.ofNullable(first), new FutureValue<>());
+        }
+
+        @Override
+        public FutureValue<K> lastKey() {
+            this.ensureActive();
+            var last = this.first(true);
+            while (true) {
+                this.lockRange(last == null ? Range.all() : new Range<>(last, true, null, false));
+                var seen = this.first(true);
+                if (Objects.equals(seen, last)) break;
+                last = seen;
+            }
+            return this.record(Option.ofNullable(last), new FutureValue<>());
+        }
+
+        //The smallest(or largest if descending) key of the map overlaid with this tx's writes
+        private @Nullable K first(boolean descending){
+            var keys = descending ? txMap.map.descendingKeySet() : txMap.map.keySet();
+            K fromMap = null;
+            for (var key : keys) {
+                var written = writes.get(key);
+                if (written == null || written.isSome()) {
+                    fromMap = key;
+                    break;
+                }
+            }
+
+            K fromWrites = null;
+            for (var entry : (descending ? writes.descendingMap() : writes).entrySet()) {
+                if (entry.getValue().isSome()) {
+                    fromWrites = entry.getKey();
+                    break;
+                }
+            }
+
+            if (fromMap == null) return fromWrites;
+            if (fromWrites == null) return fromMap;
+            int c = txMap.comparator.compare(fromMap, fromWrites);
+            return (descending ? c > 0 : c < 0) ? fromMap : fromWrites;
+        }
+
+        private FutureValue<Option<V>> write(K key, Option<V> next){
+            this.ensureActive();
+            this.lockWrite(key);
+            var prev = this.current(key);
+            this.buffer(key, prev, next);
+            return this.record(prev, new FutureValue<>());
+        }
+
+        //The key's write lock must be held
+        private void buffer(K key, Option<V> prev, Option<V> next){
+            if (prev.isSome() != next.isSome()) delta += next.isSome() ? 1 : -1;
+            writes.put(key, next);
+        }
+
+        private void lockWrite(K key){
+            if (writtenKeys.add(key) && !txMap.locks.writePoint(this, key, txMap.lockTimeoutNanos)) {
+                writtenKeys.remove(key);
+                this.fail("Timed out waiting for a lock");
+            }
+        }
+
+        private void lockRead(K key){
+            if (readKeys.contains(key) || writtenKeys.contains(key)) return;
+            if (!txMap.locks.readPoint(this, key, txMap.lockTimeoutNanos)) this.fail("Timed out waiting for a lock");
+            readKeys.add(key);
+        }
+
+        private void lockRange(Range<K> range){
+            if (!txMap.locks.readRange(this, range, txMap.lockTimeoutNanos)) this.fail("Timed out waiting for a range lock");
+            ranges.add(range);
+        }
+
+        private Option<V> current(K key){
+            var written = writes.get(key);
+            return written != null ? written : Option.ofNullable(txMap.map.get(key));
+        }
+
+        private <T> FutureValue<T> record(Object result, FutureValue<T> future){
+            futures.add(future);
+            results.add(result);
+            return future;
+        }
+
+        private void fail(String message){
+            this.abortParticipants();
+            this.releaseAll();
+            this.state = TransactionState.ABORTED;
+            throw new TransactionAbortedException(message);
+        }
+
+        private void ensureActive(){
+            if (state != TransactionState.NONE) throw new IllegalStateException("Transaction has already completed");
+        }
+
+        @Override
+        public void enlist(Transaction participant) {
+            this.ensureActive();
+            participants.add(participant);
+        }
+
+        @Override
+        public void commit() {
+            if (state != TransactionState.NONE) return;
+            writes.forEach((key, value) -> {
+                if (value.isSome()) txMap.map.put(key, value.unwrap());
+                else txMap.map.remove(key);
+            });
+            txMap.size.addAndGet(delta);
+            participants.forEach(Transaction::commit);
+
+            this.releaseAll();
+            for (int i = 0; i < futures.size(); i++) futures.get(i).complete(results.get(i));
+            this.state = TransactionState.COMMITTED;
+            futures.clear();
+            results.clear();
+            participants.clear();
+        }
+
+        @Override
+        public void abort() {
+            if (state != TransactionState.NONE) return;
+            this.abortParticipants();
+            this.releaseAll();
+            this.state = TransactionState.ABORTED;
+        }
+
+        private void abortParticipants(){
+            participants.forEach(Transaction::abort);
+            participants.clear();
+        }
+
+        private void releaseAll(){
+            readKeys.addAll(writtenKeys);
+            txMap.locks.releaseAll(this, readKeys, ranges);
+            readKeys.clear();
+            writtenKeys.clear();
+            ranges.clear();
+            writes.clear();
+            delta = 0;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return state == TransactionState.COMMITTED;
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return Option.none();
+        }
+
+        @Override
+        public TransactionState state() {
+            return state;
+        }
+    }
+}
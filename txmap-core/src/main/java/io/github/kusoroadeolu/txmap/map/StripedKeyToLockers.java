@@ -0,0 +1,77 @@
+package io.github.kusoroadeolu.txmap.map;
+
+/*
+ * Keys are hashed onto a fixed, power of two array of lock stripes, each stripe holding one guarded set per operation type.
+ * The lock footprint is bounded by the stripe count regardless of how many keys the map holds, at the cost of false conflicts
+ * between keys that share a stripe. Stripes are never reclaimed, so pinning is a no-op
+ * */
+final class StripedKeyToLockers<K> implements LockTable<K> {
+    private final Stripe[] stripes;
+    private final int mask;
+
+    StripedKeyToLockers(int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Stripe count must be a positive power of two, was: " + stripeCount);
+        }
+
+        this.stripes = new Stripe[stripeCount];
+        this.mask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++) stripes[i] = new Stripe();
+    }
+
+    @Override
+    public void pin(K key) {}
+
+    @Override
+    public void unpin(K key) {}
+
+    @Override
+    public GuardedTxSet getOrCreate(K key, Operation op) {
+        return this.stripeOf(key).setFor(op);
+    }
+
+    @Override
+    public long lockOrder(K key) {
+        return this.indexOf(key);
+    }
+
+    @Override
+    public int size() {
+        return stripes.length;
+    }
+
+    //Pins aren't tracked, so any key may be in use
+    @Override
+    public boolean isPinned(K key) {
+        return true;
+    }
+
+    @Override
+    public boolean runIfUnpinned(K key, Runnable action) {
+        return false;
+    }
+
+    int indexOf(K key){
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask; //Spread the higher bits down like ConcurrentHashMap does
+    }
+
+    private Stripe stripeOf(K key){
+        return stripes[this.indexOf(key)];
+    }
+
+    private static final class Stripe {
+        private final GuardedTxSet getSet = new GuardedTxSet();
+        private final GuardedTxSet containsSet = new GuardedTxSet();
+        private final GuardedTxSet modifySet = new GuardedTxSet();
+
+        GuardedTxSet setFor(Operation op){
+            return switch (op){
+                case Operation.GetOperation _ -> getSet;
+                case Operation.ContainsKeyOperation _ -> containsSet;
+                case Operation.ModifyOperation<?> _, Operation.MergeOperation<?> _ -> modifySet;
+                case Operation.SizeOperation _ -> throw new IllegalArgumentException("Size locks are not keyed");
+            };
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.FutureValue;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.jspecify.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/*
+ * An auto commit ConcurrentMap view of a map without a transaction free path, every op runs as a one op transaction through execute, retried with its default
+ * contention manager. Conditional writes(putIfAbsent, replace...) are computed by the transaction from the key's current value, see ComputingTransaction.
+ * Iteration reads the committed entries the map hands out, and can't remove. The rest of ConcurrentMap(compute, merge...) is built by its defaults out of these ops
+ * */
+final class TransactionPerOpMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    private final TransactionalMap<K, V> txMap;
+    private final Supplier<Map<K, V>> committed;
+
+    TransactionPerOpMap(TransactionalMap<K, V> txMap, Supplier<Map<K, V>> committed) {
+        this.txMap = txMap;
+        this.committed = committed;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V get(Object key) {
+        var k = (K) Objects.requireNonNull(key);
+        var value = txMap.execute(tx -> tx.get(k)).value().get();
+        return value.isSome() ? value.unwrap() : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key) {
+        var k = (K) Objects.requireNonNull(key);
+        return txMap.execute(tx -> tx.containsKey(k)).value().getAsBoolean();
+    }
+
+    @Override
+    public int size() {
+        return txMap.execute(tx -> tx.size()).value().getAsInt();
+    }
+
+    @Override
+    public @Nullable V put(K key, V value) {
+        Objects.requireNonNull(value);
+        return this.compute(key, _ -> Option.some(value));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable V remove(Object key) {
+        return this.compute((K) Objects.requireNonNull(key), _ -> Option.none());
+    }
+
+    @Override
+    public @Nullable V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(value);
+        return this.compute(key, current -> current.isSome() ? current : Option.some(value));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object key, Object value) {
+        var k = (K) Objects.requireNonNull(key);
+        if (value == null) return false;
+        return value.equals(this.compute(k, current -> current.isSome() && value.equals(current.unwrap()) ? Option.none() : current));
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        return oldValue.equals(this.compute(key, current -> current.isSome() && oldValue.equals(current.unwrap()) ? Option.some(newValue) : current));
+    }
+
+    @Override
+    public @Nullable V replace(K key, V value) {
+        Objects.requireNonNull(value);
+        return this.compute(key, current -> current.isSome() ? Option.some(value) : current);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return committed.get().entrySet();
+    }
+
+    //Runs the write as a one op transaction and returns the key's previous value
+    @SuppressWarnings("unchecked")
+    private @Nullable V compute(K key, UnaryOperator<Option<V>> fn){
+        FutureValue<Option<V>> future = txMap.execute(tx -> ((ComputingTransaction<K, V>) tx).compute(key, fn)).value();
+        var previous = (Option<V>) (Object) future.get(); //Write futures complete with the Option of the previous value itself
+        return previous.isSome() ? previous.unwrap() : null;
+    }
+}
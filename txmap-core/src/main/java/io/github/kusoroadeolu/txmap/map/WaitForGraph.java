@@ -0,0 +1,126 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Which transactions hold and wait for which locks of a map, so a waiter can follow who it waits on. A transaction waiting for a lock in one mode waits on every
+ * holder of it in a mode that mode can't share with, and on every transaction that queued for the lock before it, since an arrival never shares the lock past
+ * a queued waiter, see SemanticLock. Waiters are ordered by when they started waiting, which is the order they first queued in.
+ * The graph is only ever read while it changes, so a cycle found in it may already be gone by the time it's found. That costs the victim a needless abort, never
+ * correctness, and a real deadlock can't change so it's always found
+ * */
+final class WaitForGraph {
+    private final ConcurrentHashMap<SemanticLock, Holders> holders = new ConcurrentHashMap<>();
+    private final AtomicLong births = new AtomicLong();
+    private final AtomicLong arrivals = new AtomicLong(); //Orders the waiters of a lock
+
+    long nextBirth(){
+        return births.getAndIncrement();
+    }
+
+    void held(SemanticLock lock, HeldLocks tx, LockType type){
+        holders.compute(lock, (_, h) -> {
+            if (h == null) h = new Holders();
+            h.of(type).add(tx);
+            return h;
+        });
+    }
+
+    void released(SemanticLock lock, HeldLocks tx, LockType type){
+        holders.computeIfPresent(lock, (_, h) -> {
+            h.of(type).remove(tx);
+            return h.isEmpty() ? null : h;
+        });
+    }
+
+    void waiting(SemanticLock lock, HeldLocks tx){
+        long arrival = arrivals.getAndIncrement();
+        holders.compute(lock, (_, h) -> {
+            if (h == null) h = new Holders();
+            h.waiters.put(tx, arrival);
+            return h;
+        });
+    }
+
+    void stoppedWaiting(SemanticLock lock, HeldLocks tx){
+        holders.computeIfPresent(lock, (_, h) -> {
+            h.waiters.remove(tx);
+            return h.isEmpty() ? null : h;
+        });
+    }
+
+    //Walks the transactions the waiter waits on, and the ones they wait on, returns the youngest transaction on a cycle back to the waiter or null if there's none
+    @Nullable HeldLocks victimOf(HeldLocks waiter){
+        var path = new ArrayList<HeldLocks>();
+        var visited = Collections.newSetFromMap(new IdentityHashMap<HeldLocks, Boolean>());
+        return this.victimOf(waiter, waiter, path, visited);
+    }
+
+    private @Nullable HeldLocks victimOf(HeldLocks node, HeldLocks waiter, List<HeldLocks> path, Set<HeldLocks> visited){
+        var lock = node.waitingFor;
+        var h = lock == null ? null : holders.get(lock);
+        if (h == null) return null;
+
+        path.add(node);
+        for (var blocker : h.blocking(node, node.waitingMode)) {
+            if (blocker == node) continue;
+            if (blocker == waiter) return youngest(path);
+            if (visited.add(blocker)) {
+                var victim = this.victimOf(blocker, waiter, path, visited);
+                if (victim != null) return victim;
+            }
+        }
+        path.removeLast();
+        return null;
+    }
+
+    private static HeldLocks youngest(List<HeldLocks> cycle){
+        var youngest = cycle.getFirst();
+        for (var tx : cycle) {
+            if (tx.birth > youngest.birth) youngest = tx;
+        }
+        return youngest;
+    }
+
+    private static final class Holders {
+        final Set<HeldLocks> readers = ConcurrentHashMap.newKeySet();
+        final Set<HeldLocks> writers = ConcurrentHashMap.newKeySet();
+        final Set<HeldLocks> mergers = ConcurrentHashMap.newKeySet();
+        final ConcurrentHashMap<HeldLocks, Long> waiters = new ConcurrentHashMap<>(); //By arrival
+
+        Set<HeldLocks> of(LockType type){
+            return switch (type) {
+                case READ -> readers;
+                case WRITE -> writers;
+                case MERGE -> mergers;
+            };
+        }
+
+        //The holders a waiter in this mode waits on, and the waiters queued ahead of it
+        List<HeldLocks> blocking(HeldLocks waiter, LockType type){
+            var blocking = new ArrayList<>(writers);
+            if (type != LockType.READ) blocking.addAll(readers);
+            if (type != LockType.MERGE) blocking.addAll(mergers);
+            var arrival = waiters.get(waiter);
+            if (arrival != null) {
+                waiters.forEach((other, otherArrival) -> {
+                    if (otherArrival < arrival) blocking.add(other);
+                });
+            }
+            return blocking;
+        }
+
+        boolean isEmpty(){
+            return readers.isEmpty() && writers.isEmpty() && mergers.isEmpty() && waiters.isEmpty();
+        }
+    }
+}
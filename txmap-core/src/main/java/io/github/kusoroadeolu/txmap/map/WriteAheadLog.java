@@ -0,0 +1,302 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.Codec;
+import io.github.kusoroadeolu.txmap.Durability;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * An append only log of committed write sets. Each record is framed as [int payload length][int crc32c of the payload][payload],
+ * the payload being [int write count] followed by [byte type][int key length][key] and, for puts, [int value length][value] per write.
+ *
+ * Appends use group commit. A committer queues its record and, if no flush is running, becomes the leader and writes every queued record with one
+ * gathering write(and one fsync for FSYNC durability). Committers that queued while a flush was running wait for the next leader to cover them,
+ * so under load many transactions share one fsync.
+ * Once a flush fails the log is poisoned and every later append fails, since records after the failed ones could otherwise be replayed without them.
+ *
+ * Recovery replays every intact record into the map in log order and truncates the log at the first torn or corrupt record. A log paired with a checkpoint
+ * file is replayed over the image, a record the image already covers only rewrites a key to a value a later record or the image overwrites again.
+ * Once an image covering a prefix of the log is in place the prefix is dropped, the records after it are copied to a new log that replaces this one
+ * */
+final class WriteAheadLog<K, V> implements AutoCloseable {
+    private static final int FRAME_HEADER = Integer.BYTES * 2;
+    private static final byte PUT = 0, REMOVE = 1;
+
+    private final Path file;
+    private final @Nullable Path checkpoint; //The image this log is replayed over, if any
+    private FileChannel channel; //Only replaced by compact, under the lock while no flush runs
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final Durability durability;
+    private final ConcurrentMap<K, V> recovered;
+
+    //Group commit state, guarded by the lock
+    private final ReentrantLock lock;
+    private final Condition flushed;
+    private List<ByteBuffer> pending;
+    private long appended; //Sequence of the last queued record
+    private long durable; //Sequence of the last record a flush has covered
+    private boolean flushing;
+    private IOException failure;
+
+    private WriteAheadLog(Path file, @Nullable Path checkpoint, FileChannel channel, Codec<K> keyCodec, Codec<V> valueCodec, Durability durability, ConcurrentMap<K, V> recovered) {
+        this.file = file;
+        this.checkpoint = checkpoint;
+        this.channel = channel;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.durability = durability;
+        this.recovered = recovered;
+        this.lock = new ReentrantLock();
+        this.flushed = lock.newCondition();
+        this.pending = new ArrayList<>();
+    }
+
+    //Opens or creates the log, replaying its records into a new map or over the checkpoint's image if it exists
+    static <K, V> WriteAheadLog<K, V> open(Path file, @Nullable Path checkpoint, Codec<K> keyCodec, Codec<V> valueCodec, Durability durability){
+        try {
+            var recovered = checkpoint != null && Files.exists(checkpoint) ? CheckpointFile.read(checkpoint, keyCodec, valueCodec) : new ConcurrentHashMap<K, V>();
+            var channel = FileChannel.open(file, CREATE, READ, WRITE);
+            var log = new WriteAheadLog<>(file, checkpoint, channel, keyCodec, valueCodec, durability, recovered);
+            log.replay();
+            return log;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //The map the log was replayed into
+    ConcurrentMap<K, V> recovered(){
+        return recovered;
+    }
+
+    //Returns once the write set is as durable as the log's durability level
+    void append(List<Map.Entry<K, Option<V>>> writes){
+        var record = this.encode(writes);
+        lock.lock();
+        try {
+            this.ensureHealthy();
+            pending.add(record);
+            long sequence = ++appended;
+            while (durable < sequence) {
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    this.ensureHealthy();
+                    continue;
+                }
+
+                this.lead();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Must be called under the lock, which is released while the batch is written
+    private void lead(){
+        flushing = true;
+        var batch = pending.toArray(ByteBuffer[]::new);
+        long batchEnd = appended;
+        pending = new ArrayList<>();
+        lock.unlock();
+
+        IOException error = null;
+        try {
+            this.writeFully(batch);
+            if (durability == Durability.FSYNC) channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+
+        flushing = false;
+        if (error != null) failure = error;
+        else durable = batchEnd;
+        flushed.signalAll();
+        this.ensureHealthy();
+    }
+
+    private void writeFully(ByteBuffer[] batch) throws IOException {
+        long remaining = 0;
+        for (var buffer : batch) remaining += buffer.remaining();
+        while (remaining > 0) remaining -= channel.write(batch);
+    }
+
+    //The end of the last record appended, only a record boundary while no committer is appending
+    long position(){
+        lock.lock();
+        try {
+            while (flushing) flushed.awaitUninterruptibly();
+            return channel.position();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Makes every record appended so far durable, whatever the log's durability level
+    void force(){
+        lock.lock();
+        try {
+            while (flushing) flushed.awaitUninterruptibly();
+            this.ensureHealthy();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean compactsWith(Path image){
+        return image.equals(checkpoint);
+    }
+
+    //Drops the records before the position, which an image in place of the checkpoint file covers. Appends wait while the rest is copied
+    void compact(long position){
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        lock.lock();
+        try {
+            while (flushing) flushed.awaitUninterruptibly();
+            this.ensureHealthy();
+            long end = channel.position();
+            try (var copy = FileChannel.open(temp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                for (long at = position; at < end; ) at += channel.transferTo(at, end - at, copy);
+                copy.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = FileChannel.open(file, READ, WRITE);
+            channel.position(end - position);
+        } catch (IOException e) {
+            failure = e; //The log on disk is either the old one or the compacted one, but this channel may be neither
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureHealthy(){
+        if (failure != null) throw new UncheckedIOException("Write ahead log failed, no further commits are accepted", failure);
+    }
+
+    private ByteBuffer encode(List<Map.Entry<K, Option<V>>> writes){
+        int payload = Integer.BYTES;
+        for (var write : writes) {
+            payload += 1 + Integer.BYTES + keyCodec.size(write.getKey());
+            if (write.getValue().isSome()) payload += Integer.BYTES + valueCodec.size(write.getValue().unwrap());
+        }
+
+        var buffer = ByteBuffer.allocate(FRAME_HEADER + payload);
+        var segment = MemorySegment.ofBuffer(buffer);
+        buffer.position(FRAME_HEADER);
+        buffer.putInt(writes.size());
+        for (var write : writes) {
+            var value = write.getValue();
+            buffer.put(value.isSome() ? PUT : REMOVE);
+            int keySize = keyCodec.size(write.getKey());
+            buffer.putInt(keySize);
+            keyCodec.encode(write.getKey(), segment.asSlice(buffer.position(), keySize));
+            buffer.position(buffer.position() + keySize);
+            if (value.isSome()) {
+                int valueSize = valueCodec.size(value.unwrap());
+                buffer.putInt(valueSize);
+                valueCodec.encode(value.unwrap(), segment.asSlice(buffer.position(), valueSize));
+                buffer.position(buffer.position() + valueSize);
+            }
+        }
+
+        var crc = new CRC32C();
+        crc.update(buffer.array(), FRAME_HEADER, payload);
+        buffer.putInt(0, payload);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        return buffer.flip();
+    }
+
+    private void replay() throws IOException {
+        long position = 0;
+        long size = channel.size();
+        var header = ByteBuffer.allocate(FRAME_HEADER);
+        while (position + FRAME_HEADER <= size) {
+            header.clear();
+            if (!this.readFully(header, position)) break;
+            int payloadSize = header.getInt(0);
+            int checksum = header.getInt(Integer.BYTES);
+            if (payloadSize < Integer.BYTES || position + FRAME_HEADER + payloadSize > size) break; //Torn tail
+
+            var payload = ByteBuffer.allocate(payloadSize);
+            if (!this.readFully(payload, position + FRAME_HEADER)) break;
+            var crc = new CRC32C();
+            crc.update(payload.array(), 0, payloadSize);
+            if ((int) crc.getValue() != checksum) break; //Corrupt, nothing after it can be trusted
+
+            this.apply(payload.flip());
+            position += FRAME_HEADER + payloadSize;
+        }
+
+        if (position < size) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) return false;
+        }
+        return true;
+    }
+
+    private void apply(ByteBuffer payload){
+        var segment = MemorySegment.ofBuffer(payload);
+        int count = payload.getInt();
+        for (int i = 0; i < count; i++) {
+            byte type = payload.get();
+            int keySize = payload.getInt();
+            K key = keyCodec.decode(segment.asSlice(payload.position(), keySize));
+            payload.position(payload.position() + keySize);
+            if (type == PUT) {
+                int valueSize = payload.getInt();
+                V value = valueCodec.decode(segment.asSlice(payload.position(), valueSize));
+                payload.position(payload.position() + valueSize);
+                recovered.put(key, value);
+            } else recovered.remove(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            while (flushing) flushed.awaitUninterruptibly();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.github.kusoroadeolu.txmap.queue;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.*;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/*
+ * A transactional work queue with reduced isolation over a ConcurrentLinkedDeque:
+ * 1. offer is buffered and appended to the tail at commit, so no other transaction sees an item before its producer commits
+ * 2. poll unlinks the head as soon as it's registered, like an open nested transaction, and keeps the item in the tx's undo buffer
+ * 3. abort pushes the undo buffer back onto the head in the order it was polled, commit forgets it
+ * No transaction ever locks the queue, consumers only race on the deque's head CAS, so they never conflict or abort on each other. The cost is isolation,
+ * a consumer can see the queue without an item another open transaction polled, so items behind it can be handed out and committed before it if that transaction aborts.
+ * Each item is still handed to exactly one committed consumer
+ *
+ * A queue transaction that joined a map transaction is enlisted with it and only finished by it, after the map's writes are applied and before its locks
+ * are released, or when it aborts
+ *
+ * Happens before guarantees
+ * 1. The append of a transaction's offers happens before its commit returns, and the deque publishes them to every later poll
+ * 2. The return of a transaction's polled items happens before its abort returns
+ * */
+public class LinkedTransactionalQueue<E> implements TransactionalQueue<E> {
+    private final ConcurrentLinkedDeque<E> queue;
+
+    public LinkedTransactionalQueue() {
+        this.queue = new ConcurrentLinkedDeque<>();
+    }
+
+    @Override
+    public QueueTransaction<E> beginTx() {
+        return new LinkedQueueTransaction<>(this, null);
+    }
+
+    @Override
+    public QueueTransaction<E> join(MapTransaction<?, ?> tx) {
+        var qtx = new LinkedQueueTransaction<>(this, tx);
+        tx.enlist(new Enlisted<>(qtx));
+        return qtx;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    static final class LinkedQueueTransaction<E> implements QueueTransaction<E> {
+        private final LinkedTransactionalQueue<E> txQueue;
+        private final @Nullable MapTransaction<?, ?> parent; //Set if this tx joined a map transaction
+        private final List<E> offers;
+        private final ArrayDeque<E> polled; //Taken from the queue, oldest first
+        TransactionState state;
+
+        LinkedQueueTransaction(LinkedTransactionalQueue<E> txQueue, @Nullable MapTransaction<?, ?> parent) {
+            this.txQueue = txQueue;
+            this.parent = parent;
+            this.offers = new ArrayList<>();
+            this.polled = new ArrayDeque<>();
+            this.state = TransactionState.NONE;
+        }
+
+        @Override
+        public void offer(E item) {
+            this.ensureActive();
+            offers.add(item);
+        }
+
+        @Override
+        public Option<E> poll() {
+            this.ensureActive();
+            var item = txQueue.queue.pollFirst();
+            if (item != null) {
+                polled.add(item);
+                return Option.some(item);
+            }
+            return offers.isEmpty() ? Option.none() : Option.some(offers.removeFirst()); //Never reached the queue, nothing to undo
+        }
+
+        @Override
+        public void commit() {
+            if (parent != null) throw new IllegalStateException("A joined queue transaction commits with its map transaction");
+            this.finish();
+        }
+
+        @Override
+        public void abort() {
+            if (parent != null) parent.abort(); //Which rolls this tx back through its enlistment
+            else this.rollback();
+        }
+
+        @Override
+        public void close() {
+            if (parent == null) QueueTransaction.super.close();
+        }
+
+        void finish(){
+            if (state != TransactionState.NONE) return;
+            txQueue.queue.addAll(offers);
+            offers.clear();
+            polled.clear();
+            state = TransactionState.COMMITTED;
+        }
+
+        void rollback(){
+            if (state != TransactionState.NONE) return;
+            while (!polled.isEmpty()) txQueue.queue.offerFirst(polled.removeLast());
+            offers.clear();
+            state = TransactionState.ABORTED;
+        }
+
+        private void ensureActive(){
+            if (state != TransactionState.NONE) throw new IllegalStateException("Transaction has already completed");
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return state == TransactionState.COMMITTED;
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return Option.<Transaction>ofNullable(parent);
+        }
+
+        @Override
+        public TransactionState state() {
+            return state;
+        }
+    }
+
+    //What the map transaction finishes, kept apart from the queue transaction so the joined one's own commit can refuse to run
+    private record Enlisted<E>(LinkedQueueTransaction<E> tx) implements Transaction {
+        @Override
+        public void commit() {
+            tx.finish();
+        }
+
+        @Override
+        public void abort() {
+            tx.rollback();
+        }
+
+        @Override
+        public Option<Transaction> parent() {
+            return tx.parent();
+        }
+
+        @Override
+        public TransactionState state() {
+            return tx.state();
+        }
+    }
+}
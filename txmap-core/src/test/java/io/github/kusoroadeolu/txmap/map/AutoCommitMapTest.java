@@ -0,0 +1,165 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import io.github.kusoroadeolu.txmap.TransactionalSortedMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AutoCommitMapTest {
+
+    @Test
+    void singleOps_onUnusedKeys_behaveLikeAConcurrentMap() {
+        var txMap = TransactionalMap.<String, Integer>create();
+        var view = txMap.asConcurrentMap();
+
+        assertNull(view.put("a", 1));
+        assertEquals((Integer) 1, view.put("a", 2));
+        assertEquals((Integer) 2, view.putIfAbsent("a", 3));
+        assertNull(view.putIfAbsent("b", 3));
+        assertFalse(view.replace("a", 1, 5));
+        assertTrue(view.replace("a", 2, 5));
+        assertNull(view.replace("missing", 1));
+        assertFalse(view.remove("b", 4));
+        assertTrue(view.remove("b", 3));
+        assertEquals((Integer) 6, view.merge("a", 1, Integer::sum));
+        assertTrue(view.containsKey("a"));
+        assertFalse(view.containsKey("b"));
+        assertEquals(Map.of("a", 6), Map.copyOf(view));
+        assertEquals(1, view.size());
+
+        try (var tx = txMap.beginTx()) {
+            var get = tx.get("a");
+            var size = tx.size();
+            tx.commit();
+            assertEquals(Option.some(6), get.get());
+            assertEquals(1, size.getAsInt());
+        }
+    }
+
+    @Test
+    void views_ofEveryOtherMap_behaveLikeAConcurrentMap() {
+        for (var txMap : List.of(TransactionalMap.<String, Integer>sharded(4), TransactionalMap.<String, Integer>pessimistic(), TransactionalMap.<String, Integer>multiVersion(),
+                TransactionalMap.<String, Integer>combining(), TransactionalSortedMap.<String, Integer>create())) {
+            var view = txMap.asConcurrentMap();
+
+            assertNull(view.put("a", 1));
+            assertEquals((Integer) 1, view.put("a", 2));
+            assertEquals((Integer) 2, view.putIfAbsent("a", 3));
+            assertNull(view.putIfAbsent("b", 3));
+            assertFalse(view.replace("a", 1, 5));
+            assertTrue(view.replace("a", 2, 5));
+            assertNull(view.replace("missing", 1));
+            assertFalse(view.remove("b", 4));
+            assertTrue(view.remove("b", 3));
+            assertEquals((Integer) 6, view.merge("a", 1, Integer::sum));
+            assertTrue(view.containsKey("a"));
+            assertFalse(view.containsKey("b"));
+            assertEquals(Map.of("a", 6), Map.copyOf(view));
+            assertEquals(1, view.size());
+        }
+    }
+
+    @Test
+    void concurrentViewMerges_onEveryOtherMap_sumEveryDelta() throws InterruptedException {
+        for (var txMap : List.of(TransactionalMap.<String, Integer>sharded(4), TransactionalMap.<String, Integer>pessimistic(), TransactionalMap.<String, Integer>multiVersion(),
+                TransactionalMap.<String, Integer>combining(), TransactionalSortedMap.<String, Integer>create())) {
+            var view = txMap.asConcurrentMap();
+            int threads = 4;
+            int perThread = 250;
+            var executor = Executors.newFixedThreadPool(threads);
+            var doneGate = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) view.merge("counter", 1, Integer::sum); //A get then a conditional write, retried when it loses the key
+                    doneGate.countDown();
+                });
+            }
+
+            assertTrue(doneGate.await(30, TimeUnit.SECONDS));
+            executor.shutdown();
+            assertEquals((Integer) (threads * perThread), view.get("counter"));
+        }
+    }
+
+    @Test
+    void conditionalOps_onAPinnedKey_runAsTransactions() {
+        var txMap = TransactionalMap.<String, Integer>create();
+        var view = txMap.asConcurrentMap();
+        view.put("k", 1);
+
+        var open = txMap.beginTx();
+        open.put("k", 100); //Pins the key, its locks are only taken at commit
+
+        assertEquals((Integer) 1, view.putIfAbsent("k", 2));
+        assertTrue(view.replace("k", 1, 3));
+        assertEquals((Integer) 3, view.get("k"));
+        assertTrue(view.remove("k", 3));
+        assertNull(view.putIfAbsent("k", 4));
+        assertEquals(1, view.size());
+
+        open.abort();
+        assertEquals((Integer) 4, view.get("k"));
+    }
+
+    @Test
+    void write_toAKeyReadByAnOpenTransaction_waitsForItToCommit() throws Exception {
+        var txMap = TransactionalMap.<String, Integer>create();
+        var view = txMap.asConcurrentMap();
+        view.put("k", 1);
+
+        var reader = txMap.beginTx();
+        var read = reader.get("k");
+        var write = CompletableFuture.supplyAsync(() -> view.put("k", 2));
+        Thread.sleep(50);
+        assertFalse(write.isDone());
+
+        reader.commit();
+        assertEquals(Option.some(1), read.get());
+        assertEquals((Integer) 1, write.get(5, TimeUnit.SECONDS));
+        assertEquals((Integer) 2, view.get("k"));
+    }
+
+    @Test
+    void concurrentViewAndTransactionWrites_keepTheSizeExact() throws InterruptedException {
+        var txMap = TransactionalMap.<Integer, Integer>create();
+        var view = txMap.asConcurrentMap();
+        int threads = 8;
+        int keys = 64;
+        var executor = Executors.newFixedThreadPool(threads);
+        var doneGate = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    int key = (i * 31 + thread) % keys;
+                    if (thread % 2 == 1) {
+                        txMap.execute(tx -> {
+                            tx.put(key, thread);
+                            return tx.remove((key + 1) % keys);
+                        });
+                    } else if (i % 100 == 0) {
+                        view.size(); //Registers a size reader, so concurrent direct writes that change the size fall back to transactions
+                    } else if (i % 2 == 0) {
+                        view.put(key, i);
+                    } else {
+                        view.remove(key);
+                    }
+                }
+                doneGate.countDown();
+            });
+        }
+
+        assertTrue(doneGate.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(view.entrySet().size(), view.size());
+    }
+}
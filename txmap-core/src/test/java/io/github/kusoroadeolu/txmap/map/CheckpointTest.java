@@ -0,0 +1,198 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.CheckpointableMap;
+import io.github.kusoroadeolu.txmap.Codec;
+import io.github.kusoroadeolu.txmap.Durability;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointTest {
+    private Path dir;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("txmap-checkpoint");
+        file = dir.resolve("map.ckpt");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    void checkpoint_thenLoad_restoresEveryEntry() {
+        var txMap = new OptimisticTransactionalMap<String, Long>();
+        try (var tx = txMap.beginTx()) {
+            for (long i = 0; i < 10_000; i++) tx.put("key-" + i, i);
+            tx.remove("key-0");
+            tx.commit();
+        }
+
+        txMap.checkpoint(file, Codec.utf8(), Codec.int64());
+        var loaded = OptimisticTransactionalMap.fromCheckpoint(file, Codec.utf8(), Codec.int64());
+
+        try (var tx = loaded.beginTx()) {
+            var size = tx.size();
+            var removed = tx.containsKey("key-0");
+            var last = tx.get("key-9999");
+            tx.commit();
+            assertEquals(Option.some(9_999), size.get());
+            assertEquals(Option.some(false), removed.get());
+            assertEquals(Option.some(9_999L), last.get());
+        }
+    }
+
+    @Test
+    void checkpoint_duringCommits_capturesWholeTransactions() throws InterruptedException {
+        var txMap = new OptimisticTransactionalMap<String, Long>();
+        var running = new AtomicBoolean(true);
+        var writer = Thread.ofPlatform().start(() -> {
+            for (long i = 0; running.get(); i++) {
+                try (var tx = txMap.beginTx()) {
+                    tx.put("left", i);
+                    tx.put("right", i);
+                    tx.commit();
+                }
+            }
+        });
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                txMap.checkpoint(file, Codec.utf8(), Codec.int64());
+                var loaded = CheckpointFile.read(file, Codec.utf8(), Codec.int64());
+                assertEquals(loaded.get("left"), loaded.get("right"));
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    void checkpoint_duringInsertsAndRemovals_seesEachKeyOnce() throws InterruptedException {
+        var txMap = new OptimisticTransactionalMap<String, Long>();
+        try (var tx = txMap.beginTx()) {
+            for (long i = 0; i < 5_000; i++) tx.put("fill-" + i, i); //Iterated while the token moves
+            tx.put("token-0", 0L);
+            tx.commit();
+        }
+
+        var running = new AtomicBoolean(true);
+        var writer = Thread.ofPlatform().start(() -> {
+            for (long i = 0; running.get(); i++) {
+                try (var tx = txMap.beginTx()) {
+                    tx.remove("token-" + (i % 64));
+                    tx.put("token-" + ((i + 1) % 64), i + 1);
+                    tx.commit();
+                }
+            }
+        });
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                txMap.checkpoint(file, Codec.utf8(), Codec.int64());
+                var loaded = CheckpointFile.read(file, Codec.utf8(), Codec.int64());
+                assertEquals(1, loaded.keySet().stream().filter(k -> k.startsWith("token-")).count());
+                assertEquals(5_001, loaded.size());
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    void durableCheckpoint_dropsTheLogItCovers_andRecoversOverTheImage() throws IOException {
+        var log = dir.resolve("map.wal");
+        try {
+            try (var txMap = TransactionalMap.durable(log, file, Codec.utf8(), Codec.int64(), Durability.WRITE)) {
+                for (long i = 0; i < 100; i++) {
+                    try (var tx = txMap.beginTx()) {
+                        tx.put("key-" + i, i);
+                        tx.commit();
+                    }
+                }
+                long full = Files.size(log);
+                txMap.checkpoint(file, Codec.utf8(), Codec.int64());
+                assertEquals(0, Files.size(log));
+
+                try (var tx = txMap.beginTx()) {
+                    tx.remove("key-0");
+                    tx.put("after", 1L);
+                    tx.commit();
+                }
+                assertTrue(Files.size(log) < full);
+            }
+
+            try (var txMap = TransactionalMap.durable(log, file, Codec.utf8(), Codec.int64(), Durability.WRITE); var tx = txMap.beginTx()) {
+                var size = tx.size();
+                var removed = tx.containsKey("key-0");
+                var kept = tx.get("key-99");
+                var after = tx.get("after");
+                tx.commit();
+                assertEquals(Option.some(100), size.get());
+                assertEquals(Option.some(false), removed.get());
+                assertEquals(Option.some(99L), kept.get());
+                assertEquals(Option.some(1L), after.get());
+            }
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test
+    void multiVersionCheckpoint_writesItsSnapshot() {
+        var txMap = TransactionalMap.<String, Long>multiVersion();
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1L);
+            tx.put("b", 2L);
+            tx.commit();
+        }
+        try (var tx = txMap.beginTx()) {
+            tx.remove("a");
+            tx.commit();
+        }
+
+        txMap.checkpoint(file, Codec.utf8(), Codec.int64());
+        assertEquals(Map.of("b", 2L), Map.copyOf(CheckpointFile.read(file, Codec.utf8(), Codec.int64())));
+    }
+
+    @Test
+    void onlyMapsThatCheckpoint_exposeIt() {
+        assertInstanceOf(CheckpointableMap.class, TransactionalMap.create());
+        assertInstanceOf(CheckpointableMap.class, TransactionalMap.multiVersion());
+        assertFalse(TransactionalMap.sharded() instanceof CheckpointableMap);
+        assertFalse(TransactionalMap.pessimistic() instanceof CheckpointableMap);
+        assertFalse(TransactionalMap.combining() instanceof CheckpointableMap);
+    }
+
+    @Test
+    void corruptImage_isRejected() throws IOException {
+        var txMap = new OptimisticTransactionalMap<String, Long>();
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1L);
+            tx.commit();
+        }
+
+        txMap.checkpoint(file, Codec.utf8(), Codec.int64());
+        var bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        assertThrows(IllegalArgumentException.class, () -> OptimisticTransactionalMap.fromCheckpoint(file, Codec.utf8(), Codec.int64()));
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CombinerTransactionalMapTest {
+    private CombinerTransactionalMap<String, Integer> txMap;
+
+    @BeforeEach
+    void setUp() {
+        txMap = new CombinerTransactionalMap<>();
+    }
+
+    @Test
+    void ops_areAppliedInRegistrationOrder() {
+        try (var tx = txMap.beginTx()) {
+            var put = tx.put("a", 1);
+            var overwrite = tx.put("a", 2);
+            var get = tx.get("a");
+            var size = tx.size();
+            tx.commit();
+
+            assertTrue(put.get().isNone());
+            assertEquals(Option.some(1), overwrite.get());
+            assertEquals(Option.some(2), get.get());
+            assertEquals(Option.some(1), size.get());
+        }
+    }
+
+    @Test
+    void abortedTx_isNeverApplied() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("x", 1);
+            tx.abort();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var contains = tx.containsKey("x");
+            tx.commit();
+            assertEquals(Option.some(false), contains.get());
+        }
+    }
+
+    @Test
+    void nulls_areRejectedWhenRegistered() {
+        try (var tx = txMap.beginTx()) {
+            assertThrows(NullPointerException.class, () -> tx.put("a", null));
+            assertThrows(NullPointerException.class, () -> tx.get(null));
+            tx.put("a", 1);
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var get = tx.get("a");
+            tx.commit();
+            assertEquals(Option.some(1), get.get());
+        }
+    }
+
+    @Test
+    void failingTx_isUndone_andRethrownToItsOwner() {
+        var map = new CombinerTransactionalMap<Object, Integer>();
+        var poisoned = new Object() {
+            @Override
+            public int hashCode() {
+                throw new IllegalStateException("poisoned");
+            }
+        };
+
+        var tx = map.beginTx();
+        tx.put("a", 1);
+        tx.put(poisoned, 2);
+        var thrown = assertThrows(IllegalStateException.class, tx::commit);
+        assertEquals("poisoned", thrown.getMessage());
+        assertFalse(tx.isCommitted());
+
+        try (var next = map.beginTx()) { //The combiner isn't stuck on the failed tx
+            var contains = next.containsKey("a");
+            var size = next.size();
+            next.commit();
+            assertEquals(Option.some(false), contains.get());
+            assertEquals(Option.some(0), size.get());
+        }
+    }
+
+    @Test
+    void singleReads_neverSeeATransactionPartwayApplied() throws Exception {
+        var stop = new AtomicBoolean();
+        var torn = new AtomicInteger();
+        try (var executor = Executors.newFixedThreadPool(3)) {
+            var writer = executor.submit(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    try (var tx = txMap.beginTx()) {
+                        tx.put("k", -1); //Overwritten by the same tx, never committed
+                        tx.put("k", i);
+                        tx.commit();
+                    }
+                }
+                stop.set(true);
+            });
+            for (int r = 0; r < 2; r++) {
+                executor.submit(() -> {
+                    while (!stop.get()) {
+                        try (var tx = txMap.beginTx()) {
+                            var get = tx.get("k");
+                            tx.commit();
+                            if (get.get().isSome() && get.get().unwrap() < 0) torn.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            writer.get(30, TimeUnit.SECONDS);
+        }
+
+        assertEquals(0, torn.get());
+    }
+
+    @Test
+    void concurrentTransactions_areAppliedAtomically() throws InterruptedException {
+        int threads = 8;
+        int txPerThread = 1000;
+        var latch = new CountDownLatch(threads);
+        var torn = new AtomicInteger();
+
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                executor.submit(() -> {
+                    try {
+                        for (int i = 0; i < txPerThread; i++) {
+                            try (var tx = txMap.beginTx()) {
+                                if (id % 2 == 0) {
+                                    tx.put("left", i);
+                                    tx.put("right", i);
+                                    tx.put("t" + id + "-" + i, i);
+                                    tx.commit();
+                                } else {
+                                    var left = tx.get("left");
+                                    var right = tx.get("right");
+                                    tx.commit();
+                                    if (!left.get().equals(right.get())) torn.incrementAndGet();
+                                }
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, torn.get());
+        try (var tx = txMap.beginTx()) {
+            var size = tx.size();
+            tx.commit();
+            assertEquals(Option.some(2 + (threads / 2) * txPerThread), size.get());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.ContentionManager;
+import io.github.kusoroadeolu.txmap.TransactionAbortedException;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecuteTest {
+
+    @Test
+    void execute_commitsBody_withoutRetries() {
+        var txMap = TransactionalMap.<String, Integer>create();
+        var result = txMap.execute(tx -> tx.put("a", 1));
+
+        assertEquals(0, result.retries());
+        assertTrue(result.value().get().isNone());
+        try (var tx = txMap.beginTx()) {
+            var get = tx.get("a");
+            tx.commit();
+            assertEquals(Option.some(1), get.get());
+        }
+    }
+
+    @Test
+    void execute_abortedAttempt_rerunsBodyInAFreshTransaction() {
+        var txMap = TransactionalMap.<String, Integer>multiVersion();
+        var attempts = new AtomicInteger();
+        var result = txMap.execute(tx -> {
+            var put = tx.put("a", 1);
+            if (attempts.incrementAndGet() == 1) { // A newer transaction commits the key first, so this attempt loses
+                try (var other = txMap.beginTx()) {
+                    other.put("a", 2);
+                    other.commit();
+                }
+            }
+            return put;
+        }, ContentionManager.backoff(Duration.ofNanos(100), Duration.ofNanos(1_000), 4));
+
+        assertEquals(1, result.retries());
+        assertEquals(2, attempts.get());
+        assertEquals(Option.some(2), result.value().get());
+    }
+
+    @Test
+    void execute_managerGivesUp_rethrowsAbort() {
+        var txMap = TransactionalMap.<String, Integer>multiVersion();
+        var attempts = new AtomicInteger();
+        assertThrows(TransactionAbortedException.class, () -> txMap.execute(tx -> {
+            attempts.incrementAndGet();
+            var put = tx.put("a", 1);
+            try (var other = txMap.beginTx()) { // Always loses
+                other.put("a", 2);
+                other.commit();
+            }
+            return put;
+        }, ContentionManager.yielding(3)));
+
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void execute_otherException_abortsAndPropagates() {
+        var txMap = TransactionalMap.<String, Integer>create();
+        assertThrows(IllegalStateException.class, () -> txMap.execute(tx -> {
+            tx.put("a", 1);
+            throw new IllegalStateException();
+        }));
+
+        try (var tx = txMap.beginTx()) {
+            var contains = tx.containsKey("a");
+            tx.commit();
+            assertFalse(contains.getAsBoolean());
+        }
+    }
+
+    @Test
+    void karma_waitsLessAfterMoreAborts() {
+        var karma = ContentionManager.karma(Duration.ZERO, Duration.ofMillis(50), 10);
+        long start = System.nanoTime();
+        for (int attempt = 9; attempt > 5; attempt--) assertTrue(karma.onAbort(attempt));
+        assertTrue(System.nanoTime() - start < Duration.ofMillis(50).toNanos());
+        assertFalse(karma.onAbort(10));
+    }
+}
@@ -0,0 +1,166 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.TransactionAbortedException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType.MERGE;
+import static io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType.READ;
+import static io.github.kusoroadeolu.txmap.map.OptimisticTransactionalMap.LockType.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeldLocksTest {
+
+    @Test
+    void acquire_sameLockAndMode_locksOnce() {
+        var held = new HeldLocks();
+        var lock = new SemanticLock();
+
+        assertTrue(held.acquire(lock, READ));
+        assertFalse(held.acquire(lock, READ));
+        assertEquals(1, lock.holders(READ));
+
+        assertTrue(held.release(lock, READ));
+        assertFalse(held.release(lock, READ));
+        assertEquals(0, lock.holders(READ));
+    }
+
+    @Test
+    void releaseAll_afterGrowing_unlocksEveryLock() {
+        var held = new HeldLocks();
+        var locks = new ArrayList<SemanticLock>();
+        for (int i = 0; i < 1_000; i++) {
+            var lock = new SemanticLock();
+            locks.add(lock);
+            held.acquire(lock, i % 2 == 0 ? READ : WRITE);
+        }
+
+        held.releaseAll();
+        held.clear();
+        for (var lock : locks) {
+            assertEquals(0, lock.holders(READ));
+            assertEquals(0, lock.holders(WRITE));
+        }
+
+        // Reusable once cleared
+        assertTrue(held.acquire(locks.getFirst(), WRITE));
+        held.releaseAll();
+        assertEquals(0, locks.getFirst().holders(WRITE));
+    }
+
+    @Test
+    void acquire_pastTheBudget_throwsWithoutHoldingTheLock() throws Exception {
+        var lock = new SemanticLock();
+        CompletableFuture.runAsync(() -> lock.lock(WRITE).lock()).get(); // Held by a thread that never releases it
+
+        var held = new HeldLocks(Duration.ofMillis(20).toNanos(), null);
+        assertThrows(TransactionAbortedException.class, () -> held.acquire(lock, READ));
+        assertEquals(0, lock.holders(READ));
+        held.releaseAll();
+    }
+
+    @Test
+    void awaitWriters_pastTheBudget_throws() {
+        var tracker = new SizeTracker(0);
+        assertTrue(tracker.tryEnterWriter(0)); // A writer that never leaves
+
+        var held = new HeldLocks(Duration.ofMillis(20).toNanos(), null);
+        assertThrows(TransactionAbortedException.class, () -> held.awaitWriters(tracker));
+        tracker.exitWriter(0);
+        held.awaitWriters(tracker);
+    }
+
+    @Test
+    void acquire_onACycle_picksTheYoungestAsVictim() throws Exception {
+        var graph = new WaitForGraph();
+        var older = new HeldLocks(Duration.ofSeconds(10).toNanos(), graph);
+        var younger = new HeldLocks(Duration.ofSeconds(10).toNanos(), graph);
+        var a = new SemanticLock();
+        var b = new SemanticLock();
+        var barrier = new CyclicBarrier(2);
+
+        // Each reads one lock then wants to write the other's, neither can go on until one gives up
+        var olderRun = CompletableFuture.runAsync(() -> {
+            older.acquire(a, READ);
+            await(barrier);
+            older.acquire(b, WRITE);
+            older.releaseAll();
+        });
+        var youngerRun = CompletableFuture.runAsync(() -> {
+            younger.acquire(b, READ);
+            await(barrier);
+            try {
+                younger.acquire(a, WRITE);
+            } finally {
+                younger.releaseAll();
+            }
+        });
+
+        olderRun.get(5, TimeUnit.SECONDS);
+        var thrown = assertThrows(Exception.class, () -> youngerRun.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TransactionAbortedException.class, thrown.getCause());
+    }
+
+    @Test
+    void victimOf_aCycleThroughAQueuedWaiter_findsIt() {
+        var graph = new WaitForGraph();
+        var first = new HeldLocks(Duration.ofSeconds(10).toNanos(), graph);
+        var queued = new HeldLocks(Duration.ofSeconds(10).toNanos(), graph);
+        var third = new HeldLocks(Duration.ofSeconds(10).toNanos(), graph);
+        var a = new SemanticLock();
+        var b = new SemanticLock();
+
+        // The queued writer waits on the reader of a, the reader of a waits on the writer of b, and the writer of b can't share a with the
+        // reader past the writer queued ahead of it. No one holds a in a mode the writer of b can't share, only the queue closes the cycle
+        graph.held(b, first, WRITE);
+        graph.held(a, third, READ);
+        waitFor(graph, queued, a, WRITE);
+        waitFor(graph, first, a, READ);
+        waitFor(graph, third, b, READ);
+
+        assertSame(third, graph.victimOf(first));
+        assertSame(third, graph.victimOf(queued));
+
+        // Once the queued writer gives up, nothing the writer of b waits on waits on it
+        graph.stoppedWaiting(a, queued);
+        queued.waitingFor = null;
+        assertNull(graph.victimOf(first));
+    }
+
+    @Test
+    void merges_shareTheLock_butExcludeReaders() throws Exception {
+        var lock = new SemanticLock();
+        var first = new HeldLocks(Duration.ofMillis(20).toNanos(), null);
+        var second = new HeldLocks(Duration.ofMillis(20).toNanos(), null);
+        var reader = new HeldLocks(Duration.ofMillis(20).toNanos(), null);
+
+        assertTrue(first.acquire(lock, MERGE));
+        CompletableFuture.runAsync(() -> assertTrue(second.acquire(lock, MERGE))).get();
+        assertEquals(2, lock.holders(MERGE));
+        assertThrows(TransactionAbortedException.class, () -> reader.acquire(lock, READ));
+
+        first.releaseAll();
+        CompletableFuture.runAsync(second::releaseAll).get();
+        assertTrue(reader.acquire(lock, READ));
+        reader.releaseAll();
+    }
+
+    private static void waitFor(WaitForGraph graph, HeldLocks tx, SemanticLock lock, OptimisticTransactionalMap.LockType type){
+        tx.waitingMode = type;
+        tx.waitingFor = lock;
+        graph.waiting(lock, tx);
+    }
+
+    private static void await(CyclicBarrier barrier){
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.Codec;
+import io.github.kusoroadeolu.txmap.TransactionState;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import io.github.kusoroadeolu.txmap.TransactionalSortedMap;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeTest {
+
+    @Test
+    void merge_missingKey_insertsTheValueAndChangesSize() {
+        var txMap = TransactionalMap.<String, Long>create();
+        try (var tx = txMap.beginTx()) {
+            var first = tx.merge("hits", 3L, Long::sum);
+            var second = tx.merge("hits", 4L, Long::sum);
+            var size = tx.size();
+            tx.commit();
+
+            assertEquals(Option.some(3L), first.get());
+            assertEquals(Option.some(7L), second.get());
+            assertEquals(1, size.getAsInt());
+        }
+    }
+
+    @Test
+    void merge_afterPut_foldsIntoTheBufferedWrite() {
+        var txMap = TransactionalMap.<String, String>create();
+        try (var tx = txMap.beginTx()) {
+            tx.put("k", "a");
+            var merged = tx.merge("k", "b", String::concat);
+            var get = tx.get("k");
+            tx.commit();
+
+            assertEquals(Option.some("ab"), merged.get());
+            assertEquals(Option.some("ab"), get.get());
+        }
+    }
+
+    @Test
+    void merge_onMapsWithoutMergeLocks_writesTheMergedValue() {
+        for (var txMap : List.of(TransactionalMap.<String, Long>pessimistic(), TransactionalMap.<String, Long>multiVersion(), TransactionalMap.<String, Long>combining(),
+                TransactionalMap.<String, Long>sharded(4), TransactionalSortedMap.<String, Long>create())) {
+            txMap.execute(tx -> tx.put("b", 10L));
+            try (var tx = txMap.beginTx()) {
+                var first = tx.merge("a", 3L, Long::sum);
+                var second = tx.merge("a", 4L, Long::sum);
+                var onB = tx.merge("b", 5L, Long::sum);
+                var get = tx.get("b");
+                var size = tx.size();
+                tx.commit();
+
+                assertEquals(Option.some(3L), first.get());
+                assertEquals(Option.some(7L), second.get());
+                assertEquals(Option.some(15L), onB.get());
+                assertEquals(Option.some(15L), get.get());
+                assertEquals(2, size.getAsInt());
+            }
+
+            var tx = txMap.beginTx();
+            tx.put("b", 1L);
+            assertThrows(NullPointerException.class, () -> {
+                tx.merge("a", 1L, (_, _) -> null); //Thrown here by the maps that evaluate ops as they're registered
+                tx.commit();
+            });
+            tx.abort();
+
+            var after = txMap.execute(t -> List.of(t.get("a"), t.get("b"))).value();
+            assertEquals(Option.some(7L), after.get(0).get());
+            assertEquals(Option.some(15L), after.get(1).get());
+        }
+    }
+
+    @Test
+    void failingMerge_undoesTheTx_andReleasesEverything() throws Exception {
+        for (var txMap : List.of(TransactionalMap.<String, Long>create(), TransactionalMap.<String, Long>optimisticReads())) {
+            txMap.execute(tx -> tx.put("b", 1L));
+
+            for (BinaryOperator<Long> fn : List.<BinaryOperator<Long>>of((_, _) -> { throw new IllegalStateException(); }, (_, _) -> null)) {
+                var tx = txMap.beginTx();
+                tx.put("a", 1L);
+                tx.merge("b", 1L, fn);
+                assertThrows(RuntimeException.class, tx::commit);
+                assertEquals(TransactionState.ABORTED, tx.state());
+            }
+
+            //Nothing was left applied, locked or inside the commit gate
+            var after = CompletableFuture.supplyAsync(() -> txMap.execute(tx -> {
+                var a = tx.get("a");
+                var b = tx.get("b");
+                var size = tx.size();
+                tx.commit();
+                return List.of(a.get(), b.get(), Option.some((long) size.getAsInt()));
+            }).value());
+            assertEquals(List.of(Option.none(), Option.some(1L), Option.some(1L)), after.get(5, TimeUnit.SECONDS));
+            txMap.checkpoint(Files.createTempFile("merge", ".ckpt"), Codec.utf8(), Codec.int64());
+        }
+    }
+
+    @Test
+    void failingMerge_afterAnotherMerge_undoesBoth() {
+        //With four shards "b" and "a" land on different shards, and "b"'s shard applies first
+        for (var txMap : List.of(TransactionalMap.<String, Long>create(), TransactionalMap.<String, Long>create(4), TransactionalMap.<String, Long>sharded(4))) {
+            txMap.execute(tx -> tx.putAll(Map.of("a", 1L, "b", 1L)));
+
+            var tx = txMap.beginTx();
+            tx.merge("b", 1L, Long::sum);
+            tx.merge("a", 1L, (_, _) -> { throw new IllegalStateException(); });
+            assertThrows(IllegalStateException.class, tx::commit);
+            assertEquals(TransactionState.ABORTED, tx.state());
+
+            var after = txMap.execute(t -> t.getAll(List.of("a", "b"))).value();
+            assertEquals(Option.some(1L), after.get(0));
+            assertEquals(Option.some(1L), after.get(1));
+        }
+    }
+
+    @Test
+    void mergeAndPut_ofKeysSharingAStripe_lockTheStripeOnce() {
+        var txMap = TransactionalMap.<String, Long>create(1); //Every key shares the one stripe
+        txMap.execute(tx -> tx.put("a", 1L));
+        try (var tx = txMap.beginTx()) {
+            var merged = tx.merge("a", 2L, Long::sum);
+            var put = tx.put("b", 5L);
+            tx.commit(); //Would wait on its own merge lock of the stripe and run out of budget
+
+            assertEquals(Option.some(3L), merged.get());
+            assertTrue(put.get().isNone());
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var put = tx.put("c", 1L);
+            var merged = tx.merge("b", 1L, Long::sum); //Registered after, so the merge plans last
+            tx.commit();
+
+            assertTrue(put.get().isNone());
+            assertEquals(Option.some(6L), merged.get());
+        }
+    }
+
+    @Test
+    void concurrentIncrements_ofOneKey_sumEveryDelta() throws InterruptedException {
+        for (var txMap : List.of(TransactionalMap.<String, Long>create(), TransactionalMap.<String, Long>create(4), TransactionalMap.<String, Long>optimisticReads(),
+                TransactionalMap.<String, Long>multiVersion(), TransactionalMap.<String, Long>combining())) {
+            int threads = 8;
+            int perThread = 500;
+            var executor = Executors.newFixedThreadPool(threads);
+            var doneGate = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        txMap.execute(tx -> tx.merge("counter", 1L, Long::sum));
+                    }
+                    doneGate.countDown();
+                });
+            }
+
+            assertTrue(doneGate.await(20, TimeUnit.SECONDS));
+            executor.shutdown();
+
+            try (var tx = txMap.beginTx()) {
+                var counter = tx.get("counter");
+                var size = tx.size();
+                tx.commit();
+                assertEquals(Option.some((long) threads * perThread), counter.get());
+                assertEquals(1, size.getAsInt());
+            }
+        }
+    }
+}
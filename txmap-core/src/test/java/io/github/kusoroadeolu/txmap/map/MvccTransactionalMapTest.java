@@ -0,0 +1,201 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.FutureValue;
+import io.github.kusoroadeolu.txmap.TransactionAbortedException;
+import io.github.kusoroadeolu.txmap.TransactionState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MvccTransactionalMapTest {
+    private MvccTransactionalMap<String, Integer> txMap;
+
+    @BeforeEach
+    void setUp() {
+        txMap = new MvccTransactionalMap<>();
+    }
+
+    @Test
+    void put_thenGet_seesOwnWrites() {
+        try (var tx = txMap.beginTx()) {
+            var putFuture = tx.put("foo", 42);
+            var getFuture = tx.get("foo");
+            var sizeFuture = tx.size();
+            tx.commit();
+
+            assertTrue(putFuture.get().isNone());
+            assertEquals(Option.some(42), getFuture.get());
+            assertEquals(Option.some(1), sizeFuture.get());
+        }
+    }
+
+    @Test
+    void reader_seesSnapshotTakenAtBegin() {
+        try (var seed = txMap.beginTx()) {
+            seed.put("a", 1);
+            seed.commit();
+        }
+
+        var reader = txMap.beginTx();
+        try (var writer = txMap.beginTx()) {
+            writer.put("a", 2);
+            writer.put("b", 3);
+            writer.commit();
+        }
+
+        var getA = reader.get("a");
+        var containsB = reader.containsKey("b");
+        var size = reader.size();
+        reader.commit();
+
+        assertEquals(Option.some(1), getA.get());
+        assertEquals(Option.some(false), containsB.get());
+        assertEquals(Option.some(1), size.get());
+    }
+
+    @Test
+    void concurrentWriters_onSameKey_firstCommitterWins() {
+        var first = txMap.beginTx();
+        var second = txMap.beginTx();
+        first.put("k", 1);
+        second.put("k", 2);
+
+        first.commit();
+        assertThrows(TransactionAbortedException.class, second::commit);
+        assertEquals(TransactionState.ABORTED, second.state());
+
+        try (var tx = txMap.beginTx()) {
+            var get = tx.get("k");
+            tx.commit();
+            assertEquals(Option.some(1), get.get());
+        }
+    }
+
+    @Test
+    void abortedTx_writesAreNotVisible() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("x", 1);
+            tx.abort();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var contains = tx.containsKey("x");
+            tx.commit();
+            assertEquals(Option.some(false), contains.get());
+        }
+    }
+
+    @Test
+    void versions_areTrimmed_onceNoSnapshotCanSeeThem() {
+        for (int i = 0; i < 100; i++) {
+            try (var tx = txMap.beginTx()) {
+                tx.put("k", i);
+                tx.commit();
+            }
+        }
+
+        assertEquals(1, txMap.versionCount("k"));
+
+        try (var tx = txMap.beginTx()) {
+            tx.remove("k");
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            tx.put("other", 0);
+            tx.commit();
+        }
+
+        assertEquals(0, txMap.versionCount("k"));
+    }
+
+    @Test
+    void versions_keptForALongSnapshot_areTrimmedOnceItCloses() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("k", 0);
+            tx.commit();
+        }
+
+        var snapshot = txMap.beginTx();
+        for (int i = 1; i <= 3; i++) {
+            try (var tx = txMap.beginTx()) {
+                tx.put("k", i);
+                tx.commit();
+            }
+        }
+        assertEquals(4, txMap.versionCount("k")); //The snapshot still sees the first version
+        snapshot.commit();
+
+        try (var tx = txMap.beginTx()) {
+            tx.put("other", 0); //Never touches "k"
+            tx.commit();
+        }
+        assertEquals(1, txMap.versionCount("k"));
+    }
+
+    @Test
+    void readers_concurrentWithTransfers_alwaysSeeConstantTotal() throws InterruptedException {
+        int accounts = 8;
+        try (var seed = txMap.beginTx()) {
+            for (int i = 0; i < accounts; i++) seed.put("acc" + i, 100);
+            seed.commit();
+        }
+
+        int threads = 8;
+        var latch = new CountDownLatch(threads);
+        var badTotals = new AtomicInteger();
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                executor.submit(() -> {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            if (id % 2 == 0) transfer("acc" + (i % accounts), "acc" + ((i + id + 1) % accounts));
+                            else if (sum(accounts) != accounts * 100) badTotals.incrementAndGet();
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, badTotals.get());
+        assertEquals(accounts * 100, sum(accounts));
+    }
+
+    private void transfer(String from, String to) {
+        if (from.equals(to)) return;
+        while (true) {
+            try (var tx = txMap.beginTx()) {
+                //Futures only resolve at commit, so read the latest balances directly, a newer commit on either account still aborts us
+                var fromBalance = txMap.read(from, Long.MAX_VALUE).unwrap();
+                var toBalance = txMap.read(to, Long.MAX_VALUE).unwrap();
+                tx.put(from, fromBalance - 1);
+                tx.put(to, toBalance + 1);
+                tx.commit();
+                return;
+            } catch (TransactionAbortedException _) {
+                //Retry against a newer snapshot
+            }
+        }
+    }
+
+    private int sum(int accounts) {
+        try (var tx = txMap.beginTx()) {
+            var futures = new ArrayList<FutureValue<Integer>>();
+            for (int i = 0; i < accounts; i++) futures.add(tx.get("acc" + i));
+            tx.commit();
+            return futures.stream().mapToInt(f -> f.get().unwrap()).sum();
+        }
+    }
+}
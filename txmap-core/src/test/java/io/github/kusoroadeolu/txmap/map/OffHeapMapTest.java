@@ -0,0 +1,198 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.Codec;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapMapTest {
+
+    @Test
+    void transactionalMap_roundTripsValuesThroughTheSlab() {
+        var txMap = new OptimisticTransactionalMap<String, String>(Codec.utf8());
+        try (var tx = txMap.beginTx()) {
+            tx.put("ascii", "hello");
+            tx.put("multibyte", "héllo wörld 😀");
+            tx.put("empty", "");
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var ascii = tx.get("ascii");
+            var multibyte = tx.get("multibyte");
+            var empty = tx.get("empty");
+            var removed = tx.remove("ascii");
+            var size = tx.size();
+            tx.commit();
+
+            assertEquals(Option.some("hello"), ascii.get());
+            assertEquals(Option.some("héllo wörld 😀"), multibyte.get());
+            assertEquals(Option.some(""), empty.get());
+            assertEquals(Option.some("hello"), removed.get());
+            assertEquals(Option.some(2), size.get());
+        }
+    }
+
+    @Test
+    void loneSurrogates_areRejected_withoutTouchingTheKey() {
+        var map = new OffHeapMap<String, String>(Codec.utf8());
+        map.put("k", "before");
+
+        assertThrows(IllegalArgumentException.class, () -> map.put("k", "lone \uD800 high"));
+        assertThrows(IllegalArgumentException.class, () -> map.put("k", "lone \uDC00 low"));
+        assertEquals("before", map.get("k"));
+        map.put("k", "pair \uD83D\uDE00");
+        assertEquals("pair \uD83D\uDE00", map.get("k"));
+    }
+
+    @Test
+    void overwrites_reuseFreedBlocks() {
+        var map = new OffHeapMap<Integer, Long>(Codec.int64());
+        for (int i = 0; i < 10_000; i++) map.put(i % 100, (long) i);
+
+        assertEquals(100, map.size());
+        assertEquals(100L * Long.BYTES, map.offHeapBytes());
+        assertEquals(9_999L, map.get(99));
+
+        for (int i = 0; i < 100; i++) map.remove(i);
+        assertEquals(0, map.offHeapBytes());
+        assertNull(map.get(99));
+    }
+
+    @Test
+    void replaces_whenTheCodecThrows_keepTheOldValue() {
+        var int64 = Codec.int64();
+        var map = new OffHeapMap<String, Long>(new Codec<>() {
+            @Override
+            public int size(Long value) {
+                return int64.size(value);
+            }
+
+            @Override
+            public void encode(Long value, MemorySegment target) {
+                if (value < 0) throw new IllegalArgumentException("negative");
+                int64.encode(value, target);
+            }
+
+            @Override
+            public Long decode(MemorySegment source) {
+                return int64.decode(source);
+            }
+        });
+        map.put("k", 1L);
+
+        assertThrows(IllegalArgumentException.class, () -> map.replace("k", -1L));
+        assertThrows(IllegalArgumentException.class, () -> map.replace("k", 1L, -1L));
+        assertEquals(1L, map.get("k"));
+        assertEquals(Long.BYTES, map.offHeapBytes()); // Blocks that failed to encode are freed
+
+        assertFalse(map.replace("k", 2L, 3L));
+        assertNull(map.replace("absent", 3L));
+        assertEquals(Long.BYTES, map.offHeapBytes());
+    }
+
+    @Test
+    void get_whileAWriteHoldsTheKey_doesntWaitForIt() throws Exception {
+        var map = new OffHeapMap<String, Long>(Codec.int64());
+        map.put("k", 1L);
+        var inside = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        var write = CompletableFuture.runAsync(() -> map.compute("k", (_, v) -> {
+            inside.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return v + 1;
+        }));
+        inside.await();
+        assertEquals(1L, CompletableFuture.supplyAsync(() -> map.get("k")).get(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        write.get(5, TimeUnit.SECONDS);
+        assertEquals(2L, map.get("k"));
+    }
+
+    @Test
+    void gets_racingOverwrites_onlySeeWholeValues() throws Exception {
+        var map = new OffHeapMap<Integer, byte[]>(Codec.bytes());
+        for (int k = 0; k < 8; k++) map.put(k, filled(k, 24));
+        var stop = new AtomicBoolean();
+        var torn = new AtomicInteger();
+
+        var readers = new ArrayList<CompletableFuture<Void>>();
+        for (int r = 0; r < 2; r++) {
+            readers.add(CompletableFuture.runAsync(() -> {
+                var random = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    int k = random.nextInt(8);
+                    var value = map.get(k);
+                    for (byte b : value) if (b != k) torn.incrementAndGet();
+                }
+            }));
+        }
+
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < 200_000; i++) {
+            int k = random.nextInt(8);
+            map.put(k, filled(k, 1 + random.nextInt(48))); // Blocks of different classes are freed and reused under the readers
+        }
+        stop.set(true);
+        for (var reader : readers) reader.get(5, TimeUnit.SECONDS);
+        assertEquals(0, torn.get());
+    }
+
+    private static byte[] filled(int b, int length){
+        var bytes = new byte[length];
+        Arrays.fill(bytes, (byte) b);
+        return bytes;
+    }
+
+    @Test
+    void valuesLargerThanAChunk_getTheirOwnSegment() {
+        var map = new OffHeapMap<String, byte[]>(Codec.bytes());
+        var large = new byte[OffHeapSlab.CHUNK_SIZE * 2];
+        large[large.length - 1] = 7;
+
+        assertNull(map.put("large", large));
+        assertEquals(7, map.get("large")[large.length - 1]);
+        assertEquals(large.length, map.replace("large", new byte[]{1}).length);
+        assertArrayEquals(new byte[]{1}, map.get("large"));
+        assertEquals(1, map.offHeapBytes());
+    }
+
+    @Test
+    void merges_ofValuesWithoutValueEquality_applyOnce() throws Exception {
+        var txMap = new OptimisticTransactionalMap<String, byte[]>(Codec.bytes());
+        BinaryOperator<byte[]> concat = (a, b) -> {
+            var joined = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, joined, a.length, b.length);
+            return joined;
+        };
+        var merged = CompletableFuture.supplyAsync(() -> { //A merge retrying until byte arrays compare equal would never return
+            txMap.execute(tx -> tx.merge("k", new byte[]{1}, concat));
+            return txMap.execute(tx -> tx.merge("k", new byte[]{2}, concat)).value();
+        });
+        assertArrayEquals(new byte[]{1, 2}, merged.get(5, TimeUnit.SECONDS).get().unwrap());
+
+        var map = new OffHeapMap<String, byte[]>(Codec.bytes());
+        map.put("k", new byte[]{1});
+        assertArrayEquals(new byte[]{1, 3}, map.computeIfPresent("k", (_, v) -> new byte[]{v[0], 3}));
+        assertNull(map.compute("k", (_, _) -> null));
+        assertEquals(0, map.offHeapBytes());
+    }
+}
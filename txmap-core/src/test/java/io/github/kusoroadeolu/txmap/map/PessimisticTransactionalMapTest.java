@@ -0,0 +1,193 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.TransactionAbortedException;
+import io.github.kusoroadeolu.txmap.TransactionState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PessimisticTransactionalMapTest {
+    private PessimisticTransactionalMap<String, Integer> txMap;
+
+    @BeforeEach
+    void setUp() {
+        txMap = new PessimisticTransactionalMap<>(Duration.ofMillis(20));
+    }
+
+    @Test
+    void ops_seeOwnBufferedWrites() {
+        try (var tx = txMap.beginTx()) {
+            var put = tx.put("a", 1);
+            var get = tx.get("a");
+            var size = tx.size();
+            var remove = tx.remove("a");
+            var contains = tx.containsKey("a");
+            tx.commit();
+
+            assertTrue(put.get().isNone());
+            assertEquals(Option.some(1), get.get());
+            assertEquals(Option.some(1), size.get());
+            assertEquals(Option.some(1), remove.get());
+            assertEquals(Option.some(false), contains.get());
+        }
+
+        assertEquals(0, txMap.lockedKeys());
+    }
+
+    @Test
+    void getAll_readsEveryKey_intoOneViewOnceCommitted() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1);
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            tx.put("b", 2);
+            var all = tx.getAll(List.of("a", "b", "missing"));
+            assertFalse(all.isComplete());
+            tx.commit();
+
+            assertTrue(all.isComplete());
+            assertEquals(3, all.size());
+            assertEquals(Option.some(1), all.get(0));
+            assertEquals(Option.some(2), all.get(1)); // Its own buffered write
+            assertTrue(all.get(2).isNone());
+            assertEquals((Integer) 0, all.getOrElse(2, 0));
+
+            all.complete(); // A view like any other, publishing it again changes nothing
+            assertEquals(Option.some(1), all.get(0));
+        }
+    }
+
+    @Test
+    void putAllAndRemoveAll_writeEveryKey_intoOneViewOnceCommitted() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1);
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var entries = new LinkedHashMap<String, Integer>();
+            entries.put("a", 10);
+            entries.put("b", 20);
+            var puts = tx.putAll(entries);
+            var removes = tx.removeAll(Set.of("b"));
+            var size = tx.size();
+            assertFalse(puts.isComplete());
+            tx.commit();
+
+            assertTrue(puts.isComplete());
+            assertEquals(Option.some(1), puts.get(0));
+            assertTrue(puts.get(1).isNone());
+            assertEquals(Option.some(20), removes.get(0)); //Its own buffered put
+            assertEquals(1, size.getAsInt());
+        }
+    }
+
+    @Test
+    void conflictingWrite_timesOut_andAborts() {
+        var holder = txMap.beginTx();
+        holder.put("k", 1);
+
+        var blocked = txMap.beginTx();
+        assertThrows(TransactionAbortedException.class, () -> blocked.put("k", 2));
+        assertEquals(TransactionState.ABORTED, blocked.state());
+        assertThrows(IllegalStateException.class, () -> blocked.get("k"));
+
+        holder.commit();
+        try (var tx = txMap.beginTx()) {
+            var get = tx.get("k");
+            tx.commit();
+            assertEquals(Option.some(1), get.get());
+        }
+    }
+
+    @Test
+    void abortedTx_releasesLocks_andDiscardsWrites() {
+        var tx = txMap.beginTx();
+        tx.put("k", 1);
+        tx.size();
+        tx.abort();
+        assertEquals(0, txMap.lockedKeys());
+
+        try (var next = txMap.beginTx()) {
+            var contains = next.containsKey("k");
+            var size = next.size();
+            next.put("k", 2);
+            next.commit();
+            assertEquals(Option.some(false), contains.get());
+            assertEquals(Option.some(0), size.get());
+        }
+    }
+
+    @Test
+    void readLock_isUpgraded_whenSoleReader() {
+        try (var tx = txMap.beginTx()) {
+            var get = tx.get("k");
+            var put = tx.put("k", 1);
+            tx.commit();
+            assertTrue(get.get().isNone());
+            assertTrue(put.get().isNone());
+        }
+    }
+
+    @Test
+    void writersLockingInOpposingOrders_abortInsteadOfDeadlocking() throws InterruptedException {
+        int keys = 4;
+        try (var seed = txMap.beginTx()) {
+            for (int i = 0; i < keys; i++) seed.put("k" + i, 0);
+            seed.commit();
+        }
+
+        int threads = 8;
+        var latch = new CountDownLatch(threads);
+        var committed = new AtomicInteger();
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                executor.submit(() -> {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            var first = "k" + (i % keys);
+                            var second = "k" + ((i + id + 1) % keys);
+                            while (true) {
+                                try (var tx = txMap.beginTx()) {
+                                    tx.put(first, id);
+                                    tx.put(second, id);
+                                    tx.size();
+                                    tx.commit();
+                                    committed.incrementAndGet();
+                                    break;
+                                } catch (TransactionAbortedException _) {
+                                    //Retry, the other side of the cycle has released its locks
+                                }
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(60, TimeUnit.SECONDS));
+        }
+
+        assertEquals(threads * 200, committed.get());
+        try (var tx = txMap.beginTx()) {
+            var size = tx.size();
+            tx.commit();
+            assertEquals(Option.some(keys), size.get());
+        }
+        assertEquals(0, txMap.lockedKeys());
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.LongFutureValue;
+import io.github.kusoroadeolu.txmap.TransactionState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedTransactionalLongMapTest {
+    private SegmentedTransactionalLongMap txMap;
+
+    @BeforeEach
+    void setUp() {
+        txMap = new SegmentedTransactionalLongMap(4, 8);
+    }
+
+    @Test
+    void ops_areAppliedInRegistrationOrder() {
+        try (var tx = txMap.beginTx()) {
+            var put = tx.put(7, 70);
+            var get = tx.get(7);
+            var overwrite = tx.put(7, 71);
+            var contains = tx.containsKey(7);
+            var size = tx.size();
+            var remove = tx.remove(7);
+            var missing = tx.get(7);
+            assertFalse(get.isComplete());
+            tx.commit();
+
+            assertFalse(put.isPresent());
+            assertEquals(70, get.get());
+            assertEquals(70, overwrite.get());
+            assertTrue(contains.get());
+            assertEquals(1, size.get());
+            assertEquals(71, remove.get());
+            assertTrue(missing.isComplete());
+            assertFalse(missing.isPresent());
+        }
+    }
+
+    @Test
+    void increment_addsToTheValue_orInsertsTheDelta() {
+        try (var tx = txMap.beginTx()) {
+            var first = tx.increment(3, 5);
+            var second = tx.increment(3, -2);
+            var get = tx.get(3);
+            tx.commit();
+
+            assertEquals(5, first.get());
+            assertEquals(3, second.get());
+            assertEquals(3, get.get());
+        }
+    }
+
+    @Test
+    void abortedTx_isNeverApplied() {
+        try (var tx = txMap.beginTx()) {
+            tx.put(1, 1);
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var contains = tx.containsKey(1);
+            tx.commit();
+            assertFalse(contains.get());
+            assertEquals(TransactionState.COMMITTED, tx.state());
+        }
+    }
+
+    @Test
+    void randomOps_matchHashMap() {
+        var model = new HashMap<Long, Long>();
+        var random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            try (var tx = txMap.beginTx()) {
+                var handles = new ArrayList<LongFutureValue>();
+                var expected = new ArrayList<Long>();
+                for (int i = 0; i < 50; i++) {
+                    long key = random.nextInt(500) - 250; //Enough keys to force resizes and removal shifts
+                    if (random.nextBoolean()) {
+                        handles.add(tx.put(key, i));
+                        expected.add(model.put(key, (long) i));
+                    } else {
+                        handles.add(tx.remove(key));
+                        expected.add(model.remove(key));
+                    }
+                }
+                tx.commit();
+
+                for (int i = 0; i < handles.size(); i++) {
+                    assertEquals(expected.get(i) == null ? -1 : expected.get(i), handles.get(i).getOrElse(-1));
+                }
+            }
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var size = tx.size();
+            tx.commit();
+            assertEquals(model.size(), size.get());
+        }
+
+        for (var entry : model.entrySet()) {
+            try (var tx = txMap.beginTx()) {
+                var get = tx.get(entry.getKey());
+                tx.commit();
+                assertEquals((long) entry.getValue(), get.get());
+            }
+        }
+    }
+
+    @Test
+    void concurrentTransactions_areAppliedAtomically() throws InterruptedException {
+        int threads = 8;
+        int txPerThread = 2000;
+        var latch = new CountDownLatch(threads);
+        var torn = new AtomicInteger();
+
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                executor.submit(() -> {
+                    try {
+                        for (int i = 0; i < txPerThread; i++) {
+                            try (var tx = txMap.beginTx()) {
+                                if (id % 2 == 0) {
+                                    tx.put(-1, i);
+                                    tx.put(-2, i);
+                                    tx.put(id * 1_000_000L + i, i);
+                                    tx.commit();
+                                } else {
+                                    var left = tx.get(-1);
+                                    var right = tx.get(-2);
+                                    tx.commit();
+                                    if (left.getOrElse(-1) != right.getOrElse(-1)) torn.incrementAndGet();
+                                }
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, torn.get());
+        try (var tx = txMap.beginTx()) {
+            var size = tx.size();
+            tx.commit();
+            assertEquals(2 + (threads / 2) * txPerThread, size.get());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.FutureValue;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedTransactionalMapTest {
+
+    @Test
+    void size_sumsEveryShard() {
+        var txMap = TransactionalMap.<Integer, Integer>sharded(8);
+        try (var tx = txMap.beginTx()) {
+            var puts = tx.putAll(Map.of(1, 1, 2, 2, 3, 3, 4, 4, 5, 5));
+            var removed = tx.remove(5); //Sees the put of this tx
+            var size = tx.size();
+            tx.commit();
+
+            assertEquals(Option.none(), puts.get(0));
+            assertEquals(Option.some(5), removed.get());
+            assertEquals(4, size.getAsInt());
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var values = tx.getAll(List.of(1, 2, 5));
+            var contains = tx.containsKey(4);
+            tx.commit();
+
+            assertEquals(Option.some(1), values.get(0));
+            assertEquals(Option.some(2), values.get(1));
+            assertEquals(Option.none(), values.get(2));
+            assertTrue(contains.getAsBoolean());
+        }
+    }
+
+    @Test
+    void abort_releasesEveryShard() throws Exception {
+        var txMap = TransactionalMap.<Integer, Integer>sharded(4);
+        var aborted = txMap.beginTx();
+        for (int k = 0; k < 16; k++) aborted.get(k); //Read locks on every shard
+        aborted.put(0, 1);
+        aborted.abort();
+
+        var write = CompletableFuture.supplyAsync(() -> txMap.execute(tx -> {
+            for (int k = 0; k < 16; k++) tx.put(k, k);
+            return tx.size();
+        }).value());
+        assertEquals(16, write.get(5, TimeUnit.SECONDS).getAsInt());
+    }
+
+    @Test
+    void sizeReader_holdingALaterShardsKey_isntStuckBehindAWriterOfBoth() throws Exception {
+        var txMap = TransactionalMap.<String, Integer>sharded(4); //"b" lands on shard 2 and "a" on shard 3, so the writer prepares "b" first
+        var reader = txMap.beginTx();
+        reader.get("a");
+
+        var writer = CompletableFuture.runAsync(() -> {
+            try (var tx = txMap.beginTx()) {
+                tx.put("b", 1);
+                tx.put("a", 1);
+                tx.commit(); //Waits on the reader's lock of "a"
+            }
+        });
+        Thread.sleep(200);
+
+        //A writer inside shard 2's size tracker while it waits on shard 3 would keep this size op spinning until the writer ran out of lock wait budget
+        var size = reader.size();
+        reader.commit();
+        assertEquals(0, size.getAsInt());
+        writer.get(5, TimeUnit.SECONDS); //Never aborted
+        assertEquals(2, txMap.execute(tx -> tx.size()).value().getAsInt());
+    }
+
+    @Test
+    void concurrentTransfers_acrossShards_keepTheTotal() throws InterruptedException {
+        var txMap = TransactionalMap.<Integer, Integer>sharded(8);
+        int accounts = 32;
+        txMap.execute(tx -> {
+            for (int k = 0; k < accounts; k++) tx.put(k, 100);
+            return null;
+        });
+
+        int threads = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+        var doneGate = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    int from = (i * 7 + thread) % accounts;
+                    int to = (from + 1 + thread) % accounts;
+                    txMap.execute(tx -> {
+                        tx.merge(from, -1, Integer::sum);
+                        return tx.merge(to, 1, Integer::sum);
+                    });
+                }
+                doneGate.countDown();
+            });
+        }
+
+        assertTrue(doneGate.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        var values = txMap.execute(tx -> {
+            var all = new ArrayList<Integer>();
+            for (int k = 0; k < accounts; k++) all.add(k);
+            return tx.getAll(all);
+        }).value();
+        int total = 0;
+        for (int k = 0; k < accounts; k++) total += values.getOrElse(k, 0);
+        assertEquals(accounts * 100, total);
+    }
+
+    //Puts rather than merges, so every shard takes exclusive locks and applies plain writes. Each writer rewrites both accounts of a pair, split across shards,
+    //so the pair always holds 200, and a reader that saw one shard's write without the other would see a different total
+    @Test
+    void concurrentPutTransfers_acrossShards_areNeverSeenHalfApplied() throws Exception {
+        var txMap = new ShardedTransactionalMap<Integer, Integer>(8);
+        var pairs = new ArrayList<int[]>();
+        for (int k = 0; pairs.size() < 16; k += 2) {
+            if (txMap.shardOf(k) != txMap.shardOf(k + 1)) pairs.add(new int[]{k, k + 1});
+        }
+        var keys = new ArrayList<Integer>();
+        for (var pair : pairs) {
+            keys.add(pair[0]);
+            keys.add(pair[1]);
+        }
+        txMap.execute(tx -> {
+            for (var k : keys) tx.put(k, 100);
+            return null;
+        });
+
+        int writers = 6;
+        var executor = Executors.newFixedThreadPool(writers + 1);
+        var failures = new ConcurrentLinkedQueue<String>();
+        var writing = new AtomicBoolean(true);
+        var doneGate = new CountDownLatch(writers);
+        for (int t = 0; t < writers; t++) {
+            executor.submit(() -> {
+                var random = ThreadLocalRandom.current();
+                for (int i = 0; i < 500; i++) {
+                    var pair = pairs.get(random.nextInt(pairs.size()));
+                    int moved = random.nextInt(201);
+                    txMap.execute(tx -> {
+                        tx.put(pair[0], moved);
+                        return tx.put(pair[1], 200 - moved);
+                    });
+                }
+                doneGate.countDown();
+            });
+        }
+
+        var reader = executor.submit(() -> {
+            while (writing.get()) {
+                var size = new FutureValue<?>[1];
+                var values = txMap.execute(tx -> {
+                    size[0] = tx.size();
+                    return tx.getAll(keys);
+                }).value();
+                int total = 0;
+                for (int i = 0; i < keys.size(); i++) total += values.getOrElse(i, 0);
+                if (total != pairs.size() * 200) failures.add("Saw a total of " + total);
+                if (size[0].getAsInt() != keys.size()) failures.add("Saw a size of " + size[0].getAsInt());
+            }
+        });
+
+        assertTrue(doneGate.await(30, TimeUnit.SECONDS));
+        writing.set(false);
+        reader.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals(List.of(), List.copyOf(failures));
+    }
+}
@@ -0,0 +1,178 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.SortedMapTransaction;
+import io.github.kusoroadeolu.txmap.TransactionAbortedException;
+import io.github.kusoroadeolu.txmap.TransactionState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SkipListTransactionalMapTest {
+    private SkipListTransactionalMap<Integer, String> txMap;
+
+    @BeforeEach
+    void setUp() {
+        txMap = new SkipListTransactionalMap<>(Comparator.naturalOrder(), Duration.ofMillis(20));
+        try (var tx = txMap.beginTx()) {
+            for (int k = 0; k < 10; k += 2) tx.put(k, "v" + k);
+            tx.commit();
+        }
+    }
+
+    @Test
+    void subMap_overlaysOwnBufferedWrites() {
+        try (var tx = txMap.beginTx()) {
+            tx.put(3, "new");
+            tx.remove(4);
+            var range = tx.subMap(2, 7);
+            var size = tx.size();
+            tx.commit();
+
+            assertEquals(List.of(2, 3, 6), List.copyOf(range.get().unwrap().keySet()));
+            assertEquals(Map.of(2, "v2", 3, "new", 6, "v6"), range.get().unwrap());
+            assertEquals(5, size.getAsInt());
+        }
+    }
+
+    @Test
+    void firstAndLastKey_seeOwnWrites_andAreNoneWhenEmpty() {
+        try (var tx = txMap.beginTx()) {
+            tx.remove(0);
+            tx.put(20, "v20");
+            var first = tx.firstKey();
+            var last = tx.lastKey();
+            tx.commit();
+
+            assertEquals(Option.some(2), first.get());
+            assertEquals(Option.some(20), last.get());
+        }
+
+        var empty = new SkipListTransactionalMap<Integer, String>(Comparator.naturalOrder());
+        try (var tx = empty.beginTx()) {
+            var first = tx.firstKey();
+            var last = tx.lastKey();
+            tx.commit();
+
+            assertTrue(first.get().isNone());
+            assertTrue(last.get().isNone());
+        }
+    }
+
+    @Test
+    void openScan_blocksWritersInsideItsRange_butNotOutside() {
+        var scan = txMap.beginTx();
+        scan.subMap(2, 7);
+
+        try (var outside = txMap.beginTx()) {
+            outside.put(7, "v7"); //The range is half open
+            outside.remove(0);
+            outside.commit();
+            assertTrue(outside.isCommitted());
+        }
+
+        var inside = txMap.beginTx();
+        assertThrows(TransactionAbortedException.class, () -> inside.put(5, "phantom"));
+        assertEquals(TransactionState.ABORTED, inside.state());
+
+        scan.commit();
+        try (var tx = txMap.beginTx()) {
+            tx.put(5, "v5");
+            tx.commit();
+            assertTrue(tx.isCommitted());
+        }
+    }
+
+    @Test
+    void manyOpenScans_onlyBlockWritersOfKeysTheyCover() {
+        var scans = new ArrayList<SortedMapTransaction<Integer, String>>();
+        for (int i = 0; i < 200; i++) {
+            var scan = txMap.beginTx();
+            scan.subMap(100 + i * 10, 105 + i * 10);
+            scans.add(scan);
+        }
+
+        try (var gaps = txMap.beginTx()) {
+            for (int i = 0; i < 200; i++) gaps.put(105 + i * 10, "gap"); //Every range is half open
+            gaps.put(99, "below");
+            gaps.commit();
+            assertTrue(gaps.isCommitted());
+        }
+
+        for (int key : List.of(100, 1092, 2094)) {
+            var covered = txMap.beginTx();
+            assertThrows(TransactionAbortedException.class, () -> covered.put(key, "phantom"));
+        }
+
+        scans.forEach(SortedMapTransaction::commit);
+        try (var tx = txMap.beginTx()) {
+            tx.put(1092, "v");
+            tx.commit();
+            assertTrue(tx.isCommitted());
+        }
+    }
+
+    @Test
+    void blockedWriter_waitsOnlyForTheScanCoveringItsKey() throws Exception {
+        var slowMap = new SkipListTransactionalMap<Integer, String>(Comparator.naturalOrder(), Duration.ofSeconds(5));
+        var covering = slowMap.beginTx();
+        covering.subMap(0, 10);
+        var other = slowMap.beginTx();
+        other.subMap(20, 30);
+
+        var write = CompletableFuture.supplyAsync(() -> slowMap.execute(tx -> tx.put(5, "v")).value());
+        Thread.sleep(50);
+        other.commit();
+        Thread.sleep(50);
+        assertFalse(write.isDone());
+
+        covering.commit();
+        assertTrue(write.get(5, TimeUnit.SECONDS).get().isNone());
+    }
+
+    @Test
+    void scan_neverSeesAPhantom_whileWritersInsert() throws InterruptedException {
+        var executor = Executors.newFixedThreadPool(2);
+        var doneGate = new CountDownLatch(2);
+        executor.submit(() -> {
+            for (int i = 0; i < 500; i++) {
+                int key = 1 + 2 * (i % 4); //Odd keys inside [0, 8)
+                boolean insert = i % 2 == 0;
+                txMap.execute(tx -> insert ? tx.put(key, "p") : tx.remove(key));
+            }
+            doneGate.countDown();
+        });
+
+        var mismatches = new AtomicInteger();
+        executor.submit(() -> {
+            for (int i = 0; i < 500; i++) {
+                try (var tx = txMap.beginTx()) {
+                    var first = tx.subMap(0, 8);
+                    Thread.yield(); //Give the writer a window between the two scans
+                    var second = tx.subMap(0, 8);
+                    tx.commit();
+                    if (!first.get().equals(second.get())) mismatches.incrementAndGet();
+                } catch (TransactionAbortedException _) {
+                    //Timed out behind the writer, the next scan starts over
+                }
+            }
+            doneGate.countDown();
+        });
+
+        assertTrue(doneGate.await(20, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(0, mismatches.get());
+    }
+}
@@ -2,11 +2,19 @@ package io.github.kusoroadeolu.txmap.map;
 
 import io.github.kusoroadeolu.ferrous.option.Option;
 import io.github.kusoroadeolu.txmap.FutureValue;
+import io.github.kusoroadeolu.txmap.TransactionAbortedException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -217,6 +225,409 @@ class TransactionalMapTest {
         }
     }
 
+    // -------------------------------------------------------------------------
+    // Lock state reclamation
+    // -------------------------------------------------------------------------
+
+    @Test
+    void lockState_isReclaimed_onceTransactionsFinish() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1);
+            tx.get("b");
+            tx.containsKey("c");
+            tx.size();
+            assertTrue(txMap.keyToLockers.size() > 0);
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            tx.remove("a");
+            tx.get("d");
+            // No commit — close() aborts
+        }
+
+        assertEquals(0, txMap.keyToLockers.size());
+    }
+
+    // -------------------------------------------------------------------------
+    // Store buffer
+    // -------------------------------------------------------------------------
+
+    @Test
+    void repeatedWrites_coalesceIntoOneChild_andReadsSeeThem() {
+        try (var tx = txMap.beginTx()) {
+            var first = tx.put("a", 1);
+            var second = tx.put("a", 2);
+            var get = tx.get("a");
+            var remove = tx.remove("a");
+            var contains = tx.containsKey("a");
+            var third = tx.put("a", 3);
+            assertEquals(1, ((OptimisticTransactionalMap.MapTransactionImpl<String, Integer>) tx).txs.size());
+            tx.commit();
+
+            assertTrue(first.get().isNone());
+            assertEquals(Option.some(1), second.get());
+            assertEquals(Option.some(2), get.get());
+            assertEquals(Option.some(2), remove.get());
+            assertEquals(Option.some(false), contains.get());
+            assertTrue(third.get().isNone());
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var get = tx.get("a");
+            var size = tx.size();
+            tx.commit();
+            assertEquals(Option.some(3), get.get());
+            assertEquals(Option.some(1), size.get());
+        }
+    }
+
+    @Test
+    void sizeOp_sealsStoreBuffer() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1);
+            var sizeAfterPut = tx.size();
+            tx.remove("a");
+            var sizeAfterRemove = tx.size();
+            tx.commit();
+
+            assertEquals(Option.some(1), sizeAfterPut.get());
+            assertEquals(Option.some(0), sizeAfterRemove.get());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // Lock striping
+    // -------------------------------------------------------------------------
+
+    @Test
+    void stripedMap_keysSharingAStripe_commitTogether() {
+        var striped = new OptimisticTransactionalMap<String, Integer>(1); // Every key lands on the same stripe
+        try (var tx = striped.beginTx()) {
+            tx.get("a");
+            tx.put("a", 1);
+            tx.put("b", 2);
+            tx.remove("c");
+            var size = tx.size();
+            tx.commit();
+            assertEquals(Option.some(2), size.get());
+        }
+
+        try (var tx = striped.beginTx()) {
+            var a = tx.get("a");
+            var b = tx.containsKey("b");
+            tx.commit();
+            assertEquals(Option.some(1), a.get());
+            assertEquals(Option.some(true), b.get());
+        }
+    }
+
+    @Test
+    void keysWithEqualHashes_inOppositeOrder_commitWithoutDeadlock() throws InterruptedException {
+        //"Aa" and "BB" share a hash, so every string built from them does too and the lock order has to break the ties
+        var keys = new ArrayList<String>(List.of(""));
+        for (int i = 0; i < 6; i++) {
+            var longer = new ArrayList<String>();
+            for (var key : keys) {
+                longer.add(key + "Aa");
+                longer.add(key + "BB");
+            }
+            keys = longer;
+        }
+        var colliding = List.copyOf(keys);
+        var executor = Executors.newFixedThreadPool(2);
+        var doneGate = new CountDownLatch(2);
+        var failures = new ConcurrentLinkedQueue<Throwable>();
+
+        for (int t = 0; t < 2; t++) {
+            final boolean reversed = t == 1;
+            executor.submit(() -> {
+                try {
+                    for (int round = 0; round < 50; round++) {
+                        try (var tx = txMap.beginTx()) {
+                            for (int i = 0; i < colliding.size(); i++) {
+                                tx.put(colliding.get(reversed ? colliding.size() - 1 - i : i), round);
+                            }
+                            tx.commit();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+                doneGate.countDown();
+            });
+        }
+
+        assertTrue(doneGate.await(20, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(List.of(), List.copyOf(failures)); //A deadlock would abort one of them once its lock wait budget ran out
+    }
+
+    @Test
+    void stripedMap_rejectsNonPowerOfTwoStripeCount() {
+        assertThrows(IllegalArgumentException.class, () -> new OptimisticTransactionalMap<String, Integer>(12));
+    }
+
+    // -------------------------------------------------------------------------
+    // Optimistic reads
+    // -------------------------------------------------------------------------
+
+    @Test
+    void optimisticReads_writerDoesNotWaitOnReader_andStaleReaderAborts() throws InterruptedException {
+        var optimistic = OptimisticTransactionalMap.<String, Integer>withOptimisticReads();
+        try (var tx = optimistic.beginTx()) {
+            tx.put("a", 1);
+            tx.commit();
+        }
+
+        try (var reader = optimistic.beginTx()) {
+            var get = reader.get("a");
+            var contains = reader.containsKey("a");
+
+            var writer = Thread.ofPlatform().start(() -> {
+                try (var tx = optimistic.beginTx()) {
+                    tx.remove("a");
+                    tx.commit();
+                }
+            });
+            writer.join(5_000);
+            assertFalse(writer.isAlive()); // Never blocked by the open reader
+
+            assertThrows(TransactionAbortedException.class, reader::commit);
+            assertFalse(get.isComplete());
+            assertFalse(contains.isComplete());
+        }
+
+        assertEquals(0, optimistic.keyToLockers.size());
+    }
+
+    @Test
+    void optimisticReads_unchangedKeys_commitWithTheirValues() {
+        var optimistic = OptimisticTransactionalMap.<String, Integer>withOptimisticReads();
+        try (var tx = optimistic.beginTx()) {
+            tx.put("a", 1);
+            tx.commit();
+        }
+
+        try (var tx = optimistic.beginTx()) {
+            var get = tx.get("a");
+            var contains = tx.containsKey("b");
+            tx.put("a", 2); // Applied after the read was evaluated
+            var all = tx.getAll(List.of("a", "b"));
+            tx.commit();
+
+            assertEquals(Option.some(1), get.get());
+            assertFalse(contains.getAsBoolean());
+            assertEquals(Option.some(2), all.get(0)); // From the store buffer
+            assertTrue(all.get(1).isNone());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // Reuse mode
+    // -------------------------------------------------------------------------
+
+    @Test
+    void reusingMap_recyclesTransactionAndSlots_perThread() {
+        var reusing = OptimisticTransactionalMap.<String, Integer>reusing();
+        OptimisticTransactionalMap.MapTransactionImpl<String, Integer> first;
+        try (var tx = reusing.beginTx()) {
+            first = (OptimisticTransactionalMap.MapTransactionImpl<String, Integer>) tx;
+            tx.put("a", 1);
+            tx.put("b", 2);
+            tx.commit();
+        }
+
+        try (var tx = reusing.beginTx()) {
+            assertSame(first, tx);
+            try (var nested = reusing.beginTx()) {
+                assertNotSame(first, nested); // The recycled tx is still open
+            }
+
+            var a = tx.get("a");
+            var b = tx.remove("b");
+            var size = tx.size();
+            tx.commit();
+            assertEquals(Option.some(1), a.get());
+            assertEquals(Option.some(2), b.get());
+            assertEquals(Option.some(1), size.get());
+        }
+
+        assertEquals(0, reusing.keyToLockers.size());
+    }
+
+    @Test
+    void reusingMap_recyclesResults_atTheNextBegin() {
+        var reusing = OptimisticTransactionalMap.<String, Integer>reusing();
+        FutureValue<Option<Integer>> first;
+        try (var tx = reusing.beginTx()) {
+            first = tx.put("a", 1);
+            tx.commit();
+        }
+        assertEquals(Option.none(), first.get()); // Still readable until the next begin
+
+        try (var tx = reusing.beginTx()) {
+            var second = tx.put("a", 2);
+            assertSame(first, second);
+            assertFalse(second.isComplete());
+            tx.commit();
+            assertEquals(Option.some(1), second.get());
+        }
+    }
+
+    @Test
+    void reusingMap_concurrentTransfers_keepTheTotal() throws Exception {
+        var reusing = OptimisticTransactionalMap.<Integer, Integer>reusing();
+        int accounts = 16;
+        try (var tx = reusing.beginTx()) {
+            for (int k = 0; k < accounts; k++) tx.put(k, 100);
+            tx.commit();
+        }
+
+        int threads = 4;
+        var executor = Executors.newFixedThreadPool(threads);
+        var failures = new ConcurrentLinkedQueue<Throwable>();
+        var tasks = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            tasks.add(executor.submit(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    int from = (i * 5 + thread) % accounts;
+                    int to = (from + 1 + thread) % accounts;
+                    try {
+                        reusing.execute(tx -> {
+                            var a = tx.get(from);
+                            var b = tx.get(to);
+                            tx.commit(); // Read locks on recycled lock state
+                            return a.get().unwrap() + b.get().unwrap();
+                        });
+                        reusing.execute(tx -> {
+                            tx.merge(from, -1, Integer::sum);
+                            return tx.merge(to, 1, Integer::sum);
+                        });
+                    } catch (Throwable e) {
+                        failures.add(e);
+                        return;
+                    }
+                }
+            }));
+        }
+        for (var task : tasks) task.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(List.of(), List.copyOf(failures));
+        int total = 0;
+        try (var tx = reusing.beginTx()) {
+            var all = new ArrayList<FutureValue<Integer>>();
+            for (int k = 0; k < accounts; k++) all.add(tx.get(k));
+            tx.commit();
+            for (var value : all) total += value.get().unwrap();
+        }
+        assertEquals(accounts * 100, total);
+        assertEquals(0, reusing.keyToLockers.size());
+    }
+
+    // -------------------------------------------------------------------------
+    // Result handles
+    // -------------------------------------------------------------------------
+
+    @Test
+    void primitiveAccessors_readBooleanAndIntResults() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1);
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var contains = tx.containsKey("a");
+            var size = tx.size();
+            assertThrows(NoSuchElementException.class, contains::getAsBoolean);
+            tx.commit();
+            assertTrue(contains.getAsBoolean());
+            assertEquals(1, size.getAsInt());
+            assertSame(size.get(), size.get()); // Built once
+        }
+    }
+
+    @Test
+    void getAll_fillsOneViewInKeyOrder_includingBufferedWrites() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1);
+            tx.put("b", 2);
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            tx.put("b", 20);
+            var all = tx.getAll(List.of("a", "b", "missing"));
+            assertFalse(all.isComplete());
+            tx.commit();
+
+            assertEquals(3, all.size());
+            assertEquals(Option.some(1), all.get(0));
+            assertEquals(Option.some(20), all.get(1));
+            assertTrue(all.get(2).isNone());
+            assertEquals(-1, (int) all.getOrElse(2, -1));
+        }
+    }
+
+    @Test
+    void putAllAndRemoveAll_fillViewsOfPreviousValues_andChangeTheSize() {
+        try (var tx = txMap.beginTx()) {
+            tx.put("a", 1);
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            tx.put("c", 3);
+            var entries = new LinkedHashMap<String, Integer>();
+            entries.put("a", 10);
+            entries.put("b", 20);
+            entries.put("c", 30);
+            var puts = tx.putAll(entries);
+            var removes = tx.removeAll(List.of("b", "missing"));
+            var size = tx.size();
+            assertFalse(puts.isComplete());
+            tx.commit();
+
+            assertEquals(Option.some(1), puts.get(0));
+            assertTrue(puts.get(1).isNone());
+            assertEquals(Option.some(3), puts.get(2)); //This tx's own pending put
+            assertEquals(Option.some(20), removes.get(0));
+            assertTrue(removes.get(1).isNone());
+            assertEquals(2, size.getAsInt());
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var all = tx.getAll(List.of("a", "b", "c"));
+            tx.commit();
+            assertEquals(Option.some(10), all.get(0));
+            assertTrue(all.get(1).isNone());
+            assertEquals(Option.some(30), all.get(2));
+        }
+    }
+
+    @Test
+    void bulkWrites_ofMoreKeysThanThePinnedTableHolds_takeAnyCollection() {
+        var entries = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < 100; i++) entries.put("k" + i, i);
+
+        try (var tx = txMap.beginTx()) {
+            tx.put("k0", -1);
+            var puts = tx.putAll(entries);
+            var removes = tx.removeAll(new ArrayDeque<>(List.of("k1", "k99", "missing")));
+            var size = tx.size();
+            tx.commit();
+
+            assertEquals(Option.some(-1), puts.get(0));
+            assertTrue(puts.get(99).isNone());
+            assertEquals(Option.some(1), removes.get(0));
+            assertEquals(Option.some(99), removes.get(1));
+            assertTrue(removes.get(2).isNone());
+            assertEquals(98, size.getAsInt());
+        }
+    }
+
     // -------------------------------------------------------------------------
     // Size delta correctness
     // -------------------------------------------------------------------------
@@ -238,4 +649,81 @@ class TransactionalMapTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    void size_concurrentInsertsAndReaders_matchesEntryCount() throws Exception {
+        int threads = 4;
+        int perThread = 250;
+        var executor = Executors.newFixedThreadPool(threads + 1);
+        var doneGate = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    try (var tx = txMap.beginTx()) {
+                        tx.put(id + "-" + i, i);
+                        if (i % 2 == 1) tx.remove(id + "-" + (i - 1));
+                        tx.commit();
+                    }
+                }
+                doneGate.countDown();
+            });
+        }
+
+        // Size readers run alongside the writers, every size they see must be a size the map actually had.
+        // A failed check ends the reader, and its future rethrows it on the test thread
+        var reader = executor.submit(() -> {
+            while (doneGate.getCount() > 0) {
+                try (var tx = txMap.beginTx()) {
+                    var size = tx.size();
+                    tx.commit();
+                    int seen = size.get().unwrap();
+                    assertTrue(seen >= 0 && seen <= threads * perThread);
+                }
+            }
+        });
+
+        assertTrue(doneGate.await(10, TimeUnit.SECONDS));
+        reader.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        try (var tx = txMap.beginTx()) {
+            var sizeFuture = tx.size();
+            tx.commit();
+            assertEquals(Option.some(threads * perThread / 2), sizeFuture.get());
+        }
+    }
+
+    @Test
+    void largeTransactions_equalKeysInOppositeOrder_commitWithoutDeadlock() throws InterruptedException {
+        int keys = 500;
+        var executor = Executors.newFixedThreadPool(2);
+        var doneGate = new CountDownLatch(2);
+
+        for (int t = 0; t < 2; t++) {
+            final boolean reversed = t == 1;
+            executor.submit(() -> {
+                for (int round = 0; round < 20; round++) {
+                    try (var tx = txMap.beginTx()) {
+                        for (int i = 0; i < keys; i++) {
+                            int k = reversed ? keys - 1 - i : i;
+                            tx.put(new String("key-" + k), round); // Equal keys, distinct instances
+                        }
+                        tx.commit();
+                    }
+                }
+                doneGate.countDown();
+            });
+        }
+
+        assertTrue(doneGate.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        try (var tx = txMap.beginTx()) {
+            var sizeFuture = tx.size();
+            tx.commit();
+            assertEquals(Option.some(keys), sizeFuture.get());
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.txmap.TransactionalSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionalSetTest {
+
+    @Test
+    void addAndRemove_reportMembershipChanges() {
+        var set = TransactionalSet.<String>create();
+        try (var tx = set.beginTx()) {
+            var added = tx.add("a");
+            var addedAgain = tx.add("a"); //Folded into the first add
+            var contains = tx.contains("a");
+            var size = tx.size();
+            tx.commit();
+
+            assertTrue(added.getAsBoolean());
+            assertFalse(addedAgain.getAsBoolean());
+            assertTrue(contains.getAsBoolean());
+            assertEquals(1, size.getAsInt());
+        }
+
+        try (var tx = set.beginTx()) {
+            var addedExisting = tx.add("a");
+            var removed = tx.remove("a");
+            var removedMissing = tx.remove("b");
+            var contains = tx.contains("a");
+            tx.commit();
+
+            assertFalse(addedExisting.getAsBoolean());
+            assertTrue(removed.getAsBoolean());
+            assertFalse(removedMissing.getAsBoolean());
+            assertFalse(contains.getAsBoolean());
+        }
+    }
+
+    @Test
+    void addThenRemove_ofAMissingElement_reportsTheAdd() {
+        var set = TransactionalSet.<String>create();
+        try (var tx = set.beginTx()) {
+            var added = tx.add("a");
+            var removed = tx.remove("a"); //Folded into the add, which still reports its own change
+            tx.commit();
+
+            assertTrue(added.getAsBoolean());
+            assertTrue(removed.getAsBoolean());
+        }
+
+        try (var tx = set.beginTx()) {
+            var contains = tx.contains("a");
+            var size = tx.size();
+            tx.commit();
+            assertFalse(contains.getAsBoolean());
+            assertEquals(0, size.getAsInt());
+        }
+    }
+
+    @Test
+    void concurrentAdds_ofOneElement_changeMembershipOnce() throws InterruptedException {
+        var set = TransactionalSet.<String>create();
+        int threads = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+        var doneGate = new CountDownLatch(threads);
+        var changes = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try (var tx = set.beginTx()) {
+                    var added = tx.add("shared");
+                    tx.commit();
+                    if (added.getAsBoolean()) changes.incrementAndGet();
+                }
+                doneGate.countDown();
+            });
+        }
+
+        assertTrue(doneGate.await(20, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(1, changes.get());
+        try (var tx = set.beginTx()) {
+            var size = tx.size();
+            tx.commit();
+            assertEquals(1, size.getAsInt());
+        }
+    }
+
+    @Test
+    void memberTable_keepsMembershipThroughResizesAndRemovals() {
+        var table = new MemberTable<Integer>(2, 8);
+        var model = new HashSet<Integer>();
+        var random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            int member = random.nextInt(512) * 64; //Shares low bits, so probe runs get long
+            if (random.nextBoolean()) assertEquals(model.add(member), table.put(member, Boolean.TRUE) == null);
+            else assertEquals(model.remove(member), table.remove(member) != null);
+        }
+
+        assertEquals(model.size(), table.size());
+        for (int member = 0; member < 512 * 64; member += 64) assertEquals(model.contains(member), table.containsKey(member));
+        assertEquals(model, table.keySet());
+        assertThrows(IllegalArgumentException.class, () -> table.put(1, Boolean.FALSE));
+    }
+}
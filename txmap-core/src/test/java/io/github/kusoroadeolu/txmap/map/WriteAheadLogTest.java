@@ -0,0 +1,195 @@
+package io.github.kusoroadeolu.txmap.map;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.Codec;
+import io.github.kusoroadeolu.txmap.Durability;
+import io.github.kusoroadeolu.txmap.TransactionState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+    private Path dir;
+    private Path logFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("txmap-wal");
+        logFile = dir.resolve("map.wal");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(dir);
+    }
+
+    private OptimisticTransactionalMap<String, Long> open(Durability durability) {
+        return new OptimisticTransactionalMap<>(logFile, Codec.utf8(), Codec.int64(), durability);
+    }
+
+    @Test
+    void committedWrites_areReplayedOnReopen() {
+        try (var txMap = open(Durability.FSYNC)) {
+            try (var tx = txMap.beginTx()) {
+                tx.put("a", 1L);
+                tx.put("b", 2L);
+                tx.put("b", 3L); //Coalesced, only the final value is logged
+                tx.commit();
+            }
+
+            try (var tx = txMap.beginTx()) {
+                tx.remove("a");
+                tx.put("c", 4L);
+                tx.commit();
+            }
+
+            try (var tx = txMap.beginTx()) {
+                tx.put("never", 5L);
+                tx.abort();
+            }
+        }
+
+        try (var txMap = open(Durability.FSYNC); var tx = txMap.beginTx()) {
+            var a = tx.containsKey("a");
+            var b = tx.get("b");
+            var c = tx.get("c");
+            var never = tx.containsKey("never");
+            var size = tx.size();
+            tx.commit();
+
+            assertEquals(Option.some(false), a.get());
+            assertEquals(Option.some(3L), b.get());
+            assertEquals(Option.some(4L), c.get());
+            assertEquals(Option.some(false), never.get());
+            assertEquals(Option.some(2), size.get());
+        }
+    }
+
+    @Test
+    void merges_areLoggedAsTheirResult() {
+        var calls = new AtomicInteger();
+        BinaryOperator<Long> sum = (a, b) -> {
+            calls.incrementAndGet();
+            return a + b;
+        };
+        try (var txMap = open(Durability.WRITE)) {
+            for (int i = 0; i < 3; i++) {
+                try (var tx = txMap.beginTx()) {
+                    var first = tx.merge("hits", 2L, sum);
+                    var second = tx.merge("hits", 1L, sum);
+                    tx.commit();
+                    assertEquals(Option.some(3L * i + 2), first.get());
+                    assertEquals(Option.some(3L * i + 3), second.get());
+                }
+            }
+        }
+        assertEquals(5, calls.get()); //Once per merge into a present key, the applied value is the logged one
+
+        try (var txMap = open(Durability.WRITE); var tx = txMap.beginTx()) {
+            var hits = tx.get("hits");
+            tx.commit();
+            assertEquals(Option.some(9L), hits.get());
+        }
+    }
+
+    @Test
+    void codecFailure_abortsTheTx_andReleasesItsLocks() {
+        var int64 = Codec.int64();
+        var rejectsNegatives = new Codec<Long>() {
+            @Override
+            public int size(Long value) {
+                if (value < 0) throw new IllegalArgumentException("negative");
+                return int64.size(value);
+            }
+
+            @Override
+            public void encode(Long value, MemorySegment target) {
+                int64.encode(value, target);
+            }
+
+            @Override
+            public Long decode(MemorySegment source) {
+                return int64.decode(source);
+            }
+        };
+
+        try (var txMap = new OptimisticTransactionalMap<>(logFile, Codec.utf8(), rejectsNegatives, Durability.WRITE)) {
+            var failed = txMap.beginTx();
+            failed.put("a", -1L);
+            assertThrows(IllegalArgumentException.class, failed::commit);
+            assertEquals(TransactionState.ABORTED, failed.state());
+
+            try (var tx = txMap.beginTx()) { //Would wait out its lock wait budget and abort if the failed tx still held the key
+                var prev = tx.put("a", 1L);
+                tx.commit();
+                assertEquals(Option.none(), prev.get());
+            }
+        }
+    }
+
+    @Test
+    void tornTail_isTruncated() throws IOException {
+        try (var txMap = open(Durability.WRITE); var tx = txMap.beginTx()) {
+            tx.put("kept", 1L);
+            tx.commit();
+        }
+
+        long intact = Files.size(logFile);
+        Files.write(logFile, new byte[]{0, 0, 0, 64, 1, 2, 3}, StandardOpenOption.APPEND); //A record cut short by a crash
+
+        try (var txMap = open(Durability.WRITE); var tx = txMap.beginTx()) {
+            var kept = tx.get("kept");
+            tx.commit();
+            assertEquals(Option.some(1L), kept.get());
+        }
+
+        assertEquals(intact, Files.size(logFile));
+    }
+
+    @Test
+    void concurrentCommitters_areAllRecovered() throws InterruptedException {
+        int threads = 8;
+        int perThread = 200;
+        var latch = new CountDownLatch(threads);
+        try (var txMap = open(Durability.FSYNC); var executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                executor.submit(() -> {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            try (var tx = txMap.beginTx()) {
+                                tx.put("t" + id + "-" + i, (long) i);
+                                tx.commit();
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(60, TimeUnit.SECONDS));
+        }
+
+        try (var txMap = open(Durability.FSYNC); var tx = txMap.beginTx()) {
+            var size = tx.size();
+            var last = tx.get("t7-199");
+            tx.commit();
+            assertEquals(Option.some(threads * perThread), size.get());
+            assertEquals(Option.some(199L), last.get());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package io.github.kusoroadeolu.txmap.queue;
+
+import io.github.kusoroadeolu.ferrous.option.Option;
+import io.github.kusoroadeolu.txmap.TransactionState;
+import io.github.kusoroadeolu.txmap.TransactionalMap;
+import io.github.kusoroadeolu.txmap.TransactionalQueue;
+import io.github.kusoroadeolu.txmap.TransactionalSortedMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionalQueueTest {
+
+    @Test
+    void offers_areInvisible_untilCommit() {
+        var queue = TransactionalQueue.<String>create();
+        var producer = queue.beginTx();
+        producer.offer("a");
+        producer.offer("b");
+
+        try (var consumer = queue.beginTx()) {
+            assertTrue(consumer.poll().isNone());
+            consumer.commit();
+        }
+
+        producer.commit();
+        try (var consumer = queue.beginTx()) {
+            assertEquals(Option.some("a"), consumer.poll());
+            assertEquals(Option.some("b"), consumer.poll());
+            consumer.commit();
+        }
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void abortedPolls_goBackToTheHead_inOrder() {
+        var queue = TransactionalQueue.<Integer>create();
+        try (var tx = queue.beginTx()) {
+            for (int i = 0; i < 3; i++) tx.offer(i);
+            tx.commit();
+        }
+
+        var consumer = queue.beginTx();
+        consumer.poll();
+        consumer.poll();
+        consumer.abort();
+        assertEquals(TransactionState.ABORTED, consumer.state());
+
+        try (var tx = queue.beginTx()) {
+            assertEquals(Option.some(0), tx.poll());
+            assertEquals(Option.some(1), tx.poll());
+            assertEquals(Option.some(2), tx.poll());
+            tx.commit();
+        }
+    }
+
+    @Test
+    void joinedQueue_commitsAndAbortsWithTheMapTransaction() {
+        var txMap = TransactionalMap.<String, String>create();
+        var queue = TransactionalQueue.<String>create();
+        try (var tx = queue.beginTx()) {
+            tx.offer("job-1");
+            tx.commit();
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var jobs = queue.join(tx);
+            var job = jobs.poll().unwrap();
+            tx.put(job, "running");
+            jobs.offer("job-2");
+            assertThrows(IllegalStateException.class, jobs::commit);
+            tx.abort();
+            assertEquals(TransactionState.ABORTED, jobs.state());
+        }
+        assertEquals(1, queue.size());
+
+        try (var tx = txMap.beginTx()) {
+            var jobs = queue.join(tx);
+            var job = jobs.poll().unwrap();
+            tx.put(job, "done");
+            jobs.offer("job-2");
+            tx.commit();
+            assertTrue(jobs.isCommitted());
+        }
+
+        try (var tx = txMap.beginTx()) {
+            var jobs = queue.join(tx);
+            var status = tx.get("job-1");
+            var next = jobs.poll();
+            tx.commit();
+            assertEquals(Option.some("done"), status.get());
+            assertEquals(Option.some("job-2"), next);
+        }
+    }
+
+    @Test
+    void joinedQueue_onEveryMap_commitsAndAbortsWithIt() {
+        for (var txMap : List.of(TransactionalMap.<String, String>pessimistic(), TransactionalMap.<String, String>multiVersion(), TransactionalMap.<String, String>combining(),
+                TransactionalMap.<String, String>sharded(4), TransactionalMap.<String, String>optimisticReads(), TransactionalSortedMap.<String, String>create())) {
+            var queue = TransactionalQueue.<String>create();
+            try (var tx = queue.beginTx()) {
+                tx.offer("job-1");
+                tx.commit();
+            }
+
+            try (var tx = txMap.beginTx()) {
+                var jobs = queue.join(tx);
+                tx.put(jobs.poll().unwrap(), "running");
+                tx.abort();
+                assertEquals(TransactionState.ABORTED, jobs.state());
+            }
+            assertEquals(1, queue.size());
+
+            try (var tx = txMap.beginTx()) {
+                var jobs = queue.join(tx);
+                tx.put(jobs.poll().unwrap(), "done");
+                jobs.offer("job-2");
+                tx.commit();
+                assertTrue(jobs.isCommitted());
+            }
+
+            try (var tx = txMap.beginTx()) {
+                var status = tx.get("job-1");
+                tx.commit();
+                assertEquals(Option.some("done"), status.get());
+            }
+            assertEquals(1, queue.size());
+        }
+    }
+
+    @Test
+    void concurrentConsumers_takeEveryItemExactlyOnce() throws InterruptedException {
+        var queue = TransactionalQueue.<Integer>create();
+        int items = 10_000;
+        try (var tx = queue.beginTx()) {
+            for (int i = 0; i < items; i++) tx.offer(i);
+            tx.commit();
+        }
+
+        int threads = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+        var doneGate = new CountDownLatch(threads);
+        Set<Integer> taken = ConcurrentHashMap.newKeySet();
+        var failures = new ConcurrentLinkedQueue<String>(); //Asserting on a pool thread would only fail its future
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int round = 0; ; round++) {
+                    try (var tx = queue.beginTx()) {
+                        var item = tx.poll();
+                        if (item.isNone()) break;
+                        if ((round + thread) % 3 == 0) {
+                            tx.abort(); //Hand it back for another consumer
+                            continue;
+                        }
+                        tx.commit();
+                        if (!taken.add(item.unwrap())) failures.add("Item taken twice: " + item.unwrap());
+                    }
+                }
+                doneGate.countDown();
+            });
+        }
+
+        assertTrue(doneGate.await(20, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(List.of(), List.copyOf(failures));
+        assertEquals(items, taken.size());
+        assertEquals(0, queue.size());
+    }
+}